@@ -8,7 +8,9 @@ import footsiebot.nlp.*;
 import java.io.*;
 import java.util.*;
 import java.lang.Math;
+import java.text.DecimalFormat;
 import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
 import javafx.animation.*;
 import javafx.application.*;
 import javafx.stage.Stage;
@@ -20,6 +22,7 @@ public class Core extends Application {
     private GUIcore ui;
     private INaturalLanguageProcessor nlp;
     private IDatabaseManager dbm;
+    private IAsyncDatabaseManager adbm;//Runs database calls off the UI thread
     private IDataGathering dgc;
     private IIntelligenceUnit ic;
 
@@ -33,8 +36,18 @@ public class Core extends Application {
 
     public static final long DOWNLOAD_RATE = 120000;//Download new data every 120 seconds.
 
+    //News stored for a company is given again for this long before it is fetched again
+    public static final java.time.Duration NEWS_REFRESH_RATE = java.time.Duration.ofMinutes(15);
+
     public Boolean FULLSCREEN = false;
 
+    public String DATABASE_BACKEND = "sqlite";//"sqlite" to store data in the database file, "memory" to keep it in memory only
+
+    public Boolean DATABASE_METRICS = false;//Whether to time every statement run on the sqlite database
+    private QueryMetrics dbMetrics;//null unless DATABASE_METRICS
+
+    private final DecimalFormat gbxFormat = new DecimalFormat("GBX #,##0.00;GBX -#,##0.00");//Reused for every price output
+
     /*
     * The latest scrape result downloaded, and some boolean "locks" to assist
     * with synchronization. Booleans probably not technically required.
@@ -44,6 +57,8 @@ public class Core extends Application {
     private Boolean freshData = false;
     private Boolean readingScrape = false;
     private Boolean writingScrape = false;
+    //Completes once the last scrape handed to the database has been stored
+    private CompletableFuture<Boolean> pendingStore = CompletableFuture.completedFuture(true);
 
     /*
     * Variables to keep track of what has recently been output, so that we never
@@ -62,8 +77,25 @@ public class Core extends Application {
     */
     public Core() {
         nlp = new NLPCore();
-        dbm = new DatabaseCore();
         dgc = new DataGatheringCore();
+    }
+
+   /**
+    * Creates the database backend named in the config file, and the IC using it
+    */
+    private void createDatabase() {
+        IDatabaseManager backend;
+        if (DATABASE_BACKEND.equals("memory")) {
+            backend = new MemoryDatabaseCore();
+        } else {
+            if (DATABASE_METRICS) {
+                dbMetrics = new QueryMetrics();
+            }
+            backend = new DatabaseCore(dbMetrics);
+        }
+        dbm = new CachingDatabaseManager(backend);//The same queries are asked by the user, suggestions and summaries
+        System.out.println("Using the "+DATABASE_BACKEND+" database backend");
+        adbm = new AsyncDatabaseManager(dbm);
         ic = new IntelligenceCore(dbm);
     }
 
@@ -84,15 +116,22 @@ public class Core extends Application {
     @Override
     public void start(Stage primaryStage) {
         readSettings();//Loading from the config file
+        createDatabase();
         List<String> args = getParameters().getRaw();
         //Allows running of tests.
         Boolean runTradingHourTest = false;
         Boolean runIntentTest = false;
+        Boolean runDatabaseConformanceTest = false;
+        Boolean runDatabaseStressTest = false;
         if (args.size() > 0) {
             if (args.get(0).equals("tradinghour")){
                 runTradingHourTest = true;
             } else if (args.get(0).equals("intenttest")){
                 runIntentTest = true;
+            } else if (args.get(0).equals("dbconformance")){
+                runDatabaseConformanceTest = true;
+            } else if (args.get(0).equals("dbstress")){
+                runDatabaseStressTest = true;
             }
             else if (args.get(0).equals("novoice")){
                 novoice = true;
@@ -151,6 +190,22 @@ public class Core extends Application {
             }
         }
 
+        if (runDatabaseConformanceTest){
+            try{
+                testDatabaseConformance();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (runDatabaseStressTest){
+            try{
+                testDatabaseStress();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
         if(!novoice){
     		voiceThread = new Thread(() -> {
 
@@ -241,6 +296,7 @@ public class Core extends Application {
     			e.printStackTrace();
     		}
         }
+        adbm.close();//Finishes queued database calls, then writes any queries and feedback still queued
 
         System.out.println("Safely closed the program.");
     }
@@ -269,6 +325,11 @@ public class Core extends Application {
             handleUserNameChange(newName);
             ranCommand = true;
         }
+        else if(raw.toLowerCase().equals("database metrics") && dbMetrics != null) {
+            System.out.println(dbMetrics.report());
+            ui.displayMessage("The database metrics have been printed to the console.");
+            ranCommand = true;
+        }
         else if(raw.toLowerCase().contains("tell me a joke")) {
             readJoke();
             ranCommand = true;
@@ -286,6 +347,7 @@ public class Core extends Application {
             message += "\n\nFetch you the trend of a company on a given day.\n    Ask me 'What was the trend in X last Wednesday?'";
             message += "\n\nFetch you the trend of a company since a given day.\n    Ask me 'Has X risen since Tuesday?'";
             message += "\n\nFetch you the recent news on a company.\n    Ask me 'What is the news for X'";
+            message += "\n\nSearch all the news I have fetched, for a company, a group or every company.\n    Ask me 'Search the news for dividends' or 'News about dividends for X'";
             message += "\n\nGive you most of the above information for a group of companies, and for any day over the past 5 trading days.";
             message += "\n    For example, ask me 'Did Pharmaceuticals rise yesterday?'";
             ui.displayMessage(message);
@@ -315,6 +377,10 @@ public class Core extends Application {
                 outputJustNewsSummary();
                 return;
             }
+            if(pr.getIntent() == Intent.NEWS_SEARCH){//Searches the news of every company
+                outputNewsSearch(pr);
+                return;
+            }
             ui.displayMessage("I'm sorry "+USER_NAME+", but I'm afraid I can't understand your input. Try asking 'help' to see what I can do.");
             return;
         }
@@ -322,11 +388,15 @@ public class Core extends Application {
             //At this point, we have established that the operand is not null, but the intent is.
             //If the user enters a company without an intent, we give them a summary.
             if (!pr.isOperandGroup()){
-                String summary = getSingleCompanySummary(pr.getOperand());
-                if (summary != null){
-                    ui.displayMessage("I didn't recognise any commands or queries in your input, but I think you wanted to know about "+summary);
-                    return;
-                }
+                getSingleCompanySummary(pr.getOperand()).thenAcceptAsync(summary -> {
+                    if (summary != null){
+                        ui.displayMessage("I didn't recognise any commands or queries in your input, but I think you wanted to know about "+summary);
+                    }
+                    else{
+                        ui.displayMessage("I'm sorry "+USER_NAME+", but I'm afraid I can't understand your input. Try asking 'help' to see what I can do.");
+                    }
+                }, Platform::runLater);
+                return;
             }
             ui.displayMessage("I'm sorry "+USER_NAME+", but I'm afraid I can't understand your input. Try asking 'help' to see what I can do.");
             return;
@@ -342,26 +412,59 @@ public class Core extends Application {
 
         extraDataAddedToLastOutput = null;//Reseting this.
 
-        Suggestion suggestion;
+        if (pr.getIntent() == Intent.NEWS_SEARCH) {//Searches aren't counted, so are neither stored nor suggested from
+            outputNewsSearch(pr);
+            return;
+        }
 
-        Boolean managedToStoreQuery = dbm.storeQuery(pr,LocalDateTime.now());
+        Boolean managedToStoreQuery = dbm.storeQuery(pr,LocalDateTime.now());//Only queued, so doesn't wait for the database
+        CompletableFuture<Suggestion[]> updated = CompletableFuture.completedFuture(null);
         if(!managedToStoreQuery){
             System.out.println("Failed to store query!");
         }
         else{
-            ic.onUpdatedDatabase(LARGE_CHANGE_THRESHOLD.floatValue());//Updating the AI with the newly stored query.
+            updated = updateIntelligence();//Updating the AI with the newly stored query.
         }
 
         //Branch based on whether the intent is for news or data.
+        //The suggestion is only output once the answer has been displayed and the AI updated
+        CompletableFuture<Void> answered;
         if (pr.getIntent() == Intent.NEWS) {
-            outputNews(pr,null);
+            answered = outputNews(pr,null);
         } else {
-            outputFTSE(pr,null);
+            answered = outputFTSE(pr,null);
         }
+        CompletableFuture.allOf(answered, updated).thenRunAsync(() -> outputSuggestion(pr), Platform::runLater);
+    }
 
+   /**
+    * Reads the companies, groups and large changes the IC needs off the UI
+    * thread, then updates the IC with them on the UI thread
+    *
+    * @return a future completed on the UI thread with the IC's suggestions
+    *         about large changes, if any
+    */
+    private CompletableFuture<Suggestion[]> updateIntelligence() {
+        CompletableFuture<ArrayList<Company>> companies = adbm.getAICompanies();
+        CompletableFuture<ArrayList<Group>> groups = adbm.getAIGroups();
+        CompletableFuture<ArrayList<String>> changed = adbm.detectedImportantChange(LARGE_CHANGE_THRESHOLD.floatValue());
+        return CompletableFuture.allOf(companies, groups, changed)
+                .thenApplyAsync(v -> ic.onUpdatedData(companies.join(), groups.join(), changed.join()), Platform::runLater)
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    return null;
+                });
+    }
+
+   /**
+    * Outputs the suggestion from the IC for the query just answered, if any
+    *
+    * @param pr the ParseResult of the query just answered
+    */
+    private void outputSuggestion(ParseResult pr) {
         lastOperandOutput = pr.getOperand();
 
-        suggestion = ic.getSuggestion(pr);
+        Suggestion suggestion = ic.getSuggestion(pr);
         if(suggestion != null){
             // DEBUG
             System.out.println(suggestion.getParseResult().getIntent());
@@ -386,147 +489,113 @@ public class Core extends Application {
     * Returns a string that is the formatted output for a given query, potentially
     * with extra data added.
     *
-    * @param data an array of string data representing the answer to the query.
+    * @param data the answer to the query.
     * @param pr the ParseResult that triggered this query.
     * @param wasSuggestion a Boolean flag to indicate whether the triggering
     *                      ParseResult originated from the IC.
     * @return a formatted string, ready to be output to the user.
     */
-    private String formatOutput(String[] data, ParseResult pr, Boolean wasSuggestion) {
+    private String formatOutput(FTSEResult data, ParseResult pr, Boolean wasSuggestion) {
         String output = "Whoops, I don't seem to have the data you asked for!";
         switch(pr.getIntent()){
             case SPOT_PRICE:
-                output = "The spot price of " + pr.getOperand().toUpperCase() + " is "+ data[0];
+                if(pr.getTimeOfDay() != null){//A price as of a time of day
+                    String[] dateComponents = data.getDate().split("-");
+                    String date = " (" + dateComponents[2] + "-" + dateComponents[1] + "-" + dateComponents[0] + ")";
+                    output = "The spot price of " + pr.getOperand().toUpperCase() + " at " + pr.getTimeOfDay() + " " + pr.getTimeSpecifier().toString().toLowerCase().replace("_"," ") + date + " was " + formatGBX(data.getValue());
+                }
+                else{
+                    output = "The spot price of " + pr.getOperand().toUpperCase() + " is "+ formatGBX(data.getValue());
+                }
                 if(!wasSuggestion){
                     output = addExtraDataToOutput(output,data);
                 }
                 break;
             case TRADING_VOLUME:
-                output = "The trading volume of " + pr.getOperand().toUpperCase() + " is "+ data[0];
+                output = "The trading volume of " + pr.getOperand().toUpperCase() + " is "+ data.getValue();
                 if(!wasSuggestion){
                     output = addExtraDataToOutput(output,data);
                 }
                 break;
             case PERCENT_CHANGE:
-                output = "The percentage change of " + pr.getOperand().toUpperCase() + " is "+ data[0]+"% since the market opened.";
+                output = "The percentage change of " + pr.getOperand().toUpperCase() + " is "+ formatPercentage(data.getValue())+"% since the market opened.";
                 if(!wasSuggestion){
                     output = addExtraDataToOutput(output,data);
                 }
                 break;
             case ABSOLUTE_CHANGE:
-                output = "The absolute change of " + pr.getOperand().toUpperCase() + " is "+ data[0] + " since the market opened.";
+                output = "The absolute change of " + pr.getOperand().toUpperCase() + " is "+ formatGBX(data.getValue()) + " since the market opened.";
                 if(!wasSuggestion){
                     output = addExtraDataToOutput(output,data);
                 }
                 break;
             case OPENING_PRICE:
                 {
-                    String date = data[1].split("\\|")[1].trim();
-                    String[] dateComponents = date.split("-");
-                    date = " (" + dateComponents[2] + "-" + dateComponents[1] + "-" + dateComponents[0] + ")";
-                    output = "The opening price of "+ pr.getOperand().toUpperCase() +" was " + data[0] + " "+ pr.getTimeSpecifier().toString().toLowerCase().replace("_"," ") + date;
+                    String[] dateComponents = data.getDate().split("-");
+                    String date = " (" + dateComponents[2] + "-" + dateComponents[1] + "-" + dateComponents[0] + ")";
+                    output = "The opening price of "+ pr.getOperand().toUpperCase() +" was " + formatGBX(data.getValue()) + " "+ pr.getTimeSpecifier().toString().toLowerCase().replace("_"," ") + date;
                     if(!wasSuggestion){
-                        String[] remainingData = Arrays.copyOfRange(data, 1, data.length);
-                        output = addExtraDataToOutput(output,remainingData);
+                        output = addExtraDataToOutput(output,data);
                     }
                 }
                 break;
             case CLOSING_PRICE:
                 {
-                    String date = data[1].split("\\|")[1].trim();
-                    String[] dateComponents = date.split("-");
-                    date = " (" + dateComponents[2] + "-" + dateComponents[1] + "-" + dateComponents[0] + ")";
-                    output = "The closing price of "+ pr.getOperand().toUpperCase() +" was " + data[0] + " " + pr.getTimeSpecifier().toString().toLowerCase().replace("_"," ")+ date;
+                    String[] dateComponents = data.getDate().split("-");
+                    String date = " (" + dateComponents[2] + "-" + dateComponents[1] + "-" + dateComponents[0] + ")";
+                    output = "The closing price of "+ pr.getOperand().toUpperCase() +" was " + formatGBX(data.getValue()) + " " + pr.getTimeSpecifier().toString().toLowerCase().replace("_"," ")+ date;
                     if(!wasSuggestion){
-                        String[] remainingData = Arrays.copyOfRange(data, 1, data.length);
-                        output = addExtraDataToOutput(output,remainingData);
+                        output = addExtraDataToOutput(output,data);
                     }
                 }
                 break;
             case TREND:
-                if(data.length <4){
-                    break;
-                }
                 if(pr.getTimeSpecifier() == TimeSpecifier.TODAY){
                     output = "So far today, "+ pr.getOperand().toUpperCase() + " is ";
-                    switch(data[1]){
-                        case "rose":
-                        output += "rising";
-                        break;
-                        case "fell":
-                        output += "falling";
-                        break;
-                        case "had no overall change":
-                        output += "displaying no net change";
-                        break;
-                        default:
-                        output += "indeterminate";
-                        break;
-                    }
-                    output += " with a net change of "+data[0].trim() + "%.\n";
-                    output += "The opening price was "+ data[2] + " and the most recent price is "+ data[3] + ".";
+                    output += formatTrendDirection(data.getValue(), "rising", "falling", "displaying no net change");
+                    output += " with a net change of "+formatPercentage(data.getValue()) + "%.\n";
+                    output += "The opening price was "+ formatGBX(data.getStartPrice()) + " and the most recent price is "+ formatGBX(data.getEndPrice()) + ".";
                 }
                 else{
                     output = pr.getTimeSpecifier().toString().substring(0, 1).toUpperCase() + pr.getTimeSpecifier().toString().substring(1).toLowerCase().replace("_"," ")+", "+ pr.getOperand().toUpperCase();
-                    output += " "+data[1];
-                    output += " with a net change of "+data[0].trim() + "%.\n";
-                    output += "The opening price was "+ data[2] + " and the closing price was "+ data[3] + ".";
+                    output += " "+formatTrendDirection(data.getValue(), "rose", "fell", "had no overall change");
+                    output += " with a net change of "+formatPercentage(data.getValue()) + "%.\n";
+                    output += "The opening price was "+ formatGBX(data.getStartPrice()) + " and the closing price was "+ formatGBX(data.getEndPrice()) + ".";
                 }
                 break;
                 case TREND_SINCE:
-                    if(data.length <4){
-                        break;
-                    }
                     output = "Since "+pr.getTimeSpecifier().toString().toLowerCase().replace("_"," ")+", "+ pr.getOperand().toUpperCase();
-                    output += " "+data[1];
-                    output += " with a net change of "+data[0].trim() + "%.\n";
-                    output += "The opening price was "+ data[2] + " and the current spot price is "+ data[3] + ".";
+                    output += " "+formatTrendDirection(data.getValue(), "rose", "fell", "had no overall change");
+                    output += " with a net change of "+formatPercentage(data.getValue()) + "%.\n";
+                    output += "The opening price was "+ formatGBX(data.getStartPrice()) + " and the current spot price is "+ formatGBX(data.getEndPrice()) + ".";
 
                     break;
             case NEWS:
                 //Nothing to do here, should never run, TODO remove
                 break;
             case GROUP_FULL_SUMMARY:
-                if(data.length <6){
-                    break;
-                }
-                if(pr.getTimeSpecifier() == TimeSpecifier.TODAY){
-                    output = "So far today, " + pr.getOperand() + " are ";
-                    switch(data[1]){
-                        case "rose":
-                        output += "rising";
-                        break;
-                        case "fell":
-                        output += "falling";
-                        break;
-                        case "had no overall change":
-                        output += "displaying no net change";
-                        break;
-                        default:
-                        output += "indeterminate";
-                        break;
+                {
+                    FTSEResult.CompanyValue high = data.getHighestPrice();
+                    FTSEResult.CompanyValue low = data.getLowestPrice();
+                    FTSEResult.CompanyValue mostRising = data.getMostRising();
+                    FTSEResult.CompanyValue mostFalling = data.getMostFalling();
+                    if(pr.getTimeSpecifier() == TimeSpecifier.TODAY){
+                        output = "So far today, " + pr.getOperand() + " are ";
+                        output += formatTrendDirection(data.getValue(), "rising", "falling", "displaying no net change");
+                        output += " with a net change of "+formatPercentage(data.getValue()) + "%.\n";
+                        output += high.getCode().toUpperCase() + " has the highest spot price at " + formatGBX(high.getValue()) + ".\n";
+                        output += low.getCode().toUpperCase() + " has the lowest spot price at " + formatGBX(low.getValue())+ ".\n";
+                        output += mostRising.getCode().toUpperCase() + " has the greatest percentage change at " + formatPercentage(mostRising.getValue())+ "%.\n";
+                        output += mostFalling.getCode().toUpperCase() + " has the lowest percentage change at " + formatPercentage(mostFalling.getValue())+ "%.";
+                    }
+                    else{
+                        output = pr.getTimeSpecifier().toString().substring(0, 1).toUpperCase() + pr.getTimeSpecifier().toString().substring(1).toLowerCase().replace("_"," ")+", "+ pr.getOperand()+" ";
+                        output += formatTrendDirection(data.getValue(), "rose", "fell", "had no overall change") + " with a net change of "+formatPercentage(data.getValue()) + "%.\n";
+                        output += high.getCode().toUpperCase() + " had the highest closing price at " + formatGBX(high.getValue()) + ".\n";
+                        output += low.getCode().toUpperCase() + " had the lowest closing price at " + formatGBX(low.getValue())+ ".\n";
+                        output += mostRising.getCode().toUpperCase() + " had the greatest percentage change at " + formatPercentage(mostRising.getValue())+ "%.\n";
+                        output += mostFalling.getCode().toUpperCase() + " had the lowest percentage change at " + formatPercentage(mostFalling.getValue())+ "%.";
                     }
-                    output += " with a net change of "+data[0].trim() + "%.\n";
-                    String[] high = data[2].split("\\|");
-                    output += high[0].trim().toUpperCase() + " has the highest spot price at " + high[1].trim() + ".\n";
-                    String[] low = data[3].split("\\|");
-                    output += low[0].trim().toUpperCase() + " has the lowest spot price at " + low[1].trim()+ ".\n";
-                    String[] mostRising = data[4].split("\\|");
-                    output += mostRising[0].trim().toUpperCase() + " has the greatest percentage change at " + mostRising[1].trim()+ "%.\n";
-                    String[] mostFalling = data[5].split("\\|");
-                    output += mostFalling[0].trim().toUpperCase() + " has the lowest percentage change at " + mostFalling[1].trim()+ "%.";
-                }
-                else{
-                    output = pr.getTimeSpecifier().toString().substring(0, 1).toUpperCase() + pr.getTimeSpecifier().toString().substring(1).toLowerCase().replace("_"," ")+", "+ pr.getOperand()+" ";
-                    output += data[1] + " with a net change of "+data[0].trim() + "%.\n";
-                    String[] high = data[2].split("\\|");
-                    output += high[0].trim().toUpperCase() + " had the highest closing price at " + high[1].trim() + ".\n";
-                    String[] low = data[3].split("\\|");
-                    output += low[0].trim().toUpperCase() + " had the lowest closing price at " + low[1].trim()+ ".\n";
-                    String[] mostRising = data[4].split("\\|");
-                    output += mostRising[0].trim().toUpperCase() + " had the greatest percentage change at " + mostRising[1].trim()+ "%.\n";
-                    String[] mostFalling = data[5].split("\\|");
-                    output += mostFalling[0].trim().toUpperCase() + " had the lowest percentage change at " + mostFalling[1].trim()+ "%.";
                 }
                 break;
             default:
@@ -541,6 +610,66 @@ public class Core extends Application {
         return output;
     }
 
+   /**
+    * Formats a price in GBX
+    *
+    * @param price the price to be formatted
+    * @return the price in the format GBX #,##0.00
+    */
+    private String formatGBX(Number price) {
+        return gbxFormat.format(price.floatValue());
+    }
+
+   /**
+    * Formats a percentage, rounded to 3 decimal places
+    *
+    * @param percentage the percentage to be formatted, without a % sign
+    * @return the rounded percentage
+    */
+    private String formatPercentage(Number percentage) {
+        return Float.toString(Math.round(percentage.floatValue() * 1000.0f) / 1000.0f);
+    }
+
+   /**
+    * Chooses the word describing the direction of a change
+    *
+    * @param change the change
+    * @param up the word to use if the change is positive
+    * @param down the word to use if the change is negative
+    * @param none the word to use if there is no change
+    * @return the word describing the change
+    */
+    private String formatTrendDirection(Number change, String up, String down, String none) {
+        if (change.floatValue() > 0) {
+            return up;
+        } else if (change.floatValue() < 0) {
+            return down;
+        }
+        return none;
+    }
+
+   /**
+    * Formats a piece of related data about a company, with its label
+    *
+    * @param intent the intent that would ask for the data
+    * @param value the data
+    * @return the label and the data, separated by an equals sign
+    */
+    private String formatRelatedData(Intent intent, Number value) {
+        switch (intent) {
+            case SPOT_PRICE:
+                return "Spot price = " + formatGBX(value);
+            case TRADING_VOLUME:
+                return "Trading volume = " + value;
+            case PERCENT_CHANGE:
+                return "Percentage change = " + value + "%";
+            case ABSOLUTE_CHANGE:
+                return "Absolute change = " + formatGBX(value);
+            default:
+                return intent + " = " + value;
+        }
+    }
+
    /**
     * Decodes a Suggestion and performs relevant output
     *
@@ -575,36 +704,161 @@ public class Core extends Application {
     }
 
    /**
-    * Outputs news items to the GUI
+    * Outputs news items to the GUI. The companies of a group and their news
+    * are found off the UI thread.
     *
     * @param pr the ParseResult to be outputted
     * @param s the Suggestion to be outputted
+    * @return a future completed once the news has been displayed
     */
-    private void outputNews(ParseResult pr, Suggestion s) {
-        Article[] result;
+    private CompletableFuture<Void> outputNews(ParseResult pr, Suggestion s) {
+        CompletableFuture<String[]> companies;
         if (pr.isOperandGroup()) {
-            String[] companies = groupNameToCompanyList(pr.getOperand());
-
-            result = dgc.getNews(companies);
+            companies = adbm.getCompaniesInGroup(pr.getOperand());
         } else {
-            result = dgc.getNews(pr.getOperand());
+            companies = CompletableFuture.completedFuture(new String[]{pr.getOperand()});
         }
-        ui.displayResults(result, s);
+        return companies.thenCompose(codes -> getNews(codes))
+                .thenAcceptAsync(news -> ui.displayResults(news, s), Platform::runLater)
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    return null;
+                });
     }
 
    /**
-    * Outputs FTSE data to the GUI
+    * Returns the news for some companies, newest first. News stored for a
+    * company is given again until it is NEWS_REFRESH_RATE old, after which it
+    * is fetched off the UI thread and stored again. If it can't be fetched,
+    * the news stored is given however old it is.
+    *
+    * @param companyCodes the codes of the companies
+    * @return a future completed with the newest articles for any of the
+    *         companies, or null if there are none
+    */
+    private CompletableFuture<Article[]> getNews(String... companyCodes) {
+        ArrayList<CompletableFuture<Article[]>> companyNews = new ArrayList<>();
+        for (String code : companyCodes) {
+            if (code != null) {
+                companyNews.add(getCompanyNews(code));
+            }
+        }
+        return CompletableFuture.allOf(companyNews.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            LinkedHashMap<String, Article> news = new LinkedHashMap<>();//Articles about several companies are only given once
+            for (CompletableFuture<Article[]> articles : companyNews) {
+                addNews(news, articles.join());
+            }
+            return newestNews(news);
+        });
+    }
+
+   /**
+    * Returns the news for a company. Each company's news is fetched on its
+    * own, so that every article is stored under the company it is about.
+    *
+    * @param code the code of the company
+    * @return a future completed with the company's newest articles, or null
+    *         if there are none
+    */
+    private CompletableFuture<Article[]> getCompanyNews(String code) {
+        return adbm.getNews(code, NEWS_REFRESH_RATE).thenCompose(stored -> {
+            if (stored != null) {
+                return CompletableFuture.completedFuture(stored);
+            }
+            return CompletableFuture.supplyAsync(() -> dgc.getNews(code)).thenCompose(fetched -> {
+                CompletableFuture<Boolean> storing = fetched == null ? CompletableFuture.completedFuture(false) : adbm.storeNews(code, fetched);
+                return storing.thenCompose(ok -> adbm.getNews(code, null))
+                        .thenApply(articles -> articles == null ? fetched : articles);
+            });
+        });
+    }
+
+   /**
+    * Adds articles to the news being gathered, unless already in it
+    *
+    * @param news the news gathered so far, by guid
+    * @param articles the articles, or null for none
+    */
+    private void addNews(LinkedHashMap<String, Article> news, Article[] articles) {
+        if (articles != null) {
+            for (Article a : articles) {
+                news.putIfAbsent(a.getGuid(), a);
+            }
+        }
+    }
+
+   /**
+    * Returns the newest of the news gathered
+    *
+    * @param news the news gathered, by guid
+    * @return up to NewsStore.MAX_ARTICLES articles, newest first, or null if
+    *         there are none
+    */
+    private Article[] newestNews(LinkedHashMap<String, Article> news) {
+        if (news.isEmpty()) {
+            return null;
+        }
+        ArrayList<Article> sorted = new ArrayList<>(news.values());
+        Collections.sort(sorted);
+        return sorted.subList(0, Math.min(sorted.size(), NewsStore.MAX_ARTICLES)).toArray(new Article[0]);
+    }
+
+   /**
+    * Outputs the news stored that best matches the keywords of a search, for
+    * the company or group asked about, or for every company if neither was.
+    * The search runs off the UI thread.
+    *
+    * @param pr the ParseResult of the search
+    */
+    private void outputNewsSearch(ParseResult pr) {
+        CompletableFuture<String[]> companies = CompletableFuture.completedFuture(null);
+        if (pr.getOperand() != null) {
+            companies = pr.isOperandGroup() ? adbm.getCompaniesInGroup(pr.getOperand()) : CompletableFuture.completedFuture(new String[]{pr.getOperand()});
+        }
+        String about = pr.getOperand() == null ? "" : " for " + pr.getOperand().toUpperCase();
+        companies.thenCompose(codes -> adbm.searchNews(pr.getKeywords(), codes)).thenAcceptAsync(found -> {
+            if (found == null || found.length == 0) {
+                ui.displayMessage("Sorry "+USER_NAME+", I couldn't find any news mentioning '"+pr.getKeywords()+"'"+about+".");
+                return;
+            }
+            ui.displayMessage("Here is the news mentioning '"+pr.getKeywords()+"'"+about+", best matches first, in the news pane.");
+            ui.displayResults(found, null);
+        }, Platform::runLater).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
+    }
+
+   /**
+    * Outputs FTSE data to the GUI. The data is fetched off the UI thread, once
+    * any scrape still being stored has been written, and displayed on the UI
+    * thread.
     *
     * @param pr the ParseResult to be outputted
     * @param s the Suggestion to be outputted
+    * @return a future completed once the data has been displayed
     */
-    private void outputFTSE(ParseResult pr, Suggestion s) {
+    private CompletableFuture<Void> outputFTSE(ParseResult pr, Suggestion s) {
+        return pendingStore.thenCompose(stored -> adbm.getFTSE(pr))
+                .thenAcceptAsync(data -> displayFTSE(data, pr, s), Platform::runLater)
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    return null;
+                });
+    }
+
+   /**
+    * Displays FTSE data on the GUI
+    *
+    * @param data the data to be outputted
+    * @param pr the ParseResult to be outputted
+    * @param s the Suggestion to be outputted
+    */
+    private void displayFTSE(FTSEResult data, ParseResult pr, Suggestion s) {
         /*
         NOTE: may wish to branch for groups, using an overloaded/modified method
         of getFTSE(ParseResult,Boolean).
         */
-        String[] data = dbm.getFTSE(pr);
-
         String result;//NOTE: May convert to a different format for the UI
         Boolean wasSuggestion = (s!= null);
         if (data == null) {
@@ -630,37 +884,23 @@ public class Core extends Application {
     * Adds data to an output String
     *
     * @param output the original String to be appended
-    * @param data the data to be added to the output String
+    * @param data the result whose related data is to be added to the output String
     * @return a String with the extra data appended
     */
-    private String addExtraDataToOutput(String output, String[] data) {
+    private String addExtraDataToOutput(String output, FTSEResult data) {
         extraDataAddedToLastOutput = null;
-        if (data.length > 1){
+        if (!data.getRelatedData().isEmpty()){
             output += "\n\n";
             extraDataAddedToLastOutput = new ArrayList<Intent>();
             output += "Related data about this company:";
-            String[] temp;
-            for(int i = 1; i < data.length;i++){
-                temp = data[i].split("\\|");//relying on data being sepparated by |. Escaped as regex
-                output += "\n" + temp[0] + " = " + temp[1];
-                extraDataAddedToLastOutput.add(convertColumnNameToIntent(temp[0]));
+            for(Map.Entry<Intent, Number> e : data.getRelatedData().entrySet()){
+                output += "\n" + formatRelatedData(e.getKey(), e.getValue());
+                extraDataAddedToLastOutput.add(e.getKey());
             }
         }
         return output;
     }
 
-   /**
-    * Converts a column name to an Intent
-    *
-    * @param s the column name to be converted
-    * @return the Intent representation of the column
-    */
-    private Intent convertColumnNameToIntent(String s) {
-        Intent in = nlp.parse(s).getIntent();
-        return in;
-    }
-
-
    /**
     * Checks to see if a ParseResult is valid
     *
@@ -675,8 +915,8 @@ public class Core extends Application {
                 if(pr.isOperandGroup()){
                     return sorry+"I can't give a spot price for a group.";
                 }
-                if(pr.getTimeSpecifier() != TimeSpecifier.TODAY){
-                    return sorry+"I can't give a spot price for any day other than today.";
+                if(pr.getTimeSpecifier() != TimeSpecifier.TODAY && pr.getTimeOfDay() == null){
+                    return sorry+"I can't give a spot price for any day other than today, unless you tell me what time.";
                 }
             break;
             case TRADING_VOLUME:
@@ -734,6 +974,11 @@ public class Core extends Application {
                     return sorry+"I can't give anything except the most up to date news.";
                 }
             break;
+            case NEWS_SEARCH:
+                if(pr.getTimeSpecifier() != TimeSpecifier.TODAY){
+                    return sorry+"I can only search all the news I have, not the news of a given day.";
+                }
+            break;
             case GROUP_FULL_SUMMARY:
                 if(!pr.isOperandGroup()){
                     return sorry+"I can't give a group summary for a single company. Maybe ask for the company trend.";
@@ -787,8 +1032,8 @@ public class Core extends Application {
     }
 
    /**
-    * Fetches and stores the latest data, then calls onUpdatedDatabase() from
-    * the IC
+    * Fetches and stores the latest data, then updates the IC with what it
+    * reads from the database, off the UI thread
     */
     public void onNewDataAvailable() {
         if(freshData == false){
@@ -804,20 +1049,31 @@ public class Core extends Application {
             return;
         }
         readingScrape = true;
+        ScrapeResult sr;
         synchronized (lastestScrape){//Should make this section safe
-            ScrapeResult sr = lastestScrape;
+            sr = lastestScrape;
             // for(int i = 0; i < 101;i++){
             //     System.out.println("Entry " + i+ " is "+sr.getName(i) + " with code " + sr.getCode(i));
             // }
             System.out.println("Data collected.");
-            if(!dbm.storeScraperResults(sr)){
-                System.out.println("Couldn't store data to database");
-            }
         }
         freshData = false;
         readingScrape = false;
-        Suggestion[] suggarr = ic.onUpdatedDatabase(LARGE_CHANGE_THRESHOLD.floatValue());
-        handleLargeChangeSuggestions(suggarr);
+        //Stored off the UI thread, the AI is updated back on the UI thread once it's done.
+        //A store that throws counts as not stored, so that reads waiting on it still run.
+        pendingStore = adbm.storeScraperResults(sr).exceptionally(e -> {
+            e.printStackTrace();
+            return false;
+        });
+        pendingStore.thenCompose(stored -> {
+            if(!stored){
+                System.out.println("Couldn't store data to database");
+            }
+            return updateIntelligence();
+        }).thenAcceptAsync(this::handleLargeChangeSuggestions, Platform::runLater).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
     }
 
    /**
@@ -829,12 +1085,18 @@ public class Core extends Application {
         if(suggarr == null){
             return;
         }
-        String output;
         for (int i = 0;i < suggarr.length ;i++ ) {
             ParseResult pr = suggarr[i].getParseResult();
-            String[] data = dbm.getFTSE(pr);
-            output = "WARNING: "+pr.getOperand().toUpperCase()+" has a percentage change of " + data[0] +"% which is above the threshold of +-"+ LARGE_CHANGE_THRESHOLD+"%";
-            ui.displayMessage(output);//NOT passing the suggestion, as this cannot be marked irrelevant.
+            adbm.getFTSE(pr).thenAcceptAsync(data -> {
+                if(data == null){
+                    return;
+                }
+                String output = "WARNING: "+pr.getOperand().toUpperCase()+" has a percentage change of " + formatPercentage(data.getValue()) +"% which is above the threshold of +-"+ LARGE_CHANGE_THRESHOLD+"%";
+                ui.displayMessage(output);//NOT passing the suggestion, as this cannot be marked irrelevant.
+            }, Platform::runLater).exceptionally(e -> {
+                e.printStackTrace();
+                return null;
+            });
         }
     }
 
@@ -844,46 +1106,62 @@ public class Core extends Application {
     public void onTradingHour() {
         System.out.println("It's time for your daily summary!");//DEBUG
         Company[] companies = ic.onNewsTime();
-        String[] companyCodes = new String[companies.length];
-        String output = "Hi "+USER_NAME+", it's time for your daily summary!\nI've detected that the following companies are important to you:";
         if((companies == null) || (companies.length < 1)){
             ui.displayMessage("Sorry "+USER_NAME+", I tried to give you your daily summary, but it appears that I don't have sufficient data for that right now.");
             return;
         }
+        String[] companyCodes = new String[companies.length];
 
+        //Every summary and the news are read at once off the UI thread, and output together in order
+        ArrayList<CompletableFuture<String>> summaries = new ArrayList<>();
         for(int i = 0;i < companies.length;i++){
-            String summary = getSingleCompanySummary(companies[i].getCode());
             companyCodes[i] = companies[i].getCode();
-            if(summary != null){
-                output += "\n"+summary;
-            }
+            summaries.add(getSingleCompanySummary(companyCodes[i]));
         }
-        output += "\nYou may also view the latest news for these companies in the news pane";
-        Article[] news = dgc.getNews(companyCodes);
-        ui.displayMessage(output);
-        ui.displayResults(news,null);
+        CompletableFuture<Article[]> news = getNews(companyCodes).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
+        CompletableFuture<Void> all = CompletableFuture.allOf(summaries.toArray(new CompletableFuture<?>[0]));
+        CompletableFuture.allOf(all, news).thenRunAsync(() -> {
+            String output = "Hi "+USER_NAME+", it's time for your daily summary!\nI've detected that the following companies are important to you:";
+            for(CompletableFuture<String> summary : summaries){
+                if(summary.join() != null){
+                    output += "\n"+summary.join();
+                }
+            }
+            output += "\nYou may also view the latest news for these companies in the news pane";
+            ui.displayMessage(output);
+            ui.displayResults(news.join(),null);
+        }, Platform::runLater);
     }
 
    /**
-    * Returns a string containing a summary for a given company
+    * Returns a string containing a summary for a given company. The data is
+    * fetched off the UI thread, once any scrape still being stored has been
+    * written, and formatted on the UI thread.
     *
     * @param code the code of the company
-    * @return the summary for the company requested
+    * @return a future completed on the UI thread with the summary for the
+    *         company requested, or null if there is no data for it
     */
-    private String getSingleCompanySummary(String code) {
-        String output = "";
-        String[] data = dbm.getFTSE(new ParseResult(Intent.SPOT_PRICE,"trading hour",code,false,TimeSpecifier.TODAY));
-        if(data == null){
+    private CompletableFuture<String> getSingleCompanySummary(String code) {
+        ParseResult pr = new ParseResult(Intent.SPOT_PRICE,"trading hour",code,false,TimeSpecifier.TODAY);
+        return pendingStore.thenCompose(stored -> adbm.getFTSE(pr)).thenApplyAsync(data -> {
+            if(data == null){
+                return null;
+            }
+            String output = "";
+            output+= code.toUpperCase()+":\n";
+            output+= "    Spot price = "+formatGBX(data.getValue())+"\n";
+            for(Map.Entry<Intent, Number> e : data.getRelatedData().entrySet()){
+                output+= "    "+formatRelatedData(e.getKey(), e.getValue())+"\n";
+            }
+            return output;
+        }, Platform::runLater).exceptionally(e -> {
+            e.printStackTrace();
             return null;
-        }
-        String[] temp;
-        output+= code.toUpperCase()+":\n";
-        output+= "    Spot price = "+data[0]+"\n";
-        for(int j = 1; j< data.length; j++){
-            temp = data[j].split("\\|");
-            output+= "    "+temp[0]+" = "+temp[1].trim()+"\n";
-        }
-        return output;
+        });
     }
 
    /**
@@ -900,9 +1178,13 @@ public class Core extends Application {
         for (int i = 0;i< companies.length;i++ ) {
             companyCodes[i] = companies[i].getCode();
         }
-        Article[] news = dgc.getNews(companyCodes);
-        ui.displayMessage(USER_NAME+", I think you wanted some news, but I couldn't detect any company or group names in your query, so I've given you news on companies that I think are important to you.");
-        ui.displayResults(news,null);
+        getNews(companyCodes).thenAcceptAsync(news -> {
+            ui.displayMessage(USER_NAME+", I think you wanted some news, but I couldn't detect any company or group names in your query, so I've given you news on companies that I think are important to you.");
+            ui.displayResults(news,null);
+        }, Platform::runLater).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
     }
 
    /**
@@ -986,6 +1268,10 @@ public class Core extends Application {
             bw.write(userName);
             bw.newLine();
             bw.write(FULLSCREEN.toString());
+            bw.newLine();
+            bw.write(DATABASE_BACKEND);
+            bw.newLine();
+            bw.write(DATABASE_METRICS.toString());
         }catch(Exception e){
             e.printStackTrace();
         }
@@ -1008,6 +1294,14 @@ public class Core extends Application {
             LARGE_CHANGE_THRESHOLD = Double.parseDouble(br.readLine());
             USER_NAME = br.readLine();
             FULLSCREEN = Boolean.parseBoolean(br.readLine());
+            String backend = br.readLine();
+            if(backend != null && !backend.isEmpty()){//Older config files don't have a backend
+                DATABASE_BACKEND = backend;
+            }
+            String metrics = br.readLine();
+            if(metrics != null && !metrics.isEmpty()){
+                DATABASE_METRICS = Boolean.parseBoolean(metrics);
+            }
 
         }catch(Exception e){
             e.printStackTrace();
@@ -1086,6 +1380,8 @@ public class Core extends Application {
     */
     private void testIntents(String operand) {
         operand = operand.toLowerCase();
+        //Each output waits for the one before, so they are displayed in order
+        CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
         for (Intent i : Intent.values()) {
             for (TimeSpecifier t : TimeSpecifier.values()) {
                 ParseResult pr = new ParseResult(i, "", operand, false, t);
@@ -1093,10 +1389,12 @@ public class Core extends Application {
                     System.out.println("Testing ParseResult: "+pr);
                     switch(i) {
                         case NEWS:
-                            outputNews(pr,null);
+                            previous = previous.thenCompose(v -> outputNews(pr,null));
+                            break;
+                        case NEWS_SEARCH://Has no keywords to search for
                             break;
                         default:
-                            outputFTSE(pr,null);
+                            previous = previous.thenCompose(v -> outputFTSE(pr,null));
                     }
                     try{
                         Thread.sleep(100);
@@ -1108,4 +1406,24 @@ public class Core extends Application {
         }
     }
 
+   /**
+    * Checks that the in-memory database gives the same answers as the SQLite
+    * database, and outputs the number of checks that failed
+    */
+    private void testDatabaseConformance() {
+        String summary = DatabaseConformance.checkMemoryDatabase();
+        System.out.println(summary);
+        ui.displayMessage(summary);
+    }
+
+   /**
+    * Stores scrapes and queries and reads FTSE data from many threads at once
+    * on a new SQLite database, and outputs the number of inconsistencies found
+    */
+    private void testDatabaseStress() {
+        String summary = DatabaseStress.stressDatabase();
+        System.out.println(summary);
+        ui.displayMessage(summary);
+    }
+
 }
@@ -1,5 +1,6 @@
 package footsiebot.ai;
 import footsiebot.nlp.ParseResult;
+import java.util.ArrayList;
 
 
 public interface IIntelligenceUnit {
@@ -10,6 +11,8 @@ public interface IIntelligenceUnit {
 
    public Suggestion[] onUpdatedDatabase(Float threshold);
 
+   public Suggestion[] onUpdatedData(ArrayList<Company> companies, ArrayList<Group> groups, ArrayList<String> changed);
+
    public void onSuggestionIrrelevant(Suggestion suggestion);
 
    public Company[] onNewsTime();
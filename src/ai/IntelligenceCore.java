@@ -128,8 +128,22 @@ public class IntelligenceCore implements IIntelligenceUnit {
     * @return       an array of suggestions
     */
    public Suggestion[] onUpdatedDatabase(Float threshold) {
-     companies = db.getAICompanies();
-     groups = db.getAIGroups();
+     return onUpdatedData(db.getAICompanies(), db.getAIGroups(), db.detectedImportantChange(threshold));
+   }
+
+   /**
+    * Takes the updated companies and groups data, and the codes of the companies
+    * that had a significant change, as read from the database by the caller. If
+    * any had, it returns a suggestion array to core. Lets core read the database
+    * off its own thread and update the IC on it.
+    * @param  ArrayList<Company> companies  the companies read by getAICompanies
+    * @param  ArrayList<Group> groups       the groups read by getAIGroups
+    * @param  ArrayList<String> changed     the codes read by detectedImportantChange
+    * @return       an array of suggestions
+    */
+   public Suggestion[] onUpdatedData(ArrayList<Company> companies, ArrayList<Group> groups, ArrayList<String> changed) {
+     this.companies = companies;
+     this.groups = groups;
      // DEBUG
      if(companies == null) {
          System.out.println("No companies to update.");
@@ -145,12 +159,12 @@ public class IntelligenceCore implements IIntelligenceUnit {
      //Collections.sort(groups);
      Collections.sort(groups, Collections.reverseOrder());
 
-     ArrayList<Company> changed = detectedImportantChange(threshold);
-     if((changed == null ) || (changed.size() == 0)) return null;
+     ArrayList<Company> changedCompanies = detectedImportantChange(changed);
+     if((changedCompanies == null ) || (changedCompanies.size() == 0)) return null;
 
      ArrayList<Suggestion> res = new ArrayList<>();
 
-     for(Company c: changed) {
+     for(Company c: changedCompanies) {
 
        System.out.println("Company " + c.getCode() + "has had a significant change ");
        res.add(new Suggestion("Detected important change", c, false, new ParseResult(Intent.PERCENT_CHANGE,"Significant change!",c.getCode(),false,TimeSpecifier.TODAY)));
@@ -248,13 +262,12 @@ public class IntelligenceCore implements IIntelligenceUnit {
    }
 
    /**
-    * Checks whether there is any company for which a significant percentage change occured.
-    * If so, returns the list of such companies to Core.
-    * @param  Float treshold      the threshold for the percentage change
+    * Finds the companies for which a significant percentage change occured.
+    * If any, returns the list of such companies to Core.
+    * @param  ArrayList<String> names  the codes of the companies that changed
     * @return       list of companies
     */
-   private ArrayList<Company> detectedImportantChange(Float treshold) {
-     ArrayList<String> names = db.detectedImportantChange(treshold);
+   private ArrayList<Company> detectedImportantChange(ArrayList<String> names) {
      if((names == null)||(names.size() == 0)) return null;
 
      ArrayList<Company> winningCompanies = new ArrayList<>();
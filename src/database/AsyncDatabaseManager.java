@@ -0,0 +1,270 @@
+package footsiebot.database;
+
+import footsiebot.nlp.ParseResult;
+import footsiebot.datagathering.ScrapeResult;
+import footsiebot.datagathering.Article;
+import footsiebot.ai.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the calls to a database manager on dedicated threads, so that the
+ * caller never waits for the database. Writes are run one at a time, in the
+ * order they were made, by a single writer thread. Reads are run by a pool of
+ * reader threads, one for each read-only connection of the database, so they
+ * never wait for each other or for a write.
+ */
+public class AsyncDatabaseManager implements IAsyncDatabaseManager {
+    // One reader thread for each read-only connection of DatabaseCore
+    public static final int DEFAULT_READER_THREADS = 2;
+    // How long close waits for queued calls to finish
+    private static final long SHUTDOWN_TIMEOUT_S = 10;
+
+    private IDatabaseManager db;
+    private ThreadPoolExecutor writer;
+    private ThreadPoolExecutor readers;
+    private ExecutorStats writerStats;
+    private ExecutorStats readerStats;
+
+    /**
+    * Constructor for the manager, with DEFAULT_READER_THREADS reader threads
+    *
+    * @param db The database manager the calls are made to
+    */
+    public AsyncDatabaseManager(IDatabaseManager db) {
+        this(db, DEFAULT_READER_THREADS);
+    }
+
+    /**
+    * Constructor for the manager. Starts the writer and reader threads.
+    *
+    * @param db The database manager the calls are made to
+    * @param readerThreads The number of reader threads
+    */
+    public AsyncDatabaseManager(IDatabaseManager db, int readerThreads) {
+        this.db = db;
+        writer = newExecutor("db-writer", 1);
+        readers = newExecutor("db-reader", readerThreads);
+        writerStats = new ExecutorStats(writer);
+        readerStats = new ExecutorStats(readers);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> storeScraperResults(ScrapeResult sr) {
+        return submit(writer, writerStats, () -> db.storeScraperResults(sr));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> storeQuery(ParseResult pr,
+            LocalDateTime date) {
+        return submit(writer, writerStats, () -> db.storeQuery(pr, date));
+    }
+
+    @Override
+    public CompletableFuture<FTSEResult> getFTSE(ParseResult pr) {
+        return submit(readers, readerStats, () -> db.getFTSE(pr));
+    }
+
+    @Override
+    public CompletableFuture<ArrayList<Company>> getAICompanies() {
+        return submit(readers, readerStats, () -> db.getAICompanies());
+    }
+
+    @Override
+    public CompletableFuture<ArrayList<Group>> getAIGroups() {
+        return submit(readers, readerStats, () -> db.getAIGroups());
+    }
+
+    @Override
+    public CompletableFuture<String[]> getCompaniesInGroup(String groupName) {
+        return submit(readers, readerStats,
+                () -> db.getCompaniesInGroup(groupName));
+    }
+
+    @Override
+    public CompletableFuture<Void> onSuggestionIrrelevant(Company company,
+            AIIntent intent, boolean isNews) {
+        return submit(writer, writerStats, () -> {
+            db.onSuggestionIrrelevant(company, intent, isNews);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<ArrayList<String>> detectedImportantChange(
+            Float threshold) {
+        return submit(readers, readerStats,
+                () -> db.detectedImportantChange(threshold));
+    }
+
+    @Override
+    public CompletableFuture<PriceHistory> getPriceHistory(String companyCode,
+            LocalDateTime from, LocalDateTime to) {
+        return submit(readers, readerStats,
+                () -> db.getPriceHistory(companyCode, from, to));
+    }
+
+    /**
+    * Streams a company's history to a consumer on a reader thread
+    *
+    * @param companyCode The company's code
+    * @param from The start of the range, in seconds since the epoch, UTC
+    * @param to The end of the range, in seconds since the epoch, UTC
+    * @param consumer Takes each sample in the range, oldest first
+    * @return The number of samples given to the consumer
+    */
+    @Override
+    public CompletableFuture<Integer> scan(String companyCode, long from,
+            long to, SampleConsumer consumer) {
+        return submit(readers, readerStats,
+                () -> db.scan(companyCode, from, to, consumer));
+    }
+
+    /**
+    * Resamples a company's history into bars on a reader thread
+    *
+    * @param companyCode The company's code
+    * @param intervalMinutes The length of each bar in minutes
+    * @param from The start of the range, UTC
+    * @param to The end of the range, UTC
+    * @return The bars overlapping the range, oldest first, or null if the
+    * interval is not between 1 and 1440 minutes
+    */
+    @Override
+    public CompletableFuture<PriceBars> getBars(String companyCode,
+            int intervalMinutes, LocalDateTime from, LocalDateTime to) {
+        return submit(readers, readerStats,
+                () -> db.getBars(companyCode, intervalMinutes, from, to));
+    }
+
+    /**
+    * Stores the news fetched for a company on the writer thread
+    *
+    * @param companyCode The company's code
+    * @param articles The articles fetched
+    * @return true if the news is stored, false otherwise
+    */
+    @Override
+    public CompletableFuture<Boolean> storeNews(String companyCode,
+            Article[] articles) {
+        return submit(writer, writerStats,
+                () -> db.storeNews(companyCode, articles));
+    }
+
+    /**
+    * Reads the news stored for a company on a reader thread
+    *
+    * @param companyCode The company's code
+    * @param maxAge How long ago the news may have been fetched, or null for
+    *               any time
+    * @return Up to NewsStore.MAX_ARTICLES articles, newest first, or null if
+    *         the news was not fetched within maxAge or none is stored
+    */
+    @Override
+    public CompletableFuture<Article[]> getNews(String companyCode,
+            Duration maxAge) {
+        return submit(readers, readerStats,
+                () -> db.getNews(companyCode, maxAge));
+    }
+
+    /**
+    * Searches the news stored for any of the keywords on a reader thread
+    *
+    * @param keywords The words to search for
+    * @param companyCodes The companies whose news is searched, or null for
+    *                     every company
+    * @return Up to NewsStore.MAX_ARTICLES articles, best match first, or null
+    *         if there are no keywords or the search failed
+    */
+    @Override
+    public CompletableFuture<Article[]> searchNews(String keywords,
+            String[] companyCodes) {
+        return submit(readers, readerStats,
+                () -> db.searchNews(keywords, companyCodes));
+    }
+
+    /**
+    * Returns the queue depth and wait times of the writer thread
+    *
+    * @return The writer's stats
+    */
+    public ExecutorStats getWriterStats() {
+        return writerStats;
+    }
+
+    /**
+    * Returns the queue depth and wait times of the reader threads
+    *
+    * @return The readers' stats
+    */
+    public ExecutorStats getReaderStats() {
+        return readerStats;
+    }
+
+    /**
+    * Runs every call already made, stops the threads and closes the database
+    * manager
+    */
+    @Override
+    public void close() {
+        writer.shutdown();
+        readers.shutdown();
+        try {
+            writer.awaitTermination(SHUTDOWN_TIMEOUT_S, TimeUnit.SECONDS);
+            readers.awaitTermination(SHUTDOWN_TIMEOUT_S, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Closing async database. " + this);
+        db.close();
+    }
+
+    @Override
+    public String toString() {
+        return "Writer: " + writerStats + ". Readers: " + readerStats;
+    }
+
+    /**
+    * Queues a call on an executor, recording how long it waits to start
+    *
+    * @param executor The executor to run the call on
+    * @param stats The stats of the executor
+    * @param call The call
+    * @return A future completed with the result of the call, or exceptionally
+    *         if the call throws
+    */
+    private <T> CompletableFuture<T> submit(ThreadPoolExecutor executor,
+            ExecutorStats stats, Supplier<T> call) {
+        long queuedAt = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            stats.record(System.nanoTime() - queuedAt);
+            return call.get();
+        }, executor);
+    }
+
+    /**
+    * Creates an executor with a fixed number of daemon threads and an
+    * unbounded queue
+    *
+    * @param name The name of the threads
+    * @param threads The number of threads
+    * @return The executor
+    */
+    private static ThreadPoolExecutor newExecutor(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, threads == 1 ? name
+                            : name + "-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+}
@@ -0,0 +1,191 @@
+package footsiebot.database;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resamples the snapshots of a database manager into bars of any number of
+ * minutes, in a single pass over each day's samples as they are scanned. The
+ * bars of a day that has ended cannot change, so they are kept for each
+ * company and interval, and only the current day is resampled again.
+ * Snapshots hold the volume traded so far that day, so the volume of a bar is
+ * how much that grew during the bar.
+ */
+public class BarResampler {
+    // The most days of bars kept, the least recently used are evicted first
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final long SECONDS_PER_DAY = MINUTES_PER_DAY * 60L;
+
+    private IDatabaseManager db;
+    private LinkedHashMap<String, PriceBars> closedDays;
+    private long hits;
+    private long misses;
+
+    /**
+    * Constructor for the resampler
+    *
+    * @param db The database manager whose snapshots are scanned
+    */
+    public BarResampler(IDatabaseManager db) {
+        this.db = db;
+        closedDays = new LinkedHashMap<String, PriceBars>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, PriceBars> e) {
+                return size() > DEFAULT_CAPACITY;
+            }
+        };
+    }
+
+    /**
+    * Returns every bar of a company that overlaps a range of time. Each bar
+    * is whole, so the first and last may include snapshots outside the range.
+    *
+    * @param companyCode The company's code
+    * @param intervalMinutes The length of each bar in minutes
+    * @param from The start of the range, UTC
+    * @param to The end of the range, UTC
+    * @return The bars, oldest first, or null if the interval is not between
+    *         1 and 1440 minutes
+    */
+    public PriceBars getBars(String companyCode, int intervalMinutes,
+            LocalDateTime from, LocalDateTime to) {
+        if (intervalMinutes < 1 || intervalMinutes > MINUTES_PER_DAY) {
+            return null;
+        }
+        PriceBars bars = new PriceBars(companyCode, intervalMinutes);
+        long fromTime = from.toEpochSecond(ZoneOffset.UTC);
+        long toTime = to.toEpochSecond(ZoneOffset.UTC);
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+
+        for (LocalDate day = from.toLocalDate(); !day.isAfter(to.toLocalDate());
+                day = day.plusDays(1)) {
+            PriceBars dayBars;
+            if (day.isBefore(today)) {
+                dayBars = getClosedDay(companyCode, intervalMinutes, day);
+            } else {
+                dayBars = resampleDay(companyCode, intervalMinutes, day);
+            }
+            bars.addOverlapping(dayBars, fromTime, toTime);
+        }
+        return bars;
+    }
+
+    /**
+    * Returns the bars of a day that has ended, resampling it only if it is
+    * not kept
+    *
+    * @param companyCode The company's code
+    * @param intervalMinutes The length of each bar in minutes
+    * @param day The day, UTC
+    * @return The bars of the whole day
+    */
+    private PriceBars getClosedDay(String companyCode, int intervalMinutes,
+            LocalDate day) {
+        String key = companyCode + "|" + intervalMinutes + "|" + day;
+        synchronized (this) {
+            PriceBars kept = closedDays.get(key);
+            if (kept != null) {
+                hits++;
+                return kept;
+            }
+            misses++;
+        }
+
+        PriceBars dayBars = resampleDay(companyCode, intervalMinutes, day);
+        synchronized (this) {
+            closedDays.put(key, dayBars);
+        }
+        return dayBars;
+    }
+
+    /**
+    * Resamples the snapshots of a whole day
+    *
+    * @param companyCode The company's code
+    * @param intervalMinutes The length of each bar in minutes
+    * @param day The day, UTC
+    * @return The bars of the day
+    */
+    private PriceBars resampleDay(String companyCode, int intervalMinutes,
+            LocalDate day) {
+        long dayStart = day.toEpochDay() * SECONDS_PER_DAY;
+        Resampler resampler = new Resampler(
+                new PriceBars(companyCode, intervalMinutes), dayStart,
+                intervalMinutes * 60L);
+        db.scan(companyCode, dayStart, dayStart + SECONDS_PER_DAY - 1,
+                resampler);
+        resampler.finish();
+        return resampler.bars;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Days of bars: " + closedDays.size() + ", hits: " + hits
+                + ", misses: " + misses;
+    }
+
+    /**
+    * Builds the bars of one day from its samples, oldest first
+    */
+    private static class Resampler implements SampleConsumer {
+        private PriceBars bars;
+        private long dayStart;
+        private long length;
+        private long start = Long.MIN_VALUE;
+        private float open;
+        private float high;
+        private float low;
+        private float close;
+        // The volume traded that day by the end of the last bar, and so far
+        private long volumeBefore = 0;
+        private long volume = 0;
+
+        private Resampler(PriceBars bars, long dayStart, long length) {
+            this.bars = bars;
+            this.dayStart = dayStart;
+            this.length = length;
+        }
+
+        public void accept(long time, float price, long volume) {
+            long barStart = dayStart + (time - dayStart) / length * length;
+            if (barStart != start) {
+                finish();
+                start = barStart;
+                open = price;
+                high = price;
+                low = price;
+            }
+            high = Math.max(high, price);
+            low = Math.min(low, price);
+            close = price;
+            this.volume = volume;
+        }
+
+        /**
+        * Adds the bar being built, if there is one
+        */
+        private void finish() {
+            if (start == Long.MIN_VALUE) {
+                return;
+            }
+            bars.add(start, open, high, low, close,
+                    Math.max(0, volume - volumeBefore));
+            volumeBefore = volume;
+            start = Long.MIN_VALUE;
+        }
+    }
+}
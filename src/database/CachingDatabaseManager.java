@@ -0,0 +1,223 @@
+package footsiebot.database;
+
+import footsiebot.nlp.ParseResult;
+import footsiebot.datagathering.ScrapeResult;
+import footsiebot.datagathering.Article;
+import footsiebot.ai.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the answers of a database manager to recent queries, so that the
+ * same query asked by the user, a suggestion or the trading hour summary is
+ * only answered by the database once. FTSE data only changes when a scrape is
+ * stored, which moves the cache on to a new epoch, and answers from an older
+ * epoch are never given. Answers are also keyed on the trading date the time
+ * specifier resolves to, so they do not outlive the day.
+ * Cached answers are shared, and must not be changed by the caller.
+ */
+public class CachingDatabaseManager implements IDatabaseManager {
+    // The most answers kept, the least recently used are evicted first
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private IDatabaseManager db;
+    private LinkedHashMap<String, Entry> answers;
+    private volatile long epoch;
+    private long hits;
+    private long misses;
+    private long stale;
+    private long evictions;
+
+    /**
+    * An answer and the epoch it was read in
+    */
+    private static class Entry {
+        private FTSEResult result;
+        private long epoch;
+
+        private Entry(FTSEResult result, long epoch) {
+            this.result = result;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+    * Constructor for the cache, with space for DEFAULT_CAPACITY answers
+    *
+    * @param db The database manager answering the queries
+    */
+    public CachingDatabaseManager(IDatabaseManager db) {
+        this(db, DEFAULT_CAPACITY);
+    }
+
+    /**
+    * Constructor for the cache
+    *
+    * @param db The database manager answering the queries
+    * @param capacity The most answers kept
+    */
+    public CachingDatabaseManager(IDatabaseManager db, int capacity) {
+        this.db = db;
+        epoch = 0;
+        answers = new LinkedHashMap<String, Entry>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> e) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+    * Stores FTSE data, then moves on to a new epoch so that no answer read
+    * before the data was stored is given again
+    *
+    * @param sr The scrape result given by the web scraper
+    * @return true if the FTSE data is successfully store, false otherwise
+    */
+    public boolean storeScraperResults(ScrapeResult sr) {
+        boolean stored = db.storeScraperResults(sr);
+        synchronized (this) {
+            epoch++;
+        }
+        return stored;
+    }
+
+    /**
+    * Returns the FTSE data asked for, from the cache if it has been read
+    * since the last scrape was stored
+    *
+    * @param pr The parse result of the user's input
+    * @return The FTSE data requested and other infomation about the company
+    * to be output, or null if there is no data for it
+    */
+    public FTSEResult getFTSE(ParseResult pr) {
+        String key = pr.getIntent() + "|" + pr.getOperand() + "|"
+                + pr.isOperandGroup() + "|" + pr.getTimeSpecifier() + "|"
+                + DatabaseCore.timeSpecifierToDate(pr.getTimeSpecifier()) + "|"
+                + pr.getTimeOfDay();
+        // Read before the answer, so an answer read while a scrape is being
+        // stored belongs to the epoch before it
+        long readEpoch = epoch;
+
+        synchronized (this) {
+            Entry e = answers.get(key);
+            if (e != null && e.epoch == readEpoch) {
+                hits++;
+                return e.result;
+            }
+            if (e != null) {
+                stale++;
+            }
+            misses++;
+        }
+
+        FTSEResult result = db.getFTSE(pr);
+        synchronized (this) {
+            Entry e = answers.get(key);
+            if (e == null || e.epoch < readEpoch) {
+                answers.put(key, new Entry(result, readEpoch));
+            }
+        }
+        return result;
+    }
+
+    public boolean storeQuery(ParseResult pr, LocalDateTime date) {
+        return db.storeQuery(pr, date);
+    }
+
+    public ArrayList<Company> getAICompanies() {
+        return db.getAICompanies();
+    }
+
+    public ArrayList<Group> getAIGroups() {
+        return db.getAIGroups();
+    }
+
+    public String[] getCompaniesInGroup(String groupName) {
+        return db.getCompaniesInGroup(groupName);
+    }
+
+    public void onSuggestionIrrelevant(Company company, AIIntent intent,
+            boolean isNews) {
+        db.onSuggestionIrrelevant(company, intent, isNews);
+    }
+
+    public ArrayList<String> detectedImportantChange(Float threshold) {
+        return db.detectedImportantChange(threshold);
+    }
+
+    public PriceHistory getPriceHistory(String companyCode,
+            LocalDateTime from, LocalDateTime to) {
+        return db.getPriceHistory(companyCode, from, to);
+    }
+
+    public int scan(String companyCode, long from, long to,
+            SampleConsumer consumer) {
+        return db.scan(companyCode, from, to, consumer);
+    }
+
+    public PriceBars getBars(String companyCode, int intervalMinutes,
+            LocalDateTime from, LocalDateTime to) {
+        return db.getBars(companyCode, intervalMinutes, from, to);
+    }
+
+    public boolean storeNews(String companyCode, Article[] articles) {
+        return db.storeNews(companyCode, articles);
+    }
+
+    public Article[] getNews(String companyCode, Duration maxAge) {
+        return db.getNews(companyCode, maxAge);
+    }
+
+    public Article[] searchNews(String keywords, String[] companyCodes) {
+        return db.searchNews(keywords, companyCodes);
+    }
+
+    /**
+    * Closes the database manager
+    */
+    public void close() {
+        System.out.println("Closing FTSE cache. " + this);
+        db.close();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+    * Returns the number of misses caused by a cached answer being from
+    * before the last scrape
+    *
+    * @return The number of stale answers found
+    */
+    public synchronized long getStale() {
+        return stale;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Answers: " + answers.size() + ", epoch: " + epoch
+                + ", hits: " + hits + ", misses: " + misses + ", stale: "
+                + stale + ", evictions: " + evictions;
+    }
+}
@@ -0,0 +1,531 @@
+package footsiebot.database;
+
+import footsiebot.nlp.TimeSpecifier;
+import footsiebot.nlp.Intent;
+import footsiebot.nlp.ParseResult;
+import footsiebot.datagathering.ScrapeResult;
+import footsiebot.datagathering.Article;
+import footsiebot.ai.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Checks that two database managers give the same answers. The same scrapes,
+ * queries and feedback are given to both, and every answer they give back is
+ * compared. Used to check MemoryDatabaseCore against DatabaseCore.
+ */
+public class DatabaseConformance {
+    private static final String SCHEMA = "src/database/schema.sql";
+
+    private IDatabaseManager expected;
+    private IDatabaseManager actual;
+    private int checks;
+    private int mismatches;
+
+    /**
+    * Constructor for the checks
+    *
+    * @param expected The database manager giving the right answers
+    * @param actual The database manager checked against it
+    */
+    public DatabaseConformance(IDatabaseManager expected,
+            IDatabaseManager actual) {
+        this.expected = expected;
+        this.actual = actual;
+        checks = 0;
+        mismatches = 0;
+    }
+
+    /**
+    * Checks MemoryDatabaseCore, behind a CachingDatabaseManager, against a
+    * DatabaseCore on a new, empty database file, which is deleted afterwards
+    *
+    * @return A summary of the checks made
+    */
+    public static String checkMemoryDatabase() {
+        File file = null;
+        DatabaseConformance check = null;
+        try {
+            file = File.createTempFile("footsie_conformance", ".db");
+            String url = "jdbc:sqlite:" + file.getPath();
+            createDatabase(url);
+            check = new DatabaseConformance(new DatabaseCore(url),
+                    new CachingDatabaseManager(new MemoryDatabaseCore()));
+            check.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return "Database conformance could not be checked: " + e;
+        } finally {
+            if (check != null) {
+                check.expected.close();
+                check.actual.close();
+            }
+            if (file != null) {
+                deleteDatabase(file);
+            }
+        }
+        return check.toString();
+    }
+
+    /**
+    * Creates the tables of schema.sql in a new database
+    *
+    * @param url The JDBC url of the database
+    * @throws Exception if the schema could not be read or created
+    */
+    static void createDatabase(String url) throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        String schema = new String(Files.readAllBytes(Paths.get(SCHEMA)),
+                "UTF-8");
+        try (Connection conn = DriverManager.getConnection(url);
+                Statement s1 = conn.createStatement()) {
+            for (String sql : schema.split(";")) {
+                sql = sql.trim();
+                // There are no tables to drop in a new database
+                if (!sql.isEmpty() && !sql.startsWith("DROP")) {
+                    s1.executeUpdate(sql);
+                }
+            }
+        }
+    }
+
+    /**
+    * Deletes a database file along with its write-ahead log and journal
+    *
+    * @param file The database file
+    */
+    static void deleteDatabase(File file) {
+        for (String suffix : new String[]{"", "-wal", "-shm", ".ticks"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    /**
+    * Gives the same data to both database managers and compares every answer
+    *
+    * @throws InterruptedException if interrupted between scrapes
+    */
+    public void run() throws InterruptedException {
+        String[] groups = {"banks", "mining", "retail"};
+
+        // Two scrapes of the same day, the second a second later so that the
+        // snapshots have different times. One company leaves the FTSE and one
+        // joins it in the second. Every query is asked after each, so cached
+        // answers from the first must not be given after the second.
+        String[] operands = {"aaa", "bbb", "ccc", "ddd", "eee", "fff", "zzz"};
+        storeScrape(new ScrapeResult(
+                new String[]{"AAA", "BBB.", "CCC", "DDD", "EEE"},
+                new String[]{"A plc", "B plc", "C plc", "D plc", "E plc"},
+                new String[]{"Banks", "Banks", "Mining", "Mining", "Retail"},
+                new Float[]{100.0f, 250.5f, 1234.0f, 88.8f, 10.0f},
+                new Float[]{1.0f, -2.5f, 34.0f, 0.8f, -0.1f},
+                new Float[]{1.01f, -0.99f, 2.83f, 0.91f, -0.99f},
+                new Integer[]{1000, 2500, null, 40, 0}));
+        checkAllFTSE(operands);
+        // Scans up to here only see the first scrape
+        long firstScrape = LocalDateTime.now(ZoneOffset.UTC)
+                .toEpochSecond(ZoneOffset.UTC);
+        Thread.sleep(1100);
+        storeScrape(new ScrapeResult(
+                new String[]{"AAA", "BBB.", "CCC", "DDD", "FFF"},
+                new String[]{"A plc", "B plc", "C plc", "D plc", "F plc"},
+                new String[]{"Banks", "Banks", "Mining", "Mining", "Retail"},
+                new Float[]{102.0f, 240.25f, 1200.0f, 90.0f, 5.5f},
+                new Float[]{3.0f, -12.75f, 0.0f, 2.0f, 0.5f},
+                new Float[]{3.03f, -5.04f, 0.0f, 2.27f, 10.0f},
+                new Integer[]{1500, 3000, 7, 45, 9}));
+        checkAllFTSE(operands);
+        for (String operand : operands) {
+            checkScan(operand, firstScrape - 86400, firstScrape);
+            checkScan(operand, firstScrape - 86400, firstScrape + 86400);
+        }
+
+        // Two more scrapes in which only DDD changes, so that every other
+        // company holds the same snapshot over three scrapes
+        for (int i = 1; i <= 2; i++) {
+            Thread.sleep(1100);
+            storeScrape(new ScrapeResult(
+                    new String[]{"AAA", "BBB.", "CCC", "DDD", "FFF"},
+                    new String[]{"A plc", "B plc", "C plc", "D plc", "F plc"},
+                    new String[]{"Banks", "Banks", "Mining", "Mining",
+                            "Retail"},
+                    new Float[]{102.0f, 240.25f, 1200.0f, 90.0f + i, 5.5f},
+                    new Float[]{3.0f, -12.75f, 0.0f, 2.0f + i, 0.5f},
+                    new Float[]{3.03f, -5.04f, 0.0f, 2.27f, 10.0f},
+                    new Integer[]{1500, 3000, 7, 45, 9}));
+        }
+        checkAllFTSE(operands);
+        for (String operand : operands) {
+            checkScan(operand, firstScrape - 86400, firstScrape + 86400);
+            checkScan(operand, firstScrape + 1, firstScrape + 86400);
+
+            // Spot prices as of before, during and after the scrapes, by
+            // this computer's clock
+            for (long time = firstScrape - 2; time <= firstScrape + 6;
+                    time++) {
+                checkFTSE(new ParseResult(Intent.SPOT_PRICE, "", operand,
+                        false, TimeSpecifier.TODAY, LocalTime.from(Instant
+                        .ofEpochSecond(time).atZone(ZoneId.systemDefault()))));
+            }
+        }
+
+        checkNews();
+
+        // Queries and feedback
+        Intent[] queried = {Intent.SPOT_PRICE, Intent.SPOT_PRICE, Intent.NEWS,
+                Intent.TREND, Intent.TREND_SINCE, Intent.CLOSING_PRICE,
+                Intent.GROUP_FULL_SUMMARY};
+        for (Intent intent : queried) {
+            for (String operand : new String[]{"aaa", "ccc", "zzz"}) {
+                checkStoreQuery(new ParseResult(intent, "", operand, false,
+                        TimeSpecifier.TODAY));
+            }
+        }
+        checkStoreQuery(new ParseResult(Intent.SPOT_PRICE, "", "banks", true,
+                TimeSpecifier.TODAY));
+        ArrayList<Company> companies = expected.getAICompanies();
+        for (Company company : companies) {
+            for (AIIntent intent : new AIIntent[]{AIIntent.SPOT_PRICE,
+                    AIIntent.TREND, AIIntent.OPENING_PRICE}) {
+                expected.onSuggestionIrrelevant(company, intent, false);
+                actual.onSuggestionIrrelevant(company, intent, false);
+            }
+            expected.onSuggestionIrrelevant(company, null, true);
+            actual.onSuggestionIrrelevant(company, null, true);
+        }
+        expected.onSuggestionIrrelevant(companies.get(0), AIIntent.SPOT_PRICE,
+                false);
+        actual.onSuggestionIrrelevant(companies.get(0), AIIntent.SPOT_PRICE,
+                false);
+
+        compare("getAICompanies", describeCompanies(expected.getAICompanies()),
+                describeCompanies(actual.getAICompanies()));
+        // Again once queries and feedback held in memory have been written
+        Thread.sleep(1500);
+        compare("getAICompanies after writing",
+                describeCompanies(expected.getAICompanies()),
+                describeCompanies(actual.getAICompanies()));
+        ArrayList<Group> expectedGroups = expected.getAIGroups();
+        ArrayList<Group> actualGroups = actual.getAIGroups();
+        compare("getAIGroups",
+                expectedGroups == null ? null : expectedGroups.size(),
+                actualGroups == null ? null : actualGroups.size());
+
+        for (String group : groups) {
+            compare("getCompaniesInGroup " + group,
+                    Arrays.toString(expected.getCompaniesInGroup(group)),
+                    Arrays.toString(actual.getCompaniesInGroup(group)));
+        }
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        for (String operand : operands) {
+            compare("getPriceHistory " + operand,
+                    describe(expected.getPriceHistory(operand,
+                            now.minusDays(1), now.plusDays(1))),
+                    describe(actual.getPriceHistory(operand,
+                            now.minusDays(1), now.plusDays(1))));
+            for (int interval : new int[]{0, 1, 5, 60, 1440}) {
+                compare("getBars " + operand + " " + interval,
+                        describe(expected.getBars(operand, interval,
+                                now.minusDays(1), now.plusDays(1))),
+                        describe(actual.getBars(operand, interval,
+                                now.minusDays(1), now.plusDays(1))));
+            }
+        }
+        for (Float threshold : new Float[]{0.5f, 2.9f, -3.0f, 100.0f}) {
+            compare("detectedImportantChange " + threshold,
+                    sorted(expected.detectedImportantChange(threshold)),
+                    sorted(actual.detectedImportantChange(threshold)));
+        }
+    }
+
+    /**
+    * Compares the answers to every intent and time for the given companies,
+    * and for groups
+    *
+    * @param operands The companies
+    */
+    private void checkAllFTSE(String[] operands) {
+        for (Intent intent : Intent.values()) {
+            for (TimeSpecifier t : TimeSpecifier.values()) {
+                for (String operand : operands) {
+                    checkFTSE(new ParseResult(intent, "", operand, false, t));
+                }
+                for (String group : new String[]{"banks", "mining", "none"}) {
+                    checkFTSE(new ParseResult(intent, "", group, true, t));
+                }
+            }
+        }
+    }
+
+    /**
+    * Compares the samples each database manager scans for a company
+    *
+    * @param companyCode The company's code
+    * @param from The start of the range, in seconds since the epoch
+    * @param to The end of the range, in seconds since the epoch
+    */
+    private void checkScan(String companyCode, long from, long to) {
+        StringBuilder expectedSamples = new StringBuilder();
+        StringBuilder actualSamples = new StringBuilder();
+        int expectedCount = expected.scan(companyCode, from, to,
+                (time, price, volume) -> expectedSamples.append(" ")
+                        .append(price).append("/").append(volume));
+        int actualCount = actual.scan(companyCode, from, to,
+                (time, price, volume) -> actualSamples.append(" ")
+                        .append(price).append("/").append(volume));
+        compare("scan " + companyCode + " " + from + " " + to,
+                expectedCount + ":" + expectedSamples,
+                actualCount + ":" + actualSamples);
+    }
+
+    /**
+    * Stores a scrape in both database managers
+    *
+    * @param sr The scrape
+    */
+    private void storeScrape(ScrapeResult sr) {
+        compare("storeScraperResults", expected.storeScraperResults(sr),
+                actual.storeScraperResults(sr));
+    }
+
+    /**
+    * Stores the same news in both database managers and compares the news
+    * given back and found by searches. The two rank searches differently, so
+    * only which articles are found is compared.
+    */
+    private void checkNews() {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC).withNano(0);
+        Article shared = new Article("g3", "Banks raise dividends", "u3",
+                "Both AND neither", now.minusHours(1));
+        Article[][] news = {
+            {new Article("g1", "A plc raises dividend", "u1",
+                    "Shareholders cheer", now.minusDays(10)),
+                new Article("g2", "A plc profits fall", "u2",
+                    "Profit drops on charges", now.minusHours(2)), shared},
+            {shared, new Article("g4", "B plc news", "u4",
+                    "B plc pays a dividend", now.minusDays(1))}};
+        String[] codes = {"aaa", "bbb"};
+
+        compare("getNews before storing",
+                describe(expected.getNews("aaa", null)),
+                describe(actual.getNews("aaa", null)));
+        for (int i = 0; i < codes.length; i++) {
+            compare("storeNews " + codes[i],
+                    expected.storeNews(codes[i], news[i]),
+                    actual.storeNews(codes[i], news[i]));
+        }
+        // Storing the same news again adds nothing
+        compare("storeNews aaa again", expected.storeNews("aaa", news[0]),
+                actual.storeNews("aaa", news[0]));
+        for (String code : new String[]{"aaa", "bbb", "ccc"}) {
+            compare("getNews " + code,
+                    describe(expected.getNews(code, Duration.ofMinutes(15))),
+                    describe(actual.getNews(code, Duration.ofMinutes(15))));
+        }
+
+        String[][] companies = {null, {"aaa"}, {"bbb", "ccc"}, {}};
+        for (String keywords : new String[]{"dividend", "profits",
+                "and neither", "\"or", "missing", ""}) {
+            for (String[] codesSearched : companies) {
+                compare("searchNews " + keywords + " "
+                        + Arrays.toString(codesSearched),
+                        sorted(describe(expected.searchNews(keywords,
+                                codesSearched))),
+                        sorted(describe(actual.searchNews(keywords,
+                                codesSearched))));
+            }
+        }
+    }
+
+    /**
+    * Stores a query in both database managers
+    *
+    * @param pr The parse result of the query
+    */
+    private void checkStoreQuery(ParseResult pr) {
+        LocalDateTime now = LocalDateTime.now();
+        compare("storeQuery " + pr.getIntent() + " " + pr.getOperand(),
+                expected.storeQuery(pr, now), actual.storeQuery(pr, now));
+    }
+
+    /**
+    * Compares the answers of both database managers to a query
+    *
+    * @param pr The parse result of the query
+    */
+    private void checkFTSE(ParseResult pr) {
+        compare("getFTSE " + pr.getIntent() + " " + pr.getTimeSpecifier()
+                + " " + pr.getOperand()
+                + (pr.getTimeOfDay() == null ? "" : " at " + pr.getTimeOfDay()),
+                describe(expected.getFTSE(pr)),
+                describe(actual.getFTSE(pr)));
+    }
+
+    /**
+    * Counts a check, printing it if the answers differ
+    *
+    * @param what What was checked
+    * @param expectedAnswer The answer of the expected database manager
+    * @param actualAnswer The answer of the database manager checked
+    */
+    private void compare(String what, Object expectedAnswer,
+            Object actualAnswer) {
+        checks++;
+        String e = String.valueOf(expectedAnswer);
+        String a = String.valueOf(actualAnswer);
+        if (!e.equals(a)) {
+            mismatches++;
+            System.out.println("MISMATCH " + what + "\n  expected: " + e
+                    + "\n  actual:   " + a);
+        }
+    }
+
+    /**
+    * Describes every field of a result
+    *
+    * @param r The result
+    * @return The description
+    */
+    private static String describe(FTSEResult r) {
+        if (r == null) {
+            return "null";
+        }
+        String s = r.getIntent() + " " + describeNumber(r.getValue())
+                + " date=" + r.getDate() + " start=" + r.getStartPrice()
+                + " end=" + r.getEndPrice()
+                + " high=" + describe(r.getHighestPrice())
+                + " low=" + describe(r.getLowestPrice())
+                + " rising=" + describe(r.getMostRising())
+                + " falling=" + describe(r.getMostFalling());
+        for (Map.Entry<Intent, Number> e : r.getRelatedData().entrySet()) {
+            s += " " + e.getKey() + "=" + describeNumber(e.getValue());
+        }
+        return s;
+    }
+
+    /**
+    * Describes every field of some articles
+    *
+    * @param articles The articles, or null
+    * @return The description of each article, in order, or null
+    */
+    private static ArrayList<String> describe(Article[] articles) {
+        if (articles == null) {
+            return null;
+        }
+        ArrayList<String> s = new ArrayList<>();
+        for (Article a : articles) {
+            s.add(a.getGuid() + " " + a.getHeadline() + " " + a.getUrl()
+                    + " " + a.getDigest() + " " + a.getPubDate());
+        }
+        return s;
+    }
+
+    /**
+    * Describes every sample of a history
+    *
+    * @param h The history
+    * @return The description
+    */
+    private static String describe(PriceHistory h) {
+        String s = h.getCompanyCode() + ":";
+        for (int i = 0; i < h.size(); i++) {
+            s += " " + h.getPrice(i) + "/" + h.getVolume(i);
+        }
+        return s;
+    }
+
+    /**
+    * Describes every bar of a set of bars
+    *
+    * @param b The bars, or null
+    * @return The description
+    */
+    private static String describe(PriceBars b) {
+        if (b == null) {
+            return "null";
+        }
+        String s = b.getCompanyCode() + ":";
+        for (int i = 0; i < b.size(); i++) {
+            s += " " + b.getStart(i) + " " + b.getOpen(i) + "/"
+                    + b.getHigh(i) + "/" + b.getLow(i) + "/" + b.getClose(i)
+                    + "/" + b.getVolume(i);
+        }
+        return s;
+    }
+
+    /**
+    * Describes a number along with its type
+    *
+    * @param n The number
+    * @return The description
+    */
+    private static String describeNumber(Number n) {
+        return n == null ? "null" : n.getClass().getSimpleName() + ":" + n;
+    }
+
+    /**
+    * Describes the company a value belongs to and the value
+    *
+    * @param v The company's value
+    * @return The description
+    */
+    private static String describe(FTSEResult.CompanyValue v) {
+        return v == null ? "null" : v.getCode() + ":" + v.getValue();
+    }
+
+    /**
+    * Describes the counts and priorities of companies, in order of their codes
+    *
+    * @param companies The companies
+    * @return The description
+    */
+    private static String describeCompanies(ArrayList<Company> companies) {
+        if (companies == null) {
+            return "null";
+        }
+        ArrayList<String> described = new ArrayList<>();
+        for (Company c : companies) {
+            described.add(c.getCode() + " top=" + c.getTopIntent(null)
+                    + " intents=" + c.getIntentsCount()
+                    + " news=" + c.getNewsCount()
+                    + " priority=" + c.getPriority());
+        }
+        Collections.sort(described);
+        return String.join("\n", described);
+    }
+
+    /**
+    * Sorts a list of codes, as the order they are found in is not part of
+    * the answer
+    *
+    * @param codes The codes
+    * @return The sorted codes
+    */
+    private static ArrayList<String> sorted(ArrayList<String> codes) {
+        if (codes != null) {
+            Collections.sort(codes);
+        }
+        return codes;
+    }
+
+    @Override
+    public String toString() {
+        return "Database conformance: " + checks + " checks, " + mismatches
+                + " mismatches";
+    }
+}
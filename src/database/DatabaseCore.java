@@ -4,7 +4,9 @@ import footsiebot.nlp.TimeSpecifier;
 import footsiebot.nlp.Intent;
 import footsiebot.nlp.ParseResult;
 import footsiebot.datagathering.ScrapeResult;
+import footsiebot.datagathering.Article;
 import footsiebot.ai.*;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.sql.*;
 import java.util.*;
@@ -19,11 +21,101 @@ import java.text.NumberFormat;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DatabaseCore implements IDatabaseManager {
+    static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // The version of schema.sql, stored in the database's user_version
+    private static final int SCHEMA_VERSION = 9;
+
+    private static final String DATABASE_URL =
+            "jdbc:sqlite:src/database/footsie_db.db";
+
+    // The journal of a database is kept next to its file, with this suffix
+    private static final String JOURNAL_SUFFIX = ".ticks";
+
+    // How storing a scrape ended. A refused scrape is dropped, a failed one
+    // is kept in the journal to be stored again.
+    private static final int STORED = 0;
+    private static final int STORE_REFUSED = 1;
+    private static final int STORE_FAILED = 2;
+
+    // The error code of SQLite when a statement breaks a constraint
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    // The number of read-only connections kept for interactive reads
+    private static final int READER_COUNT = 2;
+
+    // The rows a scan asks the driver to read at a time
+    private static final int SCAN_FETCH_SIZE = 256;
+
     private Connection conn;
+    private StatementCache statements;
+    private ReaderPool readers;
+    private HashSet<String> knownCompanies;
+    private QuoteBoard quotes;
+    // The TimeOfData of the row holding each company's latest snapshot,
+    // whose ValidTo is moved forward by scrapes that change nothing
+    private HashMap<String, String> latestRows;
+    // The spot prices of the snapshots kept, from the trading day they were
+    // last trimmed to the retention window
+    private PriceIndex prices;
+    private String indexedDate;
+    private QueryLogWriter queryLog;
+    private RetentionJob retention;
+    private NewsStore news;
+    private TickJournal journal;
+    private QueryMetrics metrics;
+    private BarResampler bars;
+
+    // The writer connection is used by one scrape at a time, so that each
+    // has the connection's transaction to itself. Reads use the reader pool
+    // and queries the query log writer, neither of which waits for it.
+    private ReentrantLock writer;
+    private volatile boolean closed;
 
     public DatabaseCore() {
+        this(DATABASE_URL);
+    }
+
+    /**
+    * Constructor for a database core whose statements and transactions are
+    * measured
+    *
+    * @param metrics The metrics to measure by, or null for none
+    */
+    public DatabaseCore(QueryMetrics metrics) {
+        this(DATABASE_URL, metrics);
+    }
+
+    /**
+    * Constructor for a database core on the given database file, which must
+    * already have the tables of schema.sql
+    *
+    * @param url The JDBC url of the database
+    */
+    public DatabaseCore(String url) {
+        this(url, null);
+    }
+
+    /**
+    * Constructor for a database core on the given database file, which must
+    * already have the tables of schema.sql, whose statements and transactions
+    * are measured
+    *
+    * @param url The JDBC url of the database
+    * @param metrics The metrics to measure by, or null for none
+    */
+    public DatabaseCore(String url, QueryMetrics metrics) {
+        this.metrics = metrics;
+        writer = new ReentrantLock();
+        closed = false;
 
         // load the sqlite-JDBC driver
         try {
@@ -36,149 +128,832 @@ public class DatabaseCore implements IDatabaseManager {
         conn = null;
         try {
             // create a database connection
-            conn = DriverManager
-                    .getConnection("jdbc:sqlite:src/database/footsie_db.db");
+            conn = DriverManager.getConnection(url);
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        enableWriteAheadLog();
+        upgradeSchema();
+        statements = new StatementCache(conn, metrics);
+        readers = new ReaderPool(url, READER_COUNT, metrics);
+        knownCompanies = loadKnownCompanies();
+        latestRows = new HashMap<>();
+        quotes = loadQuoteBoard();
+        prices = loadPriceIndex();
+        indexedDate = "";
+        journal = new TickJournal(url.replaceFirst("^jdbc:sqlite:", "")
+                + JOURNAL_SUFFIX);
+        replayJournal();
+        queryLog = new QueryLogWriter(url, metrics);
+        retention = new RetentionJob(url, metrics);
+        news = new NewsStore(url, metrics);
+        bars = new BarResampler(this);
+    }
+
+    /**
+    * Puts the database in WAL mode, so that the read-only connections can
+    * read while a transaction is open on this one. The mode is stored in the
+    * database file.
+    */
+    private void enableWriteAheadLog() {
+        Statement s1 = null;
+        ResultSet rs = null;
+        try {
+            s1 = conn.createStatement();
+            rs = s1.executeQuery("PRAGMA journal_mode = WAL");
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        tryClose(rs);
+        tryClose(s1);
+    }
+
+    /**
+    * Brings a database file created by an older version of schema.sql up to
+    * date. The schema version a file is at is kept in its user_version, and
+    * each step below upgrades it by one version.
+    */
+    private void upgradeSchema() {
+        Statement s1 = null;
+        ResultSet rs = null;
+        int version = 0;
+
+        try {
+            s1 = conn.createStatement();
+            rs = s1.executeQuery("PRAGMA user_version");
+            if (rs.next()) {
+                version = rs.getInt(1);
+            }
+            tryClose(rs);
+
+            if (version >= SCHEMA_VERSION) {
+                tryClose(s1);
+                return;
+            }
+            System.out.println("Upgrading database from schema version "
+                    + version + " to " + SCHEMA_VERSION);
+
+            trySetAutoCommit(false);
+
+            if (version < 1) {
+                // Store the trading date of each snapshot, so that lookups for
+                // a given day can seek an index instead of calling DATE() on
+                // every row
+                s1.executeUpdate("ALTER TABLE FTSECompanySnapshots "
+                        + "ADD COLUMN TradingDate varchar(10)");
+                s1.executeUpdate("UPDATE FTSECompanySnapshots "
+                        + "SET TradingDate = DATE(TimeOfData)");
+                s1.executeUpdate("CREATE INDEX IF NOT EXISTS "
+                        + "FTSECompanySnapshotsByDate ON FTSECompanySnapshots "
+                        + "(CompanyCode, TradingDate, TimeOfData)");
+            }
+
+            if (version < 2) {
+                // Keep one row of prices per company per trading day, so that
+                // historical intents are primary key lookups and survive the
+                // purge of old snapshots. Backfilled from stored snapshots.
+                s1.executeUpdate("CREATE TABLE IF NOT EXISTS "
+                        + "FTSECompanyDailyPrices (\n"
+                        + "CompanyCode varchar(10),\n"
+                        + "TradingDate varchar(10),\n"
+                        + "OpeningPrice decimal(5,2),\n"
+                        + "HighPrice decimal(5,2),\n"
+                        + "LowPrice decimal(5,2),\n"
+                        + "ClosingPrice decimal(5,2),\n"
+                        + "TradingVolume integer,\n"
+                        + "primary key(CompanyCode, TradingDate),\n"
+                        + "foreign key (CompanyCode) "
+                        + "references FTSECompanies(CompanyCode))");
+                s1.executeUpdate("INSERT OR REPLACE INTO FTSECompanyDailyPrices\n"
+                        + "SELECT d.CompanyCode, d.TradingDate,\n"
+                        + "(SELECT s.SpotPrice - s.AbsoluteChange "
+                        + "FROM FTSECompanySnapshots s "
+                        + "WHERE s.CompanyCode = d.CompanyCode "
+                        + "AND s.TradingDate = d.TradingDate "
+                        + "ORDER BY s.TimeOfData ASC LIMIT 1),\n"
+                        + "d.HighPrice, d.LowPrice,\n"
+                        + "(SELECT s.SpotPrice "
+                        + "FROM FTSECompanySnapshots s "
+                        + "WHERE s.CompanyCode = d.CompanyCode "
+                        + "AND s.TradingDate = d.TradingDate "
+                        + "ORDER BY s.TimeOfData DESC LIMIT 1),\n"
+                        + "(SELECT s.TradingVolume "
+                        + "FROM FTSECompanySnapshots s "
+                        + "WHERE s.CompanyCode = d.CompanyCode "
+                        + "AND s.TradingDate = d.TradingDate "
+                        + "ORDER BY s.TimeOfData DESC LIMIT 1)\n"
+                        + "FROM (SELECT CompanyCode, TradingDate, "
+                        + "MAX(SpotPrice) AS HighPrice, "
+                        + "MIN(SpotPrice) AS LowPrice "
+                        + "FROM FTSECompanySnapshots "
+                        + "GROUP BY CompanyCode, TradingDate) d");
+            }
+
+            if (version < 3) {
+                // Move the counts and adjustments of every per-intent table
+                // into one table keyed by company and intent
+                s1.executeUpdate("CREATE TABLE IF NOT EXISTS "
+                        + "CompanyIntentCounts (\n"
+                        + "CompanyCode varchar(10),\n"
+                        + "Intent varchar(30),\n"
+                        + "Count integer,\n"
+                        + "Adjustment decimal(2,2),\n"
+                        + "primary key(CompanyCode, Intent),\n"
+                        + "foreign key (CompanyCode) "
+                        + "references FTSECompanies(CompanyCode))");
+                String[][] countTables = {
+                    {"CompanyNewsCount", "NEWS", "NewsCount", "newsAdjustment"},
+                    {"CompanySpotPriceCount", "SPOT_PRICE", "SpotPriceCount", "SpotPriceAdjustment"},
+                    {"CompanyOpeningPriceCount", "OPENING_PRICE", "OpeningPriceCount", "OpeningPriceAdjustment"},
+                    {"CompanyAbsoluteChangeCount", "ABSOLUTE_CHANGE", "AbsoluteChangeCount", "AbsoluteChangeAdjustment"},
+                    {"CompanyClosingPriceCount", "CLOSING_PRICE", "ClosingPriceCount", "ClosingPriceAdjustment"},
+                    {"CompanyPercentageChangeCount", "PERCENT_CHANGE", "PercentageChangeCount", "PercentageChangeAdjustment"},
+                    {"CompanyTrendCount", "TREND", "TrendCount", "TrendAdjustment"},
+                    {"CompanyTradingVolumeCount", "TRADING_VOLUME", "TradingVolumeCount", "TradingVolumeAdjustment"},
+                    {"CompanyTrendSinceCount", "TREND_SINCE", "TrendSinceCount", "TrendSinceAdjustment"}
+                };
+                for (String[] t : countTables) {
+                    s1.executeUpdate("INSERT OR REPLACE INTO "
+                            + "CompanyIntentCounts "
+                            + "SELECT CompanyCode, '" + t[1] + "', "
+                            + "COALESCE(" + t[2] + ", 0), "
+                            + "COALESCE(" + t[3] + ", 0) "
+                            + "FROM " + t[0]);
+                    s1.executeUpdate("DROP TABLE " + t[0]);
+                }
+            }
+
+            if (version < 4 && !hasColumn(s1, "Queries", "QueryID")) {
+                // The shipped database keys queries by company and time, so
+                // a second query for a company in the same second could not
+                // be logged. Rebuild the table keyed by QueryID as in
+                // schema.sql.
+                s1.executeUpdate("CREATE TABLE QueriesByID (\n"
+                        + "QueryID integer,\n"
+                        + "CompanyCode varchar(10),\n"
+                        + "TimeOfQuery TimeStamp "
+                        + "DEFAULT CURRENT_TIMESTAMP NOT NULL,\n"
+                        + "Intent varchar(30),\n"
+                        + "TimeSpecifier varchar(30),\n"
+                        + "primary key(QueryID),\n"
+                        + "foreign key (CompanyCode) "
+                        + "references FTSECompanies(CompanyCode))");
+                s1.executeUpdate("INSERT INTO QueriesByID (CompanyCode, "
+                        + "TimeOfQuery, Intent, TimeSpecifier) "
+                        + "SELECT CompanyCode, TimeOfQuery, Intent, "
+                        + "TimeSpecifier FROM Queries ORDER BY TimeOfQuery");
+                s1.executeUpdate("DROP TABLE Queries");
+                s1.executeUpdate("ALTER TABLE QueriesByID RENAME TO Queries");
+            }
+
+            if (version < 5) {
+                // Lets the retention job find old snapshots without scanning
+                s1.executeUpdate("CREATE INDEX IF NOT EXISTS "
+                        + "FTSECompanySnapshotsByTradingDate "
+                        + "ON FTSECompanySnapshots(TradingDate)");
+            }
+
+            if (version < 6) {
+                // Snapshots past the retention window are kept compressed,
+                // one block per company per trading day
+                s1.executeUpdate("CREATE TABLE IF NOT EXISTS "
+                        + "FTSECompanyHistoryBlocks (\n"
+                        + "CompanyCode varchar(10),\n"
+                        + "StartTime integer,\n"
+                        + "EndTime integer,\n"
+                        + "Samples integer,\n"
+                        + "Data blob,\n"
+                        + "primary key(CompanyCode, StartTime),\n"
+                        + "foreign key (CompanyCode) "
+                        + "references FTSECompanies(CompanyCode))");
+            }
+
+            if (version < 7) {
+                // Queries past the retention window are folded into hourly
+                // counts. The view reads both as one set of hourly counts.
+                s1.executeUpdate("CREATE INDEX IF NOT EXISTS QueriesByTime "
+                        + "ON Queries(TimeOfQuery)");
+                s1.executeUpdate("CREATE TABLE IF NOT EXISTS "
+                        + "QueryHourlyCounts (\n"
+                        + "CompanyCode varchar(10),\n"
+                        + "Intent varchar(30),\n"
+                        + "TimeSpecifier varchar(30),\n"
+                        + "Hour TimeStamp,\n"
+                        + "Count integer,\n"
+                        + "primary key(CompanyCode, Intent, TimeSpecifier, "
+                        + "Hour),\n"
+                        + "foreign key (CompanyCode) "
+                        + "references FTSECompanies(CompanyCode))");
+                s1.executeUpdate("CREATE VIEW IF NOT EXISTS "
+                        + "QueryCountsByHour AS\n"
+                        + "SELECT CompanyCode, Intent, TimeSpecifier, Hour, "
+                        + "SUM(Count) AS Count\n"
+                        + "FROM (SELECT CompanyCode, Intent, TimeSpecifier, "
+                        + "Hour, Count FROM QueryHourlyCounts\n"
+                        + "UNION ALL\n"
+                        + "SELECT CompanyCode, Intent, TimeSpecifier, "
+                        + "strftime('%Y-%m-%d %H:00:00', TimeOfQuery), 1 "
+                        + "FROM Queries)\n"
+                        + "GROUP BY CompanyCode, Intent, TimeSpecifier, Hour");
+            }
+
+            if (version < 8) {
+                // A snapshot row holds its values from its TimeOfData until
+                // ValidTo, so that scrapes that change nothing extend it
+                // instead of adding a row. Every stored row is one scrape.
+                s1.executeUpdate("ALTER TABLE FTSECompanySnapshots "
+                        + "ADD COLUMN ValidTo TimeStamp");
+                s1.executeUpdate("UPDATE FTSECompanySnapshots "
+                        + "SET ValidTo = TimeOfData");
+            }
+
+            if (version < 9) {
+                // News articles fetched are kept, each under every company
+                // it was fetched for, with a full text index of their
+                // headlines and digests kept by the news store
+                s1.executeUpdate("CREATE TABLE IF NOT EXISTS NewsArticles (\n"
+                        + "Guid varchar(200),\n"
+                        + "Headline text,\n"
+                        + "Url text,\n"
+                        + "Digest text,\n"
+                        + "PubDate TimeStamp,\n"
+                        + "primary key(Guid))");
+                s1.executeUpdate("CREATE TABLE IF NOT EXISTS "
+                        + "NewsArticleCompanies (\n"
+                        + "CompanyCode varchar(10),\n"
+                        + "Guid varchar(200),\n"
+                        + "primary key(CompanyCode, Guid),\n"
+                        + "foreign key (CompanyCode) "
+                        + "references FTSECompanies(CompanyCode),\n"
+                        + "foreign key (Guid) references NewsArticles(Guid))");
+                s1.executeUpdate("CREATE TABLE IF NOT EXISTS NewsFetches (\n"
+                        + "CompanyCode varchar(10),\n"
+                        + "FetchedAt TimeStamp,\n"
+                        + "primary key(CompanyCode),\n"
+                        + "foreign key (CompanyCode) "
+                        + "references FTSECompanies(CompanyCode))");
+                s1.executeUpdate("CREATE VIRTUAL TABLE IF NOT EXISTS "
+                        + "NewsSearch USING fts5(Headline, Digest, "
+                        + "content='NewsArticles', "
+                        + "tokenize='porter unicode61')");
+            }
+
+            s1.executeUpdate("PRAGMA user_version = " + SCHEMA_VERSION);
+            conn.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            tryRollback();
+        }
+        trySetAutoCommit(true);
+        tryClose(s1);
+    }
+
+    /**
+    * Checks whether a table has a column
+    *
+    * @param s1 The statement to read the table's columns with
+    * @param table The name of the table
+    * @param column The name of the column
+    * @return true if the table has the column
+    * @throws SQLException if the columns could not be read
+    */
+    private static boolean hasColumn(Statement s1, String table, String column)
+            throws SQLException {
+        ResultSet rs = s1.executeQuery("PRAGMA table_info(" + table + ")");
+        try {
+            while (rs.next()) {
+                if (rs.getString("name").equalsIgnoreCase(column)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+    * Loads the codes of all companies already stored in FTSECompanies, so
+    * that storing scrape results does not have to check each one against the
+    * database
+    *
+    * @return The set of stored company codes
+    */
+    private HashSet<String> loadKnownCompanies() {
+        HashSet<String> codes = new HashSet<>();
+        ResultSet rs = null;
+        try {
+            rs = statements.get("SELECT CompanyCode FROM FTSECompanies")
+                    .executeQuery();
+            while (rs.next()) {
+                codes.add(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        tryClose(rs);
+        return codes;
+    }
+
+    /**
+    * Returns the cache of prepared statements used by this database core, so
+    * that its hit and miss counts can be inspected
+    *
+    * @return The statement cache
+    */
+    public StatementCache getStatementCache() {
+        return statements;
+    }
+
+    /**
+    * Returns the metrics this database core is measured by, so that they can
+    * be reported at any time
+    *
+    * @return The metrics, or null if none are being kept
+    */
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+    * Writes any queued queries and feedback, then closes all prepared
+    * statements and the database connection. Waits for a scrape being
+    * stored to finish, and no more are stored after.
+    */
+    public void close() {
+        writer.lock();
+        try {
+            closed = true;
+        } finally {
+            writer.unlock();
+        }
+        queryLog.close();
+        retention.close();
+        news.close();
+        journal.close();
+        System.out.println("Closing database. " + statements + ". "
+                + readers + ". " + prices);
+        if (metrics != null) {
+            System.out.println(metrics.report());
+        }
+        readers.close();
+        statements.close();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+    * Fills the quote board with the most recent snapshot stored for each
+    * company. The companies snapshotted on the latest trading day stored are
+    * taken as the current constituents.
+    *
+    * @return The quote board
+    */
+    private QuoteBoard loadQuoteBoard() {
+        QuoteBoard board = new QuoteBoard();
+        ArrayList<Quote> latestDay = new ArrayList<>();
+        String latestDate = "";
+        ResultSet rs = null;
+        try {
+            // SQLite takes the bare columns from the row holding the maximum.
+            // The quote was last scraped at the end of that row's interval.
+            rs = statements.get("SELECT CompanyCode, MAX(TimeOfData), "
+                    + "SpotPrice, PercentageChange, AbsoluteChange, "
+                    + "TradingVolume, ValidTo FROM FTSECompanySnapshots "
+                    + "GROUP BY CompanyCode").executeQuery();
+            while (rs.next()) {
+                Quote quote = new Quote(rs.getString(1), rs.getFloat(3),
+                        rs.getFloat(4), rs.getFloat(5), rs.getInt(6),
+                        rs.getString(7));
+                board.put(quote);
+                latestRows.put(quote.getCode(), rs.getString(2));
+
+                String date = quote.getTimeOfData().substring(0, 10);
+                if (date.compareTo(latestDate) > 0) {
+                    latestDate = date;
+                    latestDay.clear();
+                }
+                if (date.equals(latestDate)) {
+                    latestDay.add(quote);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        tryClose(rs);
+        board.putScrape(latestDay);
+        return board;
+    }
+
+    /**
+    * Indexes the spot price of every snapshot stored, so that the price of a
+    * company as of a time can be found without reading the database
+    *
+    * @return The price index
+    */
+    private PriceIndex loadPriceIndex() {
+        PriceIndex index = new PriceIndex();
+        ResultSet rs = null;
+        try {
+            // A row holds its price until the company's next row, so only
+            // the time it starts at is indexed
+            rs = statements.get("SELECT CompanyCode, "
+                    + "CAST(strftime('%s', TimeOfData) AS INTEGER), SpotPrice "
+                    + "FROM FTSECompanySnapshots "
+                    + "ORDER BY CompanyCode, TimeOfData").executeQuery();
+            while (rs.next()) {
+                index.add(rs.getString(1), rs.getLong(2), rs.getFloat(3));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        tryClose(rs);
+        return index;
+    }
+
+    /**
+    * Replays the scrapes left in the journal, by a run of the program that
+    * stopped before storing them or by a transaction that failed, then
+    * clears the journal. Scrapes are stored in the order they were
+    * appended, so the replay stops at the first that fails again, and the
+    * journal keeps all of them for the next replay.
+    *
+    * @return true if every scrape in the journal is now stored or was
+    *         refused, false if one failed again
+    */
+    private boolean replayJournal() {
+        if (journal.size() == 0) {
+            return true;
+        }
+        System.out.println("Replaying " + journal.size()
+                + " journaled snapshots");
+        boolean[] failed = {false};
+        journal.replay((time, sr) -> {
+            if (failed[0]) {
+                return;
+            }
+            LocalDateTime timeOfData = LocalDateTime.ofEpochSecond(time, 0,
+                    ZoneOffset.UTC);
+            // The scrape may have been committed just before the journal
+            // was cleared
+            if (!isStored(sr, timeOfData)
+                    && storeScraperResults(sr, timeOfData) == STORE_FAILED) {
+                failed[0] = true;
+            }
+        });
+        if (failed[0]) {
+            return false;
+        }
+        journal.checkpoint();
+        return true;
+    }
 
+    /**
+    * Checks whether a scrape result has already been stored, by looking up
+    * the snapshot of its first company. The scrape is stored if a row of that
+    * company holds its values at the time of the scrape.
+    *
+    * @param sr The scrape result
+    * @param timeOfData The time of the scrape, UTC
+    * @return true if the scrape is already stored, false otherwise
+    */
+    private boolean isStored(ScrapeResult sr, LocalDateTime timeOfData) {
+        if (sr.getSize() == 0) {
+            return true;
+        }
+        ResultSet rs = null;
+        boolean stored = false;
+        try {
+            // No row holds its values past the end of its trading day
+            PreparedStatement s1 = statements.get(
+                    "SELECT 1 FROM FTSECompanySnapshots "
+                    + "WHERE CompanyCode = ? AND TimeOfData BETWEEN ? AND ? "
+                    + "AND ValidTo >= ?");
+            String time = timeOfData.format(TIMESTAMP_FORMAT);
+            s1.setString(1, toCompanyCode(sr.getCode(0)));
+            s1.setString(2, timeOfData.toLocalDate().atStartOfDay()
+                    .format(TIMESTAMP_FORMAT));
+            s1.setString(3, time);
+            s1.setString(4, time);
+            rs = s1.executeQuery();
+            stored = rs.next();
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        tryClose(rs);
+        return stored;
     }
 
     /**
-    * Stores FTSE data in the database
+    * Stores FTSE data in the database. The scrape result is first appended to
+    * the journal, so that it can be replayed if the program stops before the
+    * database has committed it. Scrapes whose transaction failed are kept in
+    * the journal and stored again, in order, before the next scrape.
+    * Scrapes stored from several threads at once are stored one after
+    * another.
     *
     * @param sr The scrape result given by the web scraper
     * @return true if the FTSE data is successfully store, false otherwise
     */
     public boolean storeScraperResults(ScrapeResult sr) {
+        writer.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            boolean replayed = replayJournal();
+            // Every snapshot in the scrape shares the same time of data
+            LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+            journal.append(sr, now.toEpochSecond(ZoneOffset.UTC));
+            // Scrapes are stored in order, so while an earlier one still
+            // fails this one waits in the journal behind it
+            if (!replayed) {
+                return false;
+            }
+            int result = storeScraperResults(sr, now);
+            // A scrape the database refused is not replayed, one whose
+            // transaction failed is
+            if (result != STORE_FAILED) {
+                journal.checkpoint();
+            }
+            return result == STORED;
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    /**
+    * Stores FTSE data in the database. The whole scrape result is written as
+    * a single transaction, with one batch per table. A snapshot with the
+    * same prices and volume as the company's latest that trading day only
+    * moves that row's ValidTo forward, any other adds a row. Each snapshot
+    * also updates the company's row of daily prices for the trading day.
+    * Nothing in the scrape is stored if any company appears twice in it, or
+    * already has a snapshot from the same second.
+    *
+    * @param sr The scrape result given by the web scraper
+    * @param now The time of the scrape, UTC
+    * @return STORED if the FTSE data is stored, STORE_REFUSED if the scrape
+    *         was refused, or STORE_FAILED if the transaction failed
+    */
+    private int storeScraperResults(ScrapeResult sr, LocalDateTime now) {
 
-        int numCompanies = 100; // Constant
-        int tradingVolume = 0;
+        long startTime = System.nanoTime();
+        int numCompanies = sr.getSize();
+        Integer tradingVolume = 0;
         Float price, absChange, percChange = 0.0f;
         String code, group, name = " ";
-        Statement s1 = null;
-        PreparedStatement s2 = null;
-        PreparedStatement s3 = null;
-        Statement s4 = null;
-
-        String checkNewCompanyQuery = null;
-        String addNewCompanyQuery = null;
-        String addCompanyGroupQuery = null;
-        String addScrapeResultQuery = null;
-        ResultSet companyCheck = null;
-
-        // Will treat the following as a transaction, so that it can be rolled
-        // back if it fails
-        trySetAutoCommit(false);
+        HashSet<String> newCompanies = new HashSet<>();
+        ArrayList<Quote> newQuotes = new ArrayList<>();
+        HashMap<String, String> newRows = new HashMap<>();
+        int unchanged = 0;
 
-        deleteOldFTSEData();
+        // In the same format as SQLite's CURRENT_TIMESTAMP
+        String timeOfData = now.format(TIMESTAMP_FORMAT);
+        String tradingDate = now.toLocalDate().toString();
 
-        // Store all scraper data in the database
+        HashSet<String> seen = new HashSet<>();
         for (int i = 0; i < numCompanies; i++) {
-            code = sr.getCode(i).toLowerCase();
-
-            // Remove punctuation if present
-            if (code.endsWith(".")) {
-                code = code.substring(0, code.length() - 1);
+            code = toCompanyCode(sr.getCode(i));
+            Quote latest = quotes.get(code);
+            if (!seen.add(code) || (latest != null
+                    && latest.getTimeOfData().equals(timeOfData))) {
+                System.out.println("Couldn't store scrape, " + code
+                        + " already has a snapshot at this time");
+                return STORE_REFUSED;
             }
+        }
 
-            group = sr.getGroup(i).toLowerCase();
-            name = sr.getName(i).toLowerCase();
-            price = sr.getPrice(i);
-            absChange = sr.getAbsChange(i);
-            percChange = sr.getPercChange(i);
-            tradingVolume = sr.getVolume(i);
+        // Will treat the following as a transaction, so that it can be rolled
+        // back if it fails
+        long transactionStart = System.nanoTime();
+        trySetAutoCommit(false);
 
-            checkNewCompanyQuery = null; // Reseting
-            addNewCompanyQuery = null;
-            addCompanyGroupQuery = null;
-            addScrapeResultQuery = null;
+        PreparedStatement addNewCompany = null;
+        PreparedStatement addCompanyGroup = null;
+        PreparedStatement addScrapeResult = null;
+        PreparedStatement extendScrapeResult = null;
+        PreparedStatement addDailyPrices = null;
+        PreparedStatement updateDailyPrices = null;
 
-            try {
+        try {
+            addNewCompany = statements.get(
+                    "INSERT INTO FTSECompanies VALUES(?,?)");
+            addCompanyGroup = statements.get(
+                    "INSERT INTO FTSEGroupMappings VALUES(?,?)");
+            addScrapeResult = statements.get(
+                    "INSERT INTO FTSECompanySnapshots "
+                    + "(CompanyCode, SpotPrice, PercentageChange, "
+                    + "AbsoluteChange, TradingVolume, TimeOfData, "
+                    + "TradingDate, ValidTo) "
+                    + "VALUES(?,?,?,?,?,?,?,?)");
+            extendScrapeResult = statements.get(
+                    "UPDATE FTSECompanySnapshots SET ValidTo = ? "
+                    + "WHERE CompanyCode = ? AND TimeOfData = ?");
+
+            // The first snapshot of the day creates the row and sets the
+            // opening price, every snapshot moves the high, low and close
+            addDailyPrices = statements.get(
+                    "INSERT OR IGNORE INTO FTSECompanyDailyPrices "
+                    + "(CompanyCode, TradingDate, OpeningPrice, HighPrice, "
+                    + "LowPrice, ClosingPrice) "
+                    + "VALUES(?,?,?,?,?,?)");
+            updateDailyPrices = statements.get(
+                    "UPDATE FTSECompanyDailyPrices "
+                    + "SET HighPrice = MAX(HighPrice, ?), "
+                    + "LowPrice = MIN(LowPrice, ?), "
+                    + "ClosingPrice = ?, TradingVolume = ? "
+                    + "WHERE CompanyCode = ? AND TradingDate = ?");
+
+            // Queue up all scraper data
+            for (int i = 0; i < numCompanies; i++) {
+                code = toCompanyCode(sr.getCode(i));
+                group = sr.getGroup(i).toLowerCase();
+                name = sr.getName(i).toLowerCase();
+                price = sr.getPrice(i);
+                absChange = sr.getAbsChange(i);
+                percChange = sr.getPercChange(i);
+                tradingVolume = sr.getVolume(i);
 
                 // If the company is a new FTSE company, add it to the
                 // FTSECompanies and FTSEGroupMappings table
-                checkNewCompanyQuery    = "SELECT * FROM FTSECompanies "
-                                        + "WHERE CompanyCode = '" + code + "'";
-                s1 = conn.createStatement();
-                companyCheck = s1.executeQuery(checkNewCompanyQuery);
-                if (!companyCheck.next()) {
-                    addNewCompanyQuery  = "INSERT INTO FTSECompanies "
-                                        + "VALUES(?,?)";
-                    s2 = conn.prepareStatement(addNewCompanyQuery);
-                    s2.setString(1,code);
-                    s2.setString(2,name);
-                    s2.executeUpdate();
-
-                    addCompanyGroupQuery    = "INSERT INTO FTSEGroupMappings "
-                                            + "VALUES(?,?)";
-                    s3 = conn.prepareStatement(addCompanyGroupQuery);
-                    s3.setString(1,group);
-                    s3.setString(2,code);
-                    s3.executeUpdate();
+                if (!knownCompanies.contains(code) && newCompanies.add(code)) {
+                    addNewCompany.setString(1, code);
+                    addNewCompany.setString(2, name);
+                    addNewCompany.addBatch();
+
+                    addCompanyGroup.setString(1, group);
+                    addCompanyGroup.setString(2, code);
+                    addCompanyGroup.addBatch();
                 }
 
-                // Add the company data into the FTSECompanySnapshots table
-                addScrapeResultQuery    = "INSERT INTO FTSECompanySnapshots "
-                                        + "(CompanyCode, SpotPrice, "
-                                        + "PercentageChange, AbsoluteChange, "
-                                        + "TradingVolume) "
-                                        + "VALUES('" + code + "', " + price
-                                        + ", " + percChange + ", " + absChange
-                                        + "," + tradingVolume + ")";
-                s4 = conn.createStatement();
-                s4.executeUpdate(addScrapeResultQuery);
-
-            } catch (SQLException e) {
-                e.printStackTrace();
-                tryRollback();
-                trySetAutoCommit(true);
-                tryClose(s1);
-                tryClose(companyCheck);
-                tryClose(s2);
-                tryClose(s3);
-                tryClose(s4);
-                return false;
+                // Add the company data into the FTSECompanySnapshots table,
+                // unless the company's latest row already holds it
+                String latestRow = latestRows.get(code);
+                if (latestRow != null && latestRow.startsWith(tradingDate)
+                        && isUnchanged(quotes.get(code), price, percChange,
+                        absChange, tradingVolume)) {
+                    extendScrapeResult.setString(1, timeOfData);
+                    extendScrapeResult.setString(2, code);
+                    extendScrapeResult.setString(3, latestRow);
+                    extendScrapeResult.addBatch();
+                    unchanged++;
+                } else {
+                    addScrapeResult.setString(1, code);
+                    addScrapeResult.setFloat(2, price);
+                    addScrapeResult.setFloat(3, percChange);
+                    addScrapeResult.setFloat(4, absChange);
+                    if (tradingVolume == null) {
+                        addScrapeResult.setNull(5, Types.INTEGER);
+                    } else {
+                        addScrapeResult.setInt(5, tradingVolume);
+                    }
+                    addScrapeResult.setString(6, timeOfData);
+                    addScrapeResult.setString(7, tradingDate);
+                    addScrapeResult.setString(8, timeOfData);
+                    addScrapeResult.addBatch();
+                    newRows.put(code, timeOfData);
+                }
+
+                addDailyPrices.setString(1, code);
+                addDailyPrices.setString(2, tradingDate);
+                addDailyPrices.setFloat(3, price - absChange);
+                addDailyPrices.setFloat(4, price);
+                addDailyPrices.setFloat(5, price);
+                addDailyPrices.setFloat(6, price);
+                addDailyPrices.addBatch();
+
+                updateDailyPrices.setFloat(1, price);
+                updateDailyPrices.setFloat(2, price);
+                updateDailyPrices.setFloat(3, price);
+                if (tradingVolume == null) {
+                    updateDailyPrices.setNull(4, Types.INTEGER);
+                } else {
+                    updateDailyPrices.setInt(4, tradingVolume);
+                }
+                updateDailyPrices.setString(5, code);
+                updateDailyPrices.setString(6, tradingDate);
+                updateDailyPrices.addBatch();
+
+                newQuotes.add(new Quote(code, price, percChange, absChange,
+                        tradingVolume == null ? 0 : tradingVolume, timeOfData));
+            }
+
+            if (!newCompanies.isEmpty()) {
+                addNewCompany.executeBatch();
+                addCompanyGroup.executeBatch();
+            }
+            if (!newRows.isEmpty()) {
+                addScrapeResult.executeBatch();
             }
+            if (unchanged > 0) {
+                extendScrapeResult.executeBatch();
+            }
+            addDailyPrices.executeBatch();
+            updateDailyPrices.executeBatch();
+            conn.commit();
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            tryClearBatch(addNewCompany);
+            tryClearBatch(addCompanyGroup);
+            tryClearBatch(addScrapeResult);
+            tryClearBatch(extendScrapeResult);
+            tryClearBatch(addDailyPrices);
+            tryClearBatch(updateDailyPrices);
+            tryRollback();
+            recordTransaction("storeScraperResults", transactionStart);
+            trySetAutoCommit(true);
+            // A scrape breaking a constraint would break it again
+            return e.getErrorCode() == SQLITE_CONSTRAINT ? STORE_REFUSED
+                    : STORE_FAILED;
         }
 
-        tryCommit();
+        recordTransaction("storeScraperResults", transactionStart);
         trySetAutoCommit(true);
+        knownCompanies.addAll(newCompanies);
+        latestRows.putAll(newRows);
+        quotes.putScrape(newQuotes);
+        indexPrices(newQuotes, newRows, now);
+
+        System.out.println("Stored " + numCompanies + " snapshots in "
+                + ((System.nanoTime() - startTime) / 1000000) + "ms, "
+                + unchanged + " unchanged");
+        return STORED;
+    }
 
-        tryClose(s1);
-        tryClose(companyCheck);
-        tryClose(s2);
-        tryClose(s3);
-        tryClose(s4);
-        return true;
+    /**
+    * Adds the spot prices of the rows a scrape added to the price index. On
+    * the first scrape of a trading day, the prices of days the retention job
+    * no longer keeps snapshots of are evicted first.
+    *
+    * @param scrape The quotes of the scrape
+    * @param newRows The companies the scrape added a row for
+    * @param now The time of the scrape, UTC
+    */
+    private void indexPrices(ArrayList<Quote> scrape,
+            HashMap<String, String> newRows, LocalDateTime now) {
+        String tradingDate = now.toLocalDate().toString();
+        if (!tradingDate.equals(indexedDate)) {
+            prices.evictBefore(now.toLocalDate()
+                    .minusDays(RetentionJob.RETENTION_DAYS).atStartOfDay()
+                    .toEpochSecond(ZoneOffset.UTC));
+            indexedDate = tradingDate;
+        }
+
+        long time = now.toEpochSecond(ZoneOffset.UTC);
+        for (Quote quote : scrape) {
+            if (newRows.containsKey(quote.getCode())) {
+                prices.add(quote.getCode(), time, quote.getSpotPrice());
+            }
+        }
     }
 
-    /*
-    * Deletes FTSE data from over 5 trading days ago
+    /**
+    * Checks whether a snapshot has the same prices and volume as the
+    * company's latest snapshot
     *
+    * @param latest The company's latest snapshot, or null if it has none
+    * @param price The spot price
+    * @param percChange The percentage change
+    * @param absChange The absolute change
+    * @param tradingVolume The trading volume, or null if it was not scraped
+    * @return true if nothing has changed, false otherwise
     */
-    private void deleteOldFTSEData() {
+    private static boolean isUnchanged(Quote latest, Float price,
+            Float percChange, Float absChange, Integer tradingVolume) {
+        return latest != null
+                && latest.getSpotPrice() == price
+                && latest.getPercentageChange() == percChange
+                && latest.getAbsoluteChange() == absChange
+                && latest.getTradingVolume()
+                        == (tradingVolume == null ? 0 : tradingVolume);
+    }
 
-        LocalDateTime currentTime = LocalDateTime.now();
-        String comparisonTime = getMostRecentTradingDay(currentTime);
-        Statement s1 = null;
+    /**
+    * Converts a code given by the web scraper to the code stored
+    *
+    * @param code The code as scraped
+    * @return The code in lower case, without punctuation
+    */
+    private static String toCompanyCode(String code) {
+        code = code.toLowerCase();
 
-        try {
-            s1 = conn.createStatement();
-            String query    = "DELETE FROM FTSECompanySnapshots\n"
-                            + "WHERE DATETIME(TimeOfData, '+7 days') <= '"
-                            + comparisonTime + "'";
-            s1.executeUpdate(query);
-        } catch (SQLException e) {
-            e.printStackTrace();
-            tryClose(s1);
+        // Remove punctuation if present
+        if (code.endsWith(".")) {
+            code = code.substring(0, code.length() - 1);
         }
-
-        tryClose(s1);
+        return code;
     }
 
     /**
-    * Stores the user's queries
+    * Stores the user's queries. The query is queued and written to the
+    * database by the query log writer.
     *
     * @param pr The parse result from the user's input
     * @param date The date and time the query was made
@@ -194,52 +969,14 @@ public class DatabaseCore implements IDatabaseManager {
         String intent = pr.getIntent().toString();
         String timeSpecifier = pr.getTimeSpecifier().toString();
 
-        String query    = "INSERT INTO Queries"
-                        + "(CompanyCode, Intent, TimeSpecifier) "
-                        + "VALUES('" + companyCode + "','" + intent + "','"
-                        + timeSpecifier + "')";
-        Statement s1 = null;
-        ResultSet r1 = null;
-        String table = intentToTableName(pr.getIntent());
-        if (table == null) {
+        if (!isCountedIntent(pr.getIntent()) || closed) {
             return false;
         }
-        // The count row in the tables has the same name as the table,
-        // minus the prefix "Company"
-        String rowName = table.replace("Company","");
-        trySetAutoCommit(false);
-        try {
-            s1 = conn.createStatement();
-            s1.executeUpdate(query);
-
-            // Check if a row with the relevant CompanyCode exists in the
-            // relevant count table. If not, create that row. If it does,
-            // increment the value of the relevant count row (rowName)
-            query   = "SELECT * FROM " + table + " WHERE CompanyCode = '"
-                    + companyCode + "'";
-            r1 = s1.executeQuery(query);
-            // If the row does not exist, create it.
-            if (!r1.next()) {
-                query   = "INSERT INTO " + table + " VALUES ('" + companyCode
-                        + "',1,0)";
-                s1.executeUpdate(query);
-            } else {
-                // Row does exist, so just increment the count.
-                query   = "UPDATE " + table + " SET " + rowName + " = "
-                        + rowName + " + 1 WHERE CompanyCode = '" + companyCode
-                        + "'";
-                s1.executeUpdate(query);
-            }
-            tryCommit();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            tryClose(s1, r1);
-            tryRollback();
-            trySetAutoCommit(true);
-            return false;
-        }
-        tryClose(s1, r1);
-        trySetAutoCommit(true);
+
+        // Written to the database in the background, with the time of the
+        // query in the same format as SQLite's CURRENT_TIMESTAMP
+        queryLog.addQuery(companyCode, intent, timeSpecifier,
+                LocalDateTime.now(ZoneOffset.UTC).format(TIMESTAMP_FORMAT));
         return true;
     }
 
@@ -248,275 +985,297 @@ public class DatabaseCore implements IDatabaseManager {
     * company
     *
     * @param pr The parse result of the user's input
-    * @return An array list of strings containing the FTSE data requested and
-    * other infomation about the company to be output
-    * */
+    * @return The FTSE data requested and other infomation about the company
+    * to be output, or null if there is no data for it
+    */
+    public FTSEResult getFTSE(ParseResult pr) {
+        StatementCache reader = readers.acquire();
+        try {
+            return getFTSE(reader, pr);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    /**
+    * Returns the FTSE data asked for as well as other information about the
+    * company, read on the given read-only connection
+    *
+    * @param reader The statements of the read-only connection to use
+    * @param pr The parse result of the user's input
+    * @return The FTSE data requested and other infomation about the company
+    * to be output, or null if there is no data for it
+    */
     @SuppressWarnings("fallthrough")
-    public String[] getFTSE(ParseResult pr) {
+    private FTSEResult getFTSE(StatementCache reader, ParseResult pr) {
 
         Intent intent = pr.getIntent();
-        ArrayList<String> output = new ArrayList<>();
+        FTSEResult result = null;
 
-        // Call relevant method to get a query for the intent data or a
-        // percentage change if the intent is to get trend data
+        // Get the data asked for, or the percentage change if the intent is
+        // to get trend data
         switch (intent) {
             case SPOT_PRICE:
+                // A time of day asks for the price as of that time
+                if (pr.getTimeOfDay() != null) {
+                    result = getSpotPriceAt(reader, pr);
+                    break;
+                }
                 // fall through
             case TRADING_VOLUME:
                 // fall through
             case PERCENT_CHANGE:
                 // fall through
             case ABSOLUTE_CHANGE:
-                // fall through
+
+                // Current values are answered from the latest quote board
+                Quote quote = quotes.get(pr.getOperand());
+                if (quote == null) {
+                    return null; // return null if no results
+                }
+                result = new FTSEResult(intent, quoteValue(quote, intent));
+                break;
             case OPENING_PRICE:
                 // fall through
             case CLOSING_PRICE:
 
-                // Creates the query to get the data required, executes it and
-                // adds the result to the first index of output array list
-                String FTSEQuery = convertFTSEQuery(pr);
-                Statement s1 = null;
+                // Creates the query to get the data required and executes it
                 ResultSet results = null;
-
-                if (FTSEQuery == null || FTSEQuery.isEmpty()) {
-                    return null;
-                }
-
-                // add asked for data to first index of array
                 try {
-                    s1 = conn.createStatement();
-                    results = s1.executeQuery(FTSEQuery);
+                    PreparedStatement s1 = convertFTSEQuery(reader, pr);
+                    if (s1 == null) {
+                        return null;
+                    }
+                    results = s1.executeQuery();
                     if (!results.next()) {
-                        String nullArr[] = null;
-                        return nullArr; // return null array if no results
-                    } else {
-                        switch (intent) {
-                            case TRADING_VOLUME:
-                                do {
-                                    output.add(Integer.toString(results
-                                            .getInt(1)));
-                                } while (results.next());
-                                break;
-                            case SPOT_PRICE:
-                                // fall through
-                            case ABSOLUTE_CHANGE:
-                                // fall through
-                            case OPENING_PRICE:
-                                // fall through
-                            case CLOSING_PRICE:
-                                // fall though
-                                do {
-                                    output.add(convertToGBX(((Float)results
-                                            .getFloat(1))));
-                                } while (results.next());
-                                break;
-                            case PERCENT_CHANGE:
-                                do {
-                                    output.add(roundPercentage(((Float)results
-                                            .getFloat(1))).toString());
-                                } while (results.next());
-                                break;
-                        }
+                        tryClose(results);
+                        return null; // return null if no results
                     }
+                    result = new FTSEResult(intent, results.getFloat(1));
+                    result.setDate(timeSpecifierToDate(pr.getTimeSpecifier()));
                 } catch (SQLException e) {
                     e.printStackTrace();
-                    tryClose(s1,results);
                 }
-                tryClose(s1, results);
+                tryClose(results);
                 break;
-            default:
-                break;
-        }
-
-        // add other company data to array list
-        switch (intent) {
             case TREND:
                 // fall through
             case TREND_SINCE:
-                output.addAll(getTrendData(pr));
-                break;
+                return getTrendData(reader, pr);
             case GROUP_FULL_SUMMARY:
-                output.addAll(getGroupData(pr));
-                break;
-            case OPENING_PRICE:
-                // fall through
-            case CLOSING_PRICE:
-                output.add("Date| " + timeSpecifierToDate
-                        (pr.getTimeSpecifier()));
-                // fall through
+                return getGroupData(reader, pr);
             default:
-                // add other data about company to other indexes of the array
-                output.addAll(getAllCompanyInfo(pr));
                 break;
         }
 
-        return output.toArray(new String[1]);
+        // add other data about company
+        if (result != null) {
+            addAllCompanyInfo(result, pr);
+        }
+
+        return result;
+    }
+
+    /**
+    * Returns the spot price of a company as of the time of day asked for, on
+    * the day the time specifier resolves to. The price is found in the price
+    * index, or read from the company's history if the time is before every
+    * price indexed for it.
+    *
+    * @param reader The statements of the read-only connection to use
+    * @param pr The parse result of the user's input, with a time of day
+    * @return The spot price, or null if the time has not yet come or no
+    * snapshot was stored that day by then
+    */
+    private FTSEResult getSpotPriceAt(StatementCache reader, ParseResult pr) {
+        String companyCode = pr.getOperand();
+        String date = timeSpecifierToDate(pr.getTimeSpecifier());
+        long from = toEpochSecond(date, LocalTime.MIDNIGHT);
+        long time = toEpochSecond(date, pr.getTimeOfDay());
+        if (time > Instant.now().getEpochSecond()) {
+            return null;
+        }
+
+        Float price;
+        if (prices.covers(companyCode, time)) {
+            price = prices.getPriceAt(companyCode, from, time);
+        } else {
+            // The last sample scanned is the price as of the time
+            float[] last = new float[1];
+            int samples = scan(reader, companyCode, from, time,
+                    (t, p, v) -> last[0] = p, null);
+            price = samples == 0 ? null : last[0];
+        }
+        if (price == null) {
+            return null;
+        }
+
+        FTSEResult result = new FTSEResult(Intent.SPOT_PRICE, price);
+        result.setDate(date);
+        return result;
     }
 
     /**
     * Gets data about a group of companies over the time period specified
     *
+    * @param reader The statements of the read-only connection to use
     * @param pr The parse result from the user's input
-    * @return Array list of strings containing the average percentage change
-    * for a group over time period specified, whether a group is rising or
-    * falling, the company with maximum spot price, the company with the minimum
-    * spot price, the company with the maxium percentage change, the company
-    * with the minimum percentage change
+    * @return The average percentage change for a group over time period
+    * specified, the company with maximum spot price, the company with the
+    * minimum spot price, the company with the maxium percentage change and the
+    * company with the minimum percentage change, or null if there is no data
+    * for the time period
     */
-    private ArrayList<String> getGroupData(ParseResult pr) {
+    private FTSEResult getGroupData(StatementCache reader, ParseResult pr) {
 
-        ArrayList<String> output = new ArrayList<>();
-        HashMap<String, Float> spotPriceMap = new HashMap<>();
-        HashMap<String, Float> percChangeMap = new HashMap<>();
-        ArrayList<Float> spotPrices = new ArrayList<>();
-        ArrayList<Float> percChanges = new ArrayList<>();
-        Float percChangeTotal = 0.0f;
         String groupName = pr.getOperand();
-        String[] companies = getCompaniesInGroup(groupName);
         TimeSpecifier timeSpec = pr.getTimeSpecifier();
-        Statement s1 = null;
-        ResultSet results = null;
         String date = timeSpecifierToDate(timeSpec);
-        String dateYesterday = getDateYesterday(date);
-
-        // Gets percentage change and spot price/ closing price for each company
-        // in group
-        for (int i = 0; i < companies.length; i ++) {
-            ArrayList<Float> tmp = getTrendDataOnDate(companies[i], timeSpec);
-            if (tmp == null || tmp.size() == 0){
-                return new ArrayList<String>(); // Returns an empty result
-            }
-            Float percChange = tmp.get(0);
-            percChangeTotal += percChange;
-            percChangeMap.put(companies[i], percChange);
-
-            // Gets spot price if the time specifier is today, otherwise gets
-            // closing price
-            String spotOrClosingPriceQry = spotOrClosingPriceQuery(timeSpec,
-                    companies[i], date, dateYesterday);
-            try {
-                s1 = conn.createStatement();
-                results = s1.executeQuery(spotOrClosingPriceQry);
-                while (results.next()) {
-                    spotPriceMap.put(companies[i], results.getFloat(1));
+        ResultSet results = null;
+
+        int numCompanies = 0;
+        Float percChangeTotal = 0.0f;
+        String maxSpotPriceCompany = null;
+        String minSpotPriceCompany = null;
+        String maxPercChangeCompany = null;
+        String minPercChangeCompany = null;
+        Float maxSpotPrice = 0.0f;
+        Float minSpotPrice = 0.0f;
+        Float maxPercChange = 0.0f;
+        Float minPercChange = 0.0f;
+
+        // Gets the opening price and closing price of every company in the
+        // group in one query, and finds the totals, maximums and minimums in
+        // a single pass over them
+        try {
+            PreparedStatement s1 = reader.get(
+                    "SELECT FC.CompanyCode, D.OpeningPrice, D.ClosingPrice "
+                    + "FROM FTSECompanies FC "
+                    + "INNER JOIN FTSEGroupMappings GM "
+                    + "ON (FC.CompanyCode = GM.CompanyCode) "
+                    + "LEFT JOIN FTSECompanyDailyPrices D "
+                    + "ON (D.CompanyCode = FC.CompanyCode "
+                    + "AND D.TradingDate = ?) "
+                    + "WHERE GM.GroupName = ?");
+            s1.setString(1, date);
+            s1.setString(2, groupName);
+            results = s1.executeQuery();
+
+            while (results.next()) {
+                String companyCode = results.getString(1);
+                Float startPrice = results.getFloat(2);
+                Float endPrice = results.getFloat(3);
+
+                // Gets spot price if the time specifier is today, otherwise
+                // uses the closing price
+                if (timeSpec == TimeSpecifier.TODAY) {
+                    Quote quote = quotes.get(companyCode);
+                    endPrice = quote == null ? 0.0f : quote.getSpotPrice();
+                }
+
+                // Returns an empty result if any company has no data
+                if (startPrice.equals(0.0f) || endPrice.equals(0.0f)) {
+                    tryClose(results);
+                    return null;
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
-                tryClose(s1, results);
+
+                Float percChange = ((endPrice - startPrice) / startPrice) * 100;
+                percChangeTotal += percChange;
+
+                if (numCompanies == 0 || endPrice > maxSpotPrice) {
+                    maxSpotPrice = endPrice;
+                    maxSpotPriceCompany = companyCode;
+                }
+                if (numCompanies == 0 || endPrice < minSpotPrice) {
+                    minSpotPrice = endPrice;
+                    minSpotPriceCompany = companyCode;
+                }
+                if (numCompanies == 0 || percChange > maxPercChange) {
+                    maxPercChange = percChange;
+                    maxPercChangeCompany = companyCode;
+                }
+                if (numCompanies == 0 || percChange < minPercChange) {
+                    minPercChange = percChange;
+                    minPercChangeCompany = companyCode;
+                }
+                numCompanies++;
             }
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
-        tryClose(s1, results);
+        tryClose(results);
 
-        // If no data stored for time specifier, return null array
-        if (spotPriceMap.isEmpty()) {
-            return output;
+        // If no data stored for time specifier, return null
+        if (numCompanies == 0) {
+            return null;
         }
 
-        // Calculates average percentage change for whole group and whether
-        // the overall group is rising or falling
-        Float averagePercChange = percChangeTotal / companies.length;
-        output.add(roundPercentage(averagePercChange).toString());
-        if (averagePercChange > 0) {
-            output.add("rose");
-        } else if (averagePercChange < 0) {
-            output.add("fell");
-        } else {
-            output.add("had no overall change");
-        }
-
-        Comparator<? super Map.Entry<String, Float>> valueComparator =
-                ((entry1, entry2) ->
-                entry1.getValue().compareTo(entry2.getValue()));
-
-        Map.Entry<String, Float> maxSpotPriceCompany =
-                Collections.max(spotPriceMap.entrySet(), valueComparator);
-        Map.Entry<String, Float> minSpotPriceCompany =
-                Collections.min(spotPriceMap.entrySet(), valueComparator);
-        Map.Entry<String, Float> maxPercChangeCompany =
-                Collections.max(percChangeMap.entrySet(), valueComparator);
-        Map.Entry<String, Float> minPercChangeCompany =
-                Collections.min(percChangeMap.entrySet(), valueComparator);
-
-        output.add(maxSpotPriceCompany.getKey() + "| "
-                + convertToGBX(maxSpotPriceCompany.getValue()));
-        output.add(minSpotPriceCompany.getKey() + "| "
-                + convertToGBX(minSpotPriceCompany.getValue()));
-        output.add(maxPercChangeCompany.getKey() + "| "
-                + roundPercentage(maxPercChangeCompany.getValue()).toString());
-        output.add(minPercChangeCompany.getKey() + "| "
-                + roundPercentage(minPercChangeCompany.getValue()).toString());
-
-        return output;
+        // Calculates average percentage change for whole group
+        FTSEResult result = new FTSEResult(Intent.GROUP_FULL_SUMMARY,
+                percChangeTotal / numCompanies);
+        result.setGroupExtremes(
+                new FTSEResult.CompanyValue(maxSpotPriceCompany, maxSpotPrice),
+                new FTSEResult.CompanyValue(minSpotPriceCompany, minSpotPrice),
+                new FTSEResult.CompanyValue(maxPercChangeCompany,
+                        maxPercChange),
+                new FTSEResult.CompanyValue(minPercChangeCompany,
+                        minPercChange));
+
+        return result;
     }
 
     /**
     * Gets trend data
     *
+    * @param reader The statements of the read-only connection to use
     * @param pr The parse result from the user's input
-    * @return An array list of strings containing the percentage change, whether
-    * the company has risen or fallen, the start price and the end price
+    * @return The percentage change, the start price and the end price, or
+    * null if there is no data for the time period
     */
-    private ArrayList<String> getTrendData(ParseResult pr) {
+    private FTSEResult getTrendData(StatementCache reader, ParseResult pr) {
 
         ArrayList<Float> trendData = new ArrayList<>();
-        ArrayList<String> output = new ArrayList<>();
         Intent intent = pr.getIntent();
         TimeSpecifier timeSpec = pr.getTimeSpecifier();
         String companyCode = pr.getOperand();
 
         switch (intent) {
             case TREND:
-                trendData = getTrendDataOnDate(companyCode, timeSpec);
-                if (trendData.isEmpty()) {
-                    return output;
-                }
+                trendData = getTrendDataOnDate(reader, companyCode, timeSpec);
                 break;
             case TREND_SINCE:
-                trendData = getTrendDataSinceDate(companyCode, timeSpec);
-                if (trendData.isEmpty()) {
-                    return output;
-                }
+                trendData = getTrendDataSinceDate(reader, companyCode,
+                        timeSpec);
                 break;
             default:
                 break;
         }
-
-        Float percChange = trendData.get(0);
-        Float startPrice = trendData.get(1);
-        Float endPrice = trendData.get(2);
-
-        output.add(roundPercentage(percChange).toString());
-
-        if (percChange > 0)
-            output.add("rose");
-        else if (percChange < 0) {
-            output.add("fell");
-        } else {
-            output.add("had no overall change");
+        if (trendData.isEmpty()) {
+            return null;
         }
-        output.add(convertToGBX(startPrice));
-        output.add(convertToGBX(endPrice));
 
-        return output;
+        FTSEResult result = new FTSEResult(intent, trendData.get(0));
+        result.setPrices(trendData.get(1), trendData.get(2));
+
+        return result;
     }
 
     /**
     * Returns query to get opening price on date given of company given
     *
     * @param companyCode The company's code
-    * @param date The date to get the opening price on
-    * @param dateYesterday  The date the day before the date to get the
-    *                       opening price
-    * @return query to get opening price of company on date given
+    * @param date The trading date to get the opening price on
+    * @return query to get opening price of company on date given, with its
+    * parameters bound
+    * @throws SQLException if the query could not be prepared
     */
-    private String getOpeningPriceQuery(String companyCode, String date,
-                String dateYesterday) {
-        String query    = "SELECT (SpotPrice - AbsoluteChange) "
-                        + "FROM FTSECompanySnapshots "
-                        + "WHERE CompanyCode = '" + companyCode
-                        + "' AND DATE(TimeOfData) <= '" + date
-                        + "' AND DATE(TimeOfData) > '" + dateYesterday
-                        + "' ORDER BY TimeOfData ASC LIMIT 1";
+    private PreparedStatement getOpeningPriceQuery(StatementCache reader,
+            String companyCode, String date) throws SQLException {
+        PreparedStatement query = reader.get(
+                "SELECT OpeningPrice FROM FTSECompanyDailyPrices "
+                + "WHERE CompanyCode = ? AND TradingDate = ?");
+        query.setString(1, companyCode);
+        query.setString(2, date);
         return query;
     }
 
@@ -530,40 +1289,36 @@ public class DatabaseCore implements IDatabaseManager {
     * @return An array list of floats containing the percentage change, start
     * price and end price
     */
-    private ArrayList<Float> getTrendDataOnDate(String companyCode,
-            TimeSpecifier timeSpec) {
+    private ArrayList<Float> getTrendDataOnDate(StatementCache reader,
+            String companyCode, TimeSpecifier timeSpec) {
 
-        LocalDateTime currentTime = LocalDateTime.now();
         ArrayList<Float> trendData = new ArrayList<>();
-        Statement s1 = null;
-        Statement s2 = null;
-        ResultSet startPriceRS = null;
-        ResultSet endPriceRS = null;
+        ResultSet pricesRS = null;
         Float startPrice = 0.0f;
         Float endPrice = 0.0f;
         Float percChange = 0.0f;
         String date = timeSpecifierToDate(timeSpec);
-        String dateYesterday = getDateYesterday(date);
-
-        String startTimeQuery = getOpeningPriceQuery(companyCode, date,
-                    dateYesterday);
-        String endTimeQuery = spotOrClosingPriceQuery(timeSpec, companyCode,
-                date, dateYesterday);
 
         // If able to get start and end prices, calculate the percentage
         // change between them
         try {
-            s1 = conn.createStatement();
-            s2 = conn.createStatement();
-            startPriceRS = s1.executeQuery(startTimeQuery);
-            endPriceRS = s2.executeQuery(endTimeQuery);
-
-            while (startPriceRS.next()) {
-                startPrice = startPriceRS.getFloat(1);
+            PreparedStatement pricesQuery = reader.get(
+                    "SELECT OpeningPrice, ClosingPrice "
+                    + "FROM FTSECompanyDailyPrices "
+                    + "WHERE CompanyCode = ? AND TradingDate = ?");
+            pricesQuery.setString(1, companyCode);
+            pricesQuery.setString(2, date);
+            pricesRS = pricesQuery.executeQuery();
+            while (pricesRS.next()) {
+                startPrice = pricesRS.getFloat(1);
+                endPrice = pricesRS.getFloat(2);
             }
+            tryClose(pricesRS);
 
-            while (endPriceRS.next()) {
-                endPrice = endPriceRS.getFloat(1);
+            // Use the spot price if the time specifier is today
+            if (timeSpec == TimeSpecifier.TODAY) {
+                Quote quote = quotes.get(companyCode);
+                endPrice = quote == null ? 0.0f : quote.getSpotPrice();
             }
 
             if (!startPrice.equals(0.0f) && !endPrice.equals(0.0f)) {
@@ -574,13 +1329,9 @@ public class DatabaseCore implements IDatabaseManager {
 
         } catch (SQLException e) {
             e.printStackTrace();
-            tryClose(s1, startPriceRS);
-            tryClose(s2, endPriceRS);
+            tryClose(pricesRS);
         }
 
-        tryClose(s1, startPriceRS);
-        tryClose(s2, endPriceRS);
-
         trendData.add(percChange);
         trendData.add(startPrice);
         trendData.add(endPrice);
@@ -597,38 +1348,29 @@ public class DatabaseCore implements IDatabaseManager {
     * @return An array list of floats containing the percentage change, opening
     * price and spot price
     */
-    private ArrayList<Float> getTrendDataSinceDate(String companyCode,
-            TimeSpecifier timeSpec) {
+    private ArrayList<Float> getTrendDataSinceDate(StatementCache reader,
+            String companyCode, TimeSpecifier timeSpec) {
 
         ArrayList<Float> trendData = new ArrayList<>();
         LocalDateTime currentTime = LocalDateTime.now();
-        Statement s1 = null;
-        Statement s2 = null;
-        ResultSet spotPriceRS = null;
         ResultSet openingPriceRS = null;
         Float spotPrice = 0.0f;
         Float openingPrice = 0.0f;
         Float percChange = 0.0f;
 
         String date = timeSpecifierToDate(timeSpec);
-        String dateYesterday = getDateYesterday(date);
-        String spotPriceQuery   = "SELECT SpotPrice FROM FTSECompanySnapshots "
-                                + "WHERE CompanyCode = '" + companyCode + "'";
-        String openingPriceQuery = getOpeningPriceQuery(companyCode, date,
-                dateYesterday);
+        Quote quote = quotes.get(companyCode);
+        if (quote != null) {
+            spotPrice = quote.getSpotPrice();
+        }
         try {
-            s1 = conn.createStatement();
-            s2 = conn.createStatement();
-            spotPriceRS = s1.executeQuery(spotPriceQuery);
-            openingPriceRS = s2.executeQuery(openingPriceQuery);
-
-            while (spotPriceRS.next()) {
-                spotPrice = spotPriceRS.getFloat(1);
-            }
 
+            openingPriceRS = getOpeningPriceQuery(reader, companyCode, date)
+                    .executeQuery();
             while (openingPriceRS.next()) {
                 openingPrice = openingPriceRS.getFloat(1);
             }
+            tryClose(openingPriceRS);
 
             if (!spotPrice.equals(0.0f) && !openingPrice.equals(0.0f)) {
                 percChange = ((spotPrice - openingPrice) / openingPrice) * 100;
@@ -638,13 +1380,9 @@ public class DatabaseCore implements IDatabaseManager {
             }
         } catch (SQLException e) {
             e.printStackTrace();
-            tryClose(s1, spotPriceRS);
-            tryClose(s2, openingPriceRS);
+            tryClose(openingPriceRS);
         }
 
-        tryClose(s1, spotPriceRS);
-        tryClose(s2, openingPriceRS);
-
         trendData.add(percChange);
         trendData.add(openingPrice);
         trendData.add(spotPrice);
@@ -653,94 +1391,53 @@ public class DatabaseCore implements IDatabaseManager {
     }
 
     /**
-    * Returns query to get spot price of company if the time specifer is today
-    * or the closing price if it isn't
+    * Returns query to get closing price on date given of company given
     *
-    * @param timeSpec The time specifier
     * @param companyCode The company's code
-    * @param date The time specifier converted to a date
-    * @param dateYesterday  The date the day before the date to get the
-    *                       closing price on
-    * @return query to get spot price of company if the time specifier is today,
-    * otherwise query to get closing price of company on the specified day
+    * @param date The trading date to get the closing price on
+    * @return query to get closing price of company on date given, with its
+    * parameters bound
+    * @throws SQLException if the query could not be prepared
     */
-    private String spotOrClosingPriceQuery(
-            TimeSpecifier timeSpec, String companyCode,
-            String date, String dateYesterday) {
-
-        String query = "";
-        if (timeSpec == TimeSpecifier.TODAY) {
-            query   = "SELECT SpotPrice FROM FTSECompanySnapshots "
-                    + "WHERE CompanyCode = '" + companyCode + "'";
-        } else {
-            query   = "SELECT SpotPrice FROM FTSECompanySnapshots "
-                    + "WHERE CompanyCode = '" + companyCode
-                    + "' AND DATE(TimeOfData) <= '" + date
-                    + "' AND DATE(TimeOfData) > '" + dateYesterday
-                    + "' ORDER BY TimeOfData DESC LIMIT 1";
-        }
+    private PreparedStatement getClosingPriceQuery(StatementCache reader,
+            String companyCode, String date) throws SQLException {
+        PreparedStatement query = reader.get(
+                "SELECT ClosingPrice FROM FTSECompanyDailyPrices "
+                + "WHERE CompanyCode = ? AND TradingDate = ?");
+        query.setString(1, companyCode);
+        query.setString(2, date);
         return query;
     }
 
     /**
-    * Returns an SQL query to get the FTSE data required in the parse result
+    * Returns an SQL query to get the historical FTSE data required in the
+    * parse result. Current values are held on the quote board instead.
     *
     * @param pr The parse result from the user's input
-    * @return An SQL query to get the FTSE data required
+    * @return A prepared query to get the FTSE data required, with its
+    * parameters bound, or null if the intent has no such query
+    * @throws SQLException if the query could not be prepared
     */
-    public String convertFTSEQuery(ParseResult pr) {
+    public PreparedStatement convertFTSEQuery(StatementCache reader,
+            ParseResult pr) throws SQLException {
         Intent intent = pr.getIntent();
         TimeSpecifier timeSpec = pr.getTimeSpecifier();
         String companyCode = pr.getOperand();
-        Boolean isGroup = pr.isOperandGroup();
-
-        String query = "";
-        String timeSpecifierSQL = "";
-        Boolean isFetchCurrentQuery = false;
-        String colName = "";
 
-        LocalDateTime currentTime = LocalDateTime.now();
+        PreparedStatement query = null;
         String date = timeSpecifierToDate(timeSpec);
-        String dateYesterday = getDateYesterday(date);
 
         switch (intent) {
-            case SPOT_PRICE:
-                isFetchCurrentQuery = true;
-                colName = "SpotPrice";
-                break;
-            case TRADING_VOLUME:
-                isFetchCurrentQuery = true;
-                colName = "TradingVolume";
-                break;
-            case PERCENT_CHANGE:
-                isFetchCurrentQuery = true;
-                colName = "PercentageChange";
-                break;
-            case ABSOLUTE_CHANGE:
-                isFetchCurrentQuery = true;
-                colName = "AbsoluteChange";
-                break;
             case OPENING_PRICE:
-                query = getOpeningPriceQuery(companyCode, date, dateYesterday);
+                query = getOpeningPriceQuery(reader, companyCode, date);
                 break;
             case CLOSING_PRICE:
-                query   = "SELECT SpotPrice FROM FTSECompanySnapshots "
-                        + "WHERE CompanyCode = '" + companyCode
-                        + "' AND DATE(TimeOfData) <= '" + date
-                        + "' AND DATE(TimeOfData) > '" + dateYesterday
-                        + "' ORDER BY TimeOfData DESC LIMIT 1";
+                query = getClosingPriceQuery(reader, companyCode, date);
                 break;
             default:
                 break;
         }
 
-        // get current data requested from database
-        if (isFetchCurrentQuery) {
-            query   = "SELECT " + colName + " FROM FTSECompanySnapshots "
-                    + "WHERE CompanyCode = '" + companyCode
-                    + "' ORDER BY TimeOfData DESC LIMIT 1";
-        }
-
         return query;
     }
 
@@ -750,7 +1447,7 @@ public class DatabaseCore implements IDatabaseManager {
     * @param t The time specifier
     * @return The time specifier converted to a date in the format yyyy-MM-dd
     */
-    private String timeSpecifierToDate(TimeSpecifier t) {
+    static String timeSpecifierToDate(TimeSpecifier t) {
 
         LocalDateTime date = LocalDateTime.now();
         DateTimeFormatter dateFormatter = DateTimeFormatter
@@ -797,6 +1494,19 @@ public class DatabaseCore implements IDatabaseManager {
         return formattedDate;
     }
 
+    /**
+    * Converts a time of day on a date, as told by this computer's clock, to
+    * a time since the epoch
+    *
+    * @param date The date in the format yyyy-MM-dd
+    * @param time The time of day
+    * @return The time in seconds since the epoch, UTC
+    */
+    static long toEpochSecond(String date, LocalTime time) {
+        return LocalDate.parse(date).atTime(time)
+                .atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+
     /**
     * Finds date of most recent trading day if it is a non trading day
     *
@@ -804,7 +1514,7 @@ public class DatabaseCore implements IDatabaseManager {
     * @return If it is a trading day, the current date, otherwise the date of
     * the most recent trading day
     */
-    private String getMostRecentTradingDay(LocalDateTime currentTime) {
+    static String getMostRecentTradingDay(LocalDateTime currentTime) {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
         String date;
         switch (currentTime.getDayOfWeek()) {
@@ -824,187 +1534,98 @@ public class DatabaseCore implements IDatabaseManager {
     }
 
     /**
-    * Finds date of the day previous to the date given
-    *
-    * @param d The date
-    * @return The date of the day previous to the date
-    */
-    private String getDateYesterday(String d) {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        LocalDate date = LocalDate.parse(d);
-
-        return date.minusDays(1).format(formatter);
-    }
-
-    /**
-    * Rounds percentage to 3 decimal places
-    *
-    * @param f The percentage to be rounded
-    * @return The rounded percentage
-    */
-    private Float roundPercentage(Float f) {
-        return Math.round(f * 1000.0f) / 1000.0f;
-    }
-
-    /**
-    * Converts a float into GBX currency format
-    *
-    * @param num The number to be converted
-    * @return The converted number
-    */
-    private String convertToGBX(Float num) {
-        DecimalFormat formatter = new DecimalFormat(
-                "GBX #,##0.00;GBX -#,##0.00");
-        return formatter.format(num);
-    }
-
-    /**
-    *
-    * Returns othe relevant information stored about a company except the
-    * information asked for by the user
+    * Adds the other relevant information stored about a company, except the
+    * information asked for by the user, to a result
     *
+    * @param result The result to add the information to
     * @param pr The parse result of the user's input
-    * @return An array list of strings containing the other company information
     */
-    private ArrayList<String> getAllCompanyInfo(ParseResult pr) {
+    private void addAllCompanyInfo(FTSEResult result, ParseResult pr) {
 
-        Statement s1 = null;
-        ResultSet results = null;
-        ArrayList<String> rs = new ArrayList<>();
-        String companyCode = pr.getOperand();
         Intent intent = pr.getIntent();
-        ArrayList<String> columns = new ArrayList<>();
+        ArrayList<Intent> related = new ArrayList<>();
 
-        // Get columns needed in query
+        // Get data needed
         switch(intent) {
             case SPOT_PRICE:
-                columns.add("PercentageChange");
-                columns.add("TradingVolume");
-                columns.add("AbsoluteChange");
+                related.add(Intent.PERCENT_CHANGE);
+                related.add(Intent.TRADING_VOLUME);
+                related.add(Intent.ABSOLUTE_CHANGE);
                 break;
             case TRADING_VOLUME:
-                columns.add("SpotPrice");
-                columns.add("PercentageChange");
-                columns.add("AbsoluteChange");
+                related.add(Intent.SPOT_PRICE);
+                related.add(Intent.PERCENT_CHANGE);
+                related.add(Intent.ABSOLUTE_CHANGE);
                 break;
             case PERCENT_CHANGE:
-                columns.add("SpotPrice");
-                columns.add("TradingVolume");
-                columns.add("AbsoluteChange");
+                related.add(Intent.SPOT_PRICE);
+                related.add(Intent.TRADING_VOLUME);
+                related.add(Intent.ABSOLUTE_CHANGE);
                 break;
             case ABSOLUTE_CHANGE:
-                columns.add("SpotPrice");
-                columns.add("TradingVolume");
-                columns.add("PercentageChange");
+                related.add(Intent.SPOT_PRICE);
+                related.add(Intent.TRADING_VOLUME);
+                related.add(Intent.PERCENT_CHANGE);
                 break;
             case OPENING_PRICE:
             case CLOSING_PRICE:
-                columns.add("SpotPrice");
-                columns.add("TradingVolume");
-                columns.add("PercentageChange");
-                columns.add("AbsoluteChange");
+                related.add(Intent.SPOT_PRICE);
+                related.add(Intent.TRADING_VOLUME);
+                related.add(Intent.PERCENT_CHANGE);
+                related.add(Intent.ABSOLUTE_CHANGE);
                 break;
             default:
                 break;
         }
 
-        // Create query
-        String query = "SELECT ";
-        for (int i = 0; i < columns.size(); i++) {
-            query += columns.get(i);
-            // Don't add comma after last column
-            if (i != columns.size() -1) {
-                query += ", ";
-            }
+        // Related data is read from the latest quote board
+        Quote quote = quotes.get(pr.getOperand());
+        if (quote == null) {
+            return;
         }
-        query   += " FROM FTSECompanySnapshots WHERE CompanyCode = '"
-                + companyCode
-                + "' ORDER BY TimeOfData DESC LIMIT 1";
 
-        // Execute and store query results
-        try {
-            s1 = conn.createStatement();
-            results = s1.executeQuery(query);
-            ResultSetMetaData rsmd = results.getMetaData();
-            int columnCount = rsmd.getColumnCount();
-
-            for (int i = 1; i <= columnCount; i++) {
-                String colName = rsmd.getColumnName(i);
-                switch (colName) {
-                    case "TradingVolume":
-                        rs.add("Trading volume| " + (Integer.toString(
-                                results.getInt(i))));
-                        break;
-                    case "SpotPrice":
-                        rs.add("Spot price| " + (convertToGBX((Float)results
-                                .getFloat(i))));
-                        break;
-                    case "PercentageChange":
-                        rs.add("Percentage change| " + ((Float)results
-                                .getFloat(i)).toString() + "%");
-                        break;
-                    case "AbsoluteChange":
-                        rs.add("Absolute change| " + (convertToGBX((Float)
-                                results.getFloat(i))));
-                        break;
-                    default:
-                        break;
-                }
-            }
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            tryClose(s1, results);
+        for (Intent i : related) {
+            result.addRelatedData(i, quoteValue(quote, i));
         }
-
-        return rs;
     }
 
     /**
-    * Gets the table name where the count of queries regarding an intent is
-    * stored
+    * Gets the value a current-value intent asks for from a quote
     *
-    * @param i The intent
-    * @return The name of the table
+    * @param quote The company's latest quote
+    * @param intent The intent
+    * @return The trading volume as an Integer, or the spot price, percentage
+    * change or absolute change as a Float
     */
-    private String intentToTableName(Intent i){
-        String name = null;
-        switch (i) {
-            case SPOT_PRICE:
-                name = "CompanySpotPriceCount";
-                break;
+    private Number quoteValue(Quote quote, Intent intent) {
+        switch (intent) {
             case TRADING_VOLUME:
-                name = "CompanyTradingVolumeCount";
-                break;
+                return quote.getTradingVolume();
             case PERCENT_CHANGE:
-                name = "CompanyPercentageChangeCount";
-                break;
+                return quote.getPercentageChange();
             case ABSOLUTE_CHANGE:
-                name = "CompanyAbsoluteChangeCount";
-                break;
-            case OPENING_PRICE:
-                name = "CompanyOpeningPriceCount";
-                break;
-            case CLOSING_PRICE:
-                name = "CompanyClosingPriceCount";
-                break;
-            case TREND:
-                name = "CompanyTrendCount";
-                break;
-            case TREND_SINCE:
-                name = "CompanyTrendSinceCount";
-                break;
-            case NEWS:
-                name = "CompanyNewsCount";
-                break;
-            case GROUP_FULL_SUMMARY://No table for this, return null;
-                name = null;
-                break;
+                return quote.getAbsoluteChange();
+            case SPOT_PRICE:
             default:
-            System.out.println("Could not resolve intent to column name");
-            break;
+                return quote.getSpotPrice();
+        }
+    }
+
+    /**
+    * Checks whether the number of queries with an intent is counted for each
+    * company in the CompanyIntentCounts table
+    *
+    * @param i The intent
+    * @return true if queries with the intent are counted, false otherwise
+    */
+    private boolean isCountedIntent(Intent i){
+        switch (i) {
+            case GROUP_FULL_SUMMARY://No counts for this, return false;
+            case NEWS_SEARCH:
+                return false;
+            default:
+                return true;
         }
-        return  name;
     }
 
     /**
@@ -1012,84 +1633,84 @@ public class DatabaseCore implements IDatabaseManager {
      * @return the list of all the companies
      */
     public ArrayList<Company> getAICompanies() {
+      StatementCache reader = readers.acquire();
+      try {
+        return queryLog.readCounts(() -> getAICompanies(reader));
+      } finally {
+        readers.release(reader);
+      }
+    }
+
+    /**
+     * Returns the full list of companies to pass to IntelligenceCore, read on
+     * the given read-only connection. Must be called within
+     * queryLog.readCounts, as it applies the changes not yet written.
+     * @param reader the statements of the read-only connection to use
+     * @return the list of all the companies
+     */
+    private ArrayList<Company> getAICompanies(StatementCache reader) {
 
       ArrayList<Company> companies = new ArrayList<>();
-      // Get Counts for each intent
+      // Get every count of every company in one scan, companies without any
+      // counts come back as a single row of nulls
       String query = ""
-        + "SELECT ftc.CompanyCode,coalesce(NewsCount,0),coalesce(SpotPriceCount,0),coalesce(OpeningPriceCount,0),coalesce(AbsoluteChangeCount,0),coalesce(ClosingPriceCount,0),coalesce(percentageChangeCount,0),coalesce(TrendCount,0),coalesce(TradingVolumeCount,0),coalesce(newsAdjustment,0),coalesce(SpotPriceAdjustment,0),coalesce(OpeningPriceAdjustment,0),coalesce(AbsoluteChangeAdjustment,0),coalesce(ClosingPriceAdjustment,0),coalesce(percentageChangeAdjustment,0),coalesce(TrendAdjustment,0),coalesce(TradingVolumeAdjustment,0) "
+        + "SELECT ftc.CompanyCode, cic.Intent, cic.Count, cic.Adjustment "
         + "FROM FTSECompanies ftc "
-        + "LEFT OUTER JOIN CompanyNewsCount cnc ON (cnc.CompanyCode = ftc.CompanyCode) "
-        + "LEFT OUTER JOIN CompanySpotPriceCount csc ON (csc.CompanyCode = ftc.CompanyCode) "
-        + "LEFT OUTER JOIN CompanyOpeningPriceCount coc ON (coc.CompanyCode = ftc.CompanyCode) "
-        + "LEFT OUTER JOIN CompanyAbsoluteChangeCount cac ON (cac.CompanyCode = ftc.CompanyCode) "
-        + "LEFT OUTER JOIN CompanyClosingPriceCount ccc ON (ccc.CompanyCode = ftc.CompanyCode) "
-        + "LEFT OUTER JOIN CompanyPercentageChangeCount cpc ON (cpc.CompanyCode = ftc.CompanyCode)"
-        + "LEFT OUTER JOIN CompanyTrendCount ctc ON (ctc.CompanyCode = ftc.CompanyCode)"
-        + "LEFT OUTER JOIN CompanyTradingVolumeCount ctvc ON (ctvc.CompanyCode = ftc.CompanyCode)";
-
-      Statement stmt = null;
+        + "LEFT OUTER JOIN CompanyIntentCounts cic ON (cic.CompanyCode = ftc.CompanyCode)";
+
       ResultSet rs = null;
+      // Rows of the same company are grouped, keeping the companies in the
+      // order they are scanned
+      LinkedHashMap<String, HashMap<AIIntent, Float[]>> mappings = new LinkedHashMap<>();
+      HashMap<String, Float[]> news = new HashMap<>();
+      String newsIntent = Intent.NEWS.name();
 
       try {
-        stmt = conn.createStatement();
-        rs = stmt.executeQuery(query);
+        rs = reader.get(query).executeQuery();
 
         while (rs.next()) {
-          // Create list of intents for each company
-          // ArrayList<IntentData> intents = new ArrayList<>();
-          // News counter
-          float newsCount = (float) rs.getInt("coalesce(NewsCount,0)");
-          // Intents
-          float spot = (float) rs.getInt("coalesce(SpotPriceCount,0)");
-          float opening = (float) rs.getInt("coalesce(OpeningPriceCount,0)");
-          float absoluteChange = (float) rs.getInt("coalesce(AbsoluteChangeCount,0)");
-          float closing = (float) rs.getInt("coalesce(ClosingPriceCount,0)");
-          float percentageChange = (float) rs.getInt("coalesce(percentageChangeCount,0)");
-          float trend = (float) rs.getInt("coalesce(TrendCount,0)");
-          float volume = (float) rs.getInt("coalesce(TradingVolumeCount,0)");
-
-
-          // Now the  adjustments
-          // for news
-          float newsAdj =  rs.getFloat("coalesce(newsAdjustment,0)");
-          // and for intents
-          float spotAdj =  rs.getFloat("coalesce(SpotPriceAdjustment,0)");
-          float openingAdj =  rs.getFloat("coalesce(OpeningPriceAdjustment,0)");
-          float absoluteChangeAdj =  rs.getFloat("coalesce(AbsoluteChangeAdjustment,0)");
-          float closingPriceAdj =  rs.getFloat("coalesce(ClosingPriceAdjustment,0)");
-          float percentageChangeAdj =  rs.getFloat("coalesce(percentageChangeAdjustment,0)");
-          float trendAdj =  rs.getFloat("coalesce(TrendAdjustment,0)");
-          float volumeAdj =  rs.getFloat("coalesce(TradingVolumeAdjustment,0)");
-
-          // intent priorities
-          float spotPriority = spot - spotAdj;
-          float openingPriority = opening - openingAdj;
-          float closingPriority = closing - closingPriceAdj;
-          float absoluteChangePriority = absoluteChange - absoluteChangeAdj;
-          float percentageChangePriority = percentageChange - percentageChangeAdj;
-          float trendPriority = trend - trendAdj;
-          float volumePriority = volume - volumeAdj;
-
-          // news
-          float newsPriority = newsCount - newsAdj;
-
-          HashMap<AIIntent, Float[]> mapping = new HashMap<>();
-
-          mapping.put(AIIntent.SPOT_PRICE, new Float[]{spot, spotAdj});
-          mapping.put(AIIntent.OPENING_PRICE, new Float[]{opening, openingAdj});
-          mapping.put(AIIntent.CLOSING_PRICE, new Float[]{closing, closingPriceAdj});
-          mapping.put(AIIntent.PERCENT_CHANGE, new Float[]{percentageChange,percentageChangeAdj });
-          mapping.put(AIIntent.ABSOLUTE_CHANGE, new Float[]{absoluteChange, absoluteChangeAdj});
-          mapping.put(AIIntent.TREND, new Float[]{trend, trendAdj});
-          mapping.put(AIIntent.TRADING_VOLUME, new Float[]{volume, volumeAdj});
-
-          // Calculate priority for each company
-          Float intentScale = 1.0f;
-          Float newsScale = 1.0f;
-          float priority = intentScale * (spotPriority + openingPriority + closingPriority + absoluteChangePriority + percentageChangePriority + trendPriority + volumePriority) + newsScale * (newsPriority);
-          // average of all intent's irrelevantSuggestionWeight
-
-          companies.add(new Company(rs.getString("CompanyCode"), mapping, intentScale, newsScale, newsCount, newsAdj));
+          String code = rs.getString(1);
+          HashMap<AIIntent, Float[]> mapping = mappings.get(code);
+          if (mapping == null) {
+            mapping = new HashMap<>();
+            // Intents that have never been asked for count as zero
+            for (AIIntent i : AIIntent.values()) {
+              mapping.put(i, new Float[]{0.0f, 0.0f});
+            }
+            mappings.put(code, mapping);
+            news.put(code, new Float[]{0.0f, 0.0f});
+          }
+
+          String intent = rs.getString(2);
+          if (intent == null) {
+            continue;
+          }
+          Float[] countAndAdj = new Float[]{(float) rs.getInt(3), rs.getFloat(4)};
+
+          if (intent.equals(newsIntent)) {
+            news.put(code, countAndAdj);
+            continue;
+          }
+          // Counts with no AI intent, such as TREND_SINCE, are not used
+          for (AIIntent i : AIIntent.values()) {
+            if (i.name().equals(intent)) {
+              mapping.put(i, countAndAdj);
+              break;
+            }
+          }
+        }
+
+        // Calculate priority for each company
+        Float intentScale = 1.0f;
+        Float newsScale = 1.0f;
+        for (Map.Entry<String, HashMap<AIIntent, Float[]>> e : mappings.entrySet()) {
+          String code = e.getKey();
+          // Include the queries and feedback not yet written
+          for (Map.Entry<AIIntent, Float[]> i : e.getValue().entrySet()) {
+            i.setValue(queryLog.withPending(code, i.getKey().name(), i.getValue()));
+          }
+          Float[] newsCountAndAdj = queryLog.withPending(code, newsIntent, news.get(code));
+          companies.add(new Company(code, e.getValue(), intentScale, newsScale, newsCountAndAdj[0], newsCountAndAdj[1]));
         }
 
         if(companies.size() != 0) {
@@ -1103,7 +1724,7 @@ public class DatabaseCore implements IDatabaseManager {
         e.printStackTrace();
         return null;
       } finally {
-        if (stmt != null) { tryClose(stmt); }
+        if (rs != null) { tryClose(rs); }
       }
     }
 
@@ -1112,7 +1733,22 @@ public class DatabaseCore implements IDatabaseManager {
      * @return list of groups
      */
     public ArrayList<Group> getAIGroups() {
-      ArrayList<Company> companies = this.getAICompanies();
+      StatementCache reader = readers.acquire();
+      try {
+        return queryLog.readCounts(() -> getAIGroups(reader));
+      } finally {
+        readers.release(reader);
+      }
+    }
+
+    /**
+     * Returns the full list of company groups to IntelligenceCore, read on the
+     * given read-only connection
+     * @param reader the statements of the read-only connection to use
+     * @return list of groups
+     */
+    private ArrayList<Group> getAIGroups(StatementCache reader) {
+      ArrayList<Company> companies = getAICompanies(reader);
       ArrayList<Group> result = new ArrayList<>();
       if(companies == null) return null;
 
@@ -1125,25 +1761,24 @@ public class DatabaseCore implements IDatabaseManager {
       String query1 = "SELECT  GroupName ";
       query1+= "FROM FTSEGroupMappings ";
 
-      Statement stmt = null;
       ResultSet rs = null;
       // groups map
       HashMap<String, Group> groupsMap = new HashMap<>();
 
       try {
-        stmt = conn.createStatement();
-        rs = stmt.executeQuery(query1);
+        rs = reader.get(query1).executeQuery();
         // getting all the group names
         while (rs.next()) {
           String gName = rs.getString("GroupName");
           groupsMap.put(gName, new Group(gName));
         }
+        tryClose(rs);
         // entry set iterator
         Set<Map.Entry<String,Group>> entrySet = groupsMap.entrySet();
 
         for (Map.Entry<String,Group> g: entrySet) {
             ArrayList<Company> list = new ArrayList<>();
-            String[] companylist = getCompaniesInGroup(g.getValue().getGroupCode());
+            String[] companylist = getCompaniesInGroup(reader, g.getValue().getGroupCode());
             for (int i = 0; i < companylist.length; i++) {
                 for (int j = 0; j < companies.size(); j++) {
                     Company current = companies.get(j);
@@ -1174,7 +1809,6 @@ public class DatabaseCore implements IDatabaseManager {
       } catch (SQLException ex) {
         ex.printStackTrace();
       } finally {
-        if (stmt != null) { tryClose(stmt); }
         if (rs != null) { tryClose(rs); }
       }
 
@@ -1183,43 +1817,17 @@ public class DatabaseCore implements IDatabaseManager {
 
     /**
      * Detects all the companies for which a significant percentage change has occured since the start of the trading day
+     * Checks the latest quote of each current constituent, so the cost does not grow with the history stored
      * @param  Float treshhold     threshold for the change
      * @return       list of company names that had a significant change
      */
     public ArrayList<String> detectedImportantChange(Float treshhold) {
-      String query =  "SELECT PercentageChange, CompanyCode FROM FTSECompanySnapshots ORDER BY TimeOfData DESC LIMIT 101";
-
-      ResultSet rs = null;
-      Statement stmt = null;
       ArrayList<String> result = new ArrayList<>();
 
-      HashMap<String, Float> companiesPercChangeMap = new HashMap<>();
-
-      try {
-        stmt = conn.createStatement();
-        rs = stmt.executeQuery(query);
-
-        while(rs.next()) {
-          String companyName = rs.getString("CompanyCode");
-
-          Float percChange = rs.getFloat("PercentageChange");
-
-          if(Math.abs(percChange) > Math.abs(treshhold)) {
-            companiesPercChangeMap.put(companyName, percChange);
-          }
-        }
-
-        Set<String> winningNames = companiesPercChangeMap.keySet();
-
-        for(String s: winningNames) {
-          result.add(s);
+      for (Quote quote : quotes.getConstituents()) {
+        if(Math.abs(quote.getPercentageChange()) > Math.abs(treshhold)) {
+          result.add(quote.getCode());
         }
-
-      } catch (SQLException e) {
-        e.printStackTrace();
-      } finally {
-        if (stmt != null) { tryClose(stmt); }
-        if(rs != null) {tryClose(rs); }
       }
 
       if(result.size() == 0){
@@ -1237,48 +1845,238 @@ public class DatabaseCore implements IDatabaseManager {
      * @param boolean  isNews whether the suggestion was for news
      */
     public void onSuggestionIrrelevant(Company company, AIIntent intent, boolean isNews) {
-      String table = "";
       if(intent == null && !isNews) {
         System.out.println("Intent was null, and not news");
         return;
       }
-      if(!isNews && intent != null) {
-        switch(intent) {
-          case SPOT_PRICE: table+= "CompanySpotPriceCount";
-          break;
-          case OPENING_PRICE: table+= "CompanyOpeningPriceCount";
-          break;
-          case CLOSING_PRICE: table+= "CompanySpotPriceCount";
-          break;
-          case PERCENT_CHANGE: table+= "CompanySpotPriceCount";
-          break;
-          case ABSOLUTE_CHANGE: table+= "CompanySpotPriceCount";
-          break;
-          case TREND: table+= "CompanyTrendCount";
-          break;
-          case TRADING_VOLUME: table+= "CompanyTradingVolumeCount";
-          break;
-         default: return;
-        }
-     } else {
-        // is news
-        table+= "CompanyNewsCount";
-      }
+      String intentName = isNews ? Intent.NEWS.name() : intent.name();
 
-      String column = table.replace("Company", "").replace("Count", "Adjustment");
-      // exponential decrement
-      String query = "UPDATE " + table + " SET " + column + " = "+column+" + 1 + (0.5 * " + column  + ") where CompanyCode = '"+company.getCode()+"'";
-      Statement stmt = null;
+      // Written to the database in the background
+      queryLog.addIrrelevantSuggestion(company.getCode(), intentName);
+    }
 
-      try {
-        stmt = conn.createStatement();
-        stmt.executeUpdate(query);
+    /**
+    * Returns the spot prices and trading volumes of a company over a range of
+    * time. Days past the retention window are decoded from the compressed
+    * history blocks that overlap the range, later days are read from the
+    * snapshots.
+    *
+    * @param companyCode The company's code
+    * @param from The start of the range, UTC
+    * @param to The end of the range, UTC
+    * @return The history of the company over the range
+    */
+    public PriceHistory getPriceHistory(String companyCode,
+            LocalDateTime from, LocalDateTime to) {
+        StatementCache reader = readers.acquire();
+        try {
+            return getPriceHistory(reader, companyCode, from, to);
+        } finally {
+            readers.release(reader);
+        }
+    }
 
-      } catch (SQLException e) {
-        e.printStackTrace();
-      } finally {
-        if (stmt != null) { tryClose(stmt); }
-      }
+    /**
+    * Returns the spot prices and trading volumes of a company over a range of
+    * time, read on the given read-only connection
+    *
+    * @param reader The statements of the read-only connection to use
+    * @param companyCode The company's code
+    * @param from The start of the range, UTC
+    * @param to The end of the range, UTC
+    * @return The history of the company over the range
+    */
+    private PriceHistory getPriceHistory(StatementCache reader,
+            String companyCode, LocalDateTime from, LocalDateTime to) {
+        PriceHistory history = new PriceHistory(companyCode);
+        scan(reader, companyCode, from.toEpochSecond(ZoneOffset.UTC),
+                to.toEpochSecond(ZoneOffset.UTC), history, history);
+        return history;
+    }
+
+    /**
+    * Gives the spot prices and trading volumes of a company over a range of
+    * time to a consumer, one sample at a time as they are read, so that a
+    * history of any length is read in the same memory. Days past the
+    * retention window are decoded one history block at a time, later days
+    * are read from the snapshots. A snapshot row kept over several scrapes
+    * gives a sample at the first and last of them. The consumer must not use
+    * the database.
+    *
+    * @param companyCode The company's code
+    * @param from The start of the range, in seconds since the epoch, UTC
+    * @param to The end of the range, in seconds since the epoch, UTC
+    * @param consumer Takes each sample in the range, oldest first
+    * @return The number of samples given to the consumer
+    */
+    public int scan(String companyCode, long from, long to,
+            SampleConsumer consumer) {
+        StatementCache reader = readers.acquire();
+        try {
+            return scan(reader, companyCode, from, to, consumer, null);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    /**
+    * Gives the samples of a company over a range of time to a consumer
+    *
+    * @param reader The reader to scan with
+    * @param companyCode The company's code
+    * @param from The start of the range, in seconds since the epoch, UTC
+    * @param to The end of the range, in seconds since the epoch, UTC
+    * @param consumer Takes each sample in the range, oldest first
+    * @param decoded The history to record the blocks decoded in, or null
+    * @return The number of samples given to the consumer
+    */
+    private int scan(StatementCache reader, String companyCode, long from,
+            long to, SampleConsumer consumer, PriceHistory decoded) {
+        ScanState state = new ScanState(consumer);
+        ResultSet rs = null;
+
+        try {
+            // Only the blocks overlapping the range are read and decoded
+            PreparedStatement blocks = reader.get(
+                    "SELECT Samples, Data FROM FTSECompanyHistoryBlocks "
+                    + "WHERE CompanyCode = ? AND StartTime <= ? "
+                    + "AND EndTime >= ? ORDER BY StartTime");
+            blocks.setString(1, companyCode);
+            blocks.setLong(2, to);
+            blocks.setLong(3, from);
+            blocks.setFetchSize(SCAN_FETCH_SIZE);
+            rs = blocks.executeQuery();
+            while (rs.next()) {
+                byte[] block = rs.getBytes(2);
+                int samples = rs.getInt(1);
+                // A day archived again after an interrupted purge repeats
+                // samples already given
+                HistoryBlock.decode(block, samples,
+                        Math.max(from, state.lastTime + 1), to, state);
+                if (decoded != null) {
+                    decoded.addDecodedBlock(block.length, samples);
+                }
+            }
+            tryClose(rs);
+
+            // The times are converted by SQLite, so no string is read per
+            // row. A row overlapping the range started no earlier than the
+            // day the range starts on, as no row spans two days.
+            PreparedStatement snapshots = reader.get(
+                    "SELECT CAST(strftime('%s', TimeOfData) AS INTEGER), "
+                    + "CAST(strftime('%s', ValidTo) AS INTEGER), "
+                    + "SpotPrice, TradingVolume "
+                    + "FROM FTSECompanySnapshots "
+                    + "WHERE CompanyCode = ? AND TimeOfData BETWEEN ? AND ? "
+                    + "AND ValidTo >= ? ORDER BY TimeOfData");
+            LocalDateTime fromTime = LocalDateTime.ofEpochSecond(from, 0,
+                    ZoneOffset.UTC);
+            snapshots.setString(1, companyCode);
+            snapshots.setString(2, fromTime.toLocalDate().atStartOfDay()
+                    .format(TIMESTAMP_FORMAT));
+            snapshots.setString(3, LocalDateTime.ofEpochSecond(to, 0,
+                    ZoneOffset.UTC).format(TIMESTAMP_FORMAT));
+            snapshots.setString(4, fromTime.format(TIMESTAMP_FORMAT));
+            snapshots.setFetchSize(SCAN_FETCH_SIZE);
+            rs = snapshots.executeQuery();
+            while (rs.next()) {
+                // A row is given as a sample at each end of its interval, and
+                // snapshots not yet deleted after being archived are skipped
+                long start = rs.getLong(1);
+                long end = rs.getLong(2);
+                if (start >= from) {
+                    state.accept(start, rs.getFloat(3), rs.getLong(4));
+                }
+                if (end > start && end <= to) {
+                    state.accept(end, rs.getFloat(3), rs.getLong(4));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        tryClose(rs);
+        return state.count;
+    }
+
+    /**
+    * Returns the open, high, low and close prices and volume traded of a
+    * company in each interval of a range of time. The bars of days
+    * that have ended are kept once resampled.
+    *
+    * @param companyCode The company's code
+    * @param intervalMinutes The length of each bar in minutes
+    * @param from The start of the range, UTC
+    * @param to The end of the range, UTC
+    * @return The bars overlapping the range, oldest first, or null if the
+    * interval is not between 1 and 1440 minutes
+    */
+    public PriceBars getBars(String companyCode, int intervalMinutes,
+            LocalDateTime from, LocalDateTime to) {
+        return bars.getBars(companyCode, intervalMinutes, from, to);
+    }
+
+    /**
+    * Stores the news fetched for a company, adding only the articles not
+    * already stored to the search index, and records when it was fetched
+    *
+    * @param companyCode The company's code
+    * @param articles The articles fetched
+    * @return true if the news was stored
+    */
+    public boolean storeNews(String companyCode, Article[] articles) {
+        if (closed) {
+            return false;
+        }
+        return news.storeNews(companyCode, articles) >= 0;
+    }
+
+    /**
+    * Returns the news stored for a company, if it was fetched recently enough
+    * to be given again instead of fetching it
+    *
+    * @param companyCode The company's code
+    * @param maxAge How long ago the news may have been fetched, or null for
+    * any time
+    * @return The newest articles, or null if the news was not fetched within
+    * maxAge or none is stored
+    */
+    public Article[] getNews(String companyCode, Duration maxAge) {
+        return news.getNews(companyCode, maxAge);
+    }
+
+    /**
+    * Searches every article stored for any of some keywords, best matches
+    * and most recent first
+    *
+    * @param keywords The words to search for
+    * @param companyCodes The companies whose news is searched, or null for
+    * every company
+    * @return The articles found, or null if there are no keywords
+    */
+    public Article[] searchNews(String keywords, String[] companyCodes) {
+        return news.searchNews(keywords, companyCodes);
+    }
+
+    /**
+    * Passes on the samples of a scan that are later than every sample passed
+    * on so far, and counts them
+    */
+    private static class ScanState implements SampleConsumer {
+        private SampleConsumer consumer;
+        private long lastTime = Long.MIN_VALUE;
+        private int count = 0;
+
+        private ScanState(SampleConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        public void accept(long time, float price, long volume) {
+            if (time > lastTime) {
+                consumer.accept(time, price, volume);
+                lastTime = time;
+                count++;
+            }
+        }
     }
 
     /**
@@ -1288,16 +2086,34 @@ public class DatabaseCore implements IDatabaseManager {
     * @return a list of company names that belong to the given group
     */
     public String[] getCompaniesInGroup(String groupName){
+        StatementCache reader = readers.acquire();
+        try {
+            return getCompaniesInGroup(reader, groupName);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    /**
+    * Finds all the companies in a given group, read on the given read-only
+    * connection
+    *
+    * @param reader The statements of the read-only connection to use
+    * @param groupName
+    * @return a list of company names that belong to the given group
+    */
+    private String[] getCompaniesInGroup(StatementCache reader,
+            String groupName){
         groupName.toLowerCase();
         ArrayList<String> companies = new ArrayList<>();
         ResultSet r1 = null;
-        Statement s1 = null;
         try {
             String query = "SELECT FC.CompanyCode from FTSECompanies FC ";
             query += "INNER JOIN FTSEGroupMappings ON (FC.CompanyCode = FTSEGroupMappings.CompanyCode) ";
-            query += "WHERE FTSEGroupMappings.GroupName = '"+groupName+"'";
-            s1 = conn.createStatement();
-            r1 = s1.executeQuery(query);
+            query += "WHERE FTSEGroupMappings.GroupName = ?";
+            PreparedStatement s1 = reader.get(query);
+            s1.setString(1, groupName);
+            r1 = s1.executeQuery();
             while(r1.next()){
                 companies.add(r1.getString(1));
             }
@@ -1306,7 +2122,6 @@ public class DatabaseCore implements IDatabaseManager {
             System.out.println("Couldn't resolve group name");
             return null;
         } finally {
-          if (s1 != null) { tryClose(s1); }
           if (r1 != null) { tryClose(r1); }
         }
         return companies.toArray(new String[1]);
@@ -1339,14 +2154,15 @@ public class DatabaseCore implements IDatabaseManager {
     }
 
     /**
-    * Closes a statement and result set
+    * Records how long a transaction was open, if metrics are being kept
     *
-    * @param s The statement
-    * @param rs The results set
+    * @param name The name of the transaction
+    * @param start The time it was opened, from System.nanoTime
     */
-    private void tryClose(Statement s, ResultSet rs) {
-        tryClose(s);
-        tryClose(rs);
+    private void recordTransaction(String name, long start) {
+        if (metrics != null) {
+            metrics.recordTransaction(name, System.nanoTime() - start);
+        }
     }
 
     /**
@@ -1362,6 +2178,20 @@ public class DatabaseCore implements IDatabaseManager {
         }
     }
 
+    /**
+    * Clears the batch of a statement, so that a failed batch is not sent
+    * again the next time the statement is used
+    *
+    * @param s The statement
+    */
+    private void tryClearBatch(Statement s) {
+        try {
+            s.clearBatch();
+        } catch(Exception e) {
+            // Do nothing
+        }
+    }
+
     /**
     * Rolls back the database
     */
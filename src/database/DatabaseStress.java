@@ -0,0 +1,314 @@
+package footsiebot.database;
+
+import footsiebot.nlp.TimeSpecifier;
+import footsiebot.nlp.Intent;
+import footsiebot.nlp.ParseResult;
+import footsiebot.datagathering.ScrapeResult;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calls storeScraperResults, storeQuery and getFTSE on a DatabaseCore from
+ * many threads at once, then checks that what was stored is consistent:
+ * every scrape stored has all of its snapshots and none of a refused scrape
+ * is kept, the daily prices hold the last price stored, and every query is
+ * counted exactly once. While the threads run, the prices read must never go
+ * back to an older scrape, and a group must never be read with only some of
+ * its companies.
+ */
+public class DatabaseStress {
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int QUERIERS = 2;
+    private static final int COMPANIES_PER_WRITER = 10;
+    private static final long DURATION_MS = 5000;
+    private static final Intent[] QUERIED = {Intent.SPOT_PRICE,
+            Intent.OPENING_PRICE, Intent.CLOSING_PRICE, Intent.TREND};
+
+    private DatabaseCore db;
+    private volatile boolean running;
+    private int[] lastStored;
+    private AtomicInteger scrapes;
+    private AtomicInteger reads;
+    private ConcurrentHashMap<String, AtomicInteger> queryCounts;
+    private ArrayList<String> violations;
+
+    /**
+    * Constructor for the test
+    *
+    * @param db The database core to test, on an empty database
+    */
+    public DatabaseStress(DatabaseCore db) {
+        this.db = db;
+        lastStored = new int[WRITERS];
+        scrapes = new AtomicInteger();
+        reads = new AtomicInteger();
+        queryCounts = new ConcurrentHashMap<>();
+        violations = new ArrayList<>();
+    }
+
+    /**
+    * Runs the test on a DatabaseCore on a new, empty database file, which is
+    * deleted afterwards
+    *
+    * @return A summary of the test, with every inconsistency found
+    */
+    public static String stressDatabase() {
+        File file = null;
+        DatabaseStress stress = null;
+        try {
+            file = File.createTempFile("footsie_stress", ".db");
+            String url = "jdbc:sqlite:" + file.getPath();
+            DatabaseConformance.createDatabase(url);
+            stress = new DatabaseStress(new DatabaseCore(url));
+            stress.run();
+            // Closing writes every query still queued
+            stress.db.close();
+            stress.checkStored(url);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return "Database stress test could not be run: " + e;
+        } finally {
+            if (file != null) {
+                DatabaseConformance.deleteDatabase(file);
+            }
+        }
+        return stress.toString();
+    }
+
+    /**
+    * Runs every thread for DURATION_MS
+    *
+    * @throws InterruptedException if interrupted while waiting for them
+    */
+    public void run() throws InterruptedException {
+        ArrayList<Thread> threads = new ArrayList<>();
+        running = true;
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            threads.add(new Thread(() -> write(writer), "stress-writer-" + w));
+        }
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(this::read, "stress-reader-" + r));
+        }
+        for (int q = 0; q < QUERIERS; q++) {
+            threads.add(new Thread(this::query, "stress-query-" + q));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        Thread.sleep(DURATION_MS);
+        running = false;
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    /**
+    * Stores a scrape of the writer's own companies at the start of every
+    * second, at the same time as the other writers. The companies are priced
+    * at the number of the scrape, so that later scrapes are always higher.
+    *
+    * @param writer The number of the writer
+    */
+    private void write(int writer) {
+        int scrape = 0;
+        while (running) {
+            try {
+                Thread.sleep(1000 - System.currentTimeMillis() % 1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            scrape++;
+            String[] codes = new String[COMPANIES_PER_WRITER];
+            String[] names = new String[COMPANIES_PER_WRITER];
+            String[] groups = new String[COMPANIES_PER_WRITER];
+            Float[] prices = new Float[COMPANIES_PER_WRITER];
+            Float[] changes = new Float[COMPANIES_PER_WRITER];
+            Integer[] volumes = new Integer[COMPANIES_PER_WRITER];
+            for (int i = 0; i < COMPANIES_PER_WRITER; i++) {
+                codes[i] = companyCode(writer, i);
+                names[i] = "Stress " + writer + " " + i;
+                groups[i] = "Stress" + writer;
+                prices[i] = (float) scrape;
+                changes[i] = 0.0f;
+                volumes[i] = scrape;
+            }
+            if (db.storeScraperResults(new ScrapeResult(codes, names, groups,
+                    prices, changes, changes, volumes))) {
+                lastStored[writer] = scrape;
+                scrapes.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+    * Reads prices and groups until the test ends, recording any that went
+    * back to an older scrape, and any group read with only some of its
+    * companies
+    */
+    private void read() {
+        Random random = new Random();
+        HashMap<String, Float> lastRead = new HashMap<>();
+        while (running) {
+            int writer = random.nextInt(WRITERS);
+            String code = companyCode(writer,
+                    random.nextInt(COMPANIES_PER_WRITER));
+            for (Intent intent : new Intent[]{Intent.SPOT_PRICE,
+                    Intent.CLOSING_PRICE}) {
+                FTSEResult result = db.getFTSE(new ParseResult(intent, "",
+                        code, false, TimeSpecifier.TODAY));
+                String key = intent + " " + code;
+                Float last = lastRead.get(key);
+                Float price = result == null || result.getValue() == null
+                        ? null : result.getValue().floatValue();
+                if (last != null && (price == null || price < last)) {
+                    violation(key + " read " + price + " after " + last);
+                }
+                if (price != null) {
+                    lastRead.put(key, price);
+                }
+                reads.incrementAndGet();
+            }
+
+            String[] companies = db.getCompaniesInGroup("stress" + writer);
+            int inGroup = companies == null || companies[0] == null
+                    ? 0 : companies.length;
+            if (inGroup != 0 && inGroup != COMPANIES_PER_WRITER) {
+                violation("group stress" + writer + " read with " + inGroup
+                        + " companies");
+            }
+            reads.incrementAndGet();
+        }
+    }
+
+    /**
+    * Stores queries until the test ends, counting each one stored
+    */
+    private void query() {
+        Random random = new Random();
+        while (running) {
+            String code = companyCode(random.nextInt(WRITERS),
+                    random.nextInt(COMPANIES_PER_WRITER));
+            Intent intent = QUERIED[random.nextInt(QUERIED.length)];
+            if (db.storeQuery(new ParseResult(intent, "", code, false,
+                    TimeSpecifier.TODAY), LocalDateTime.now())) {
+                queryCounts.computeIfAbsent(code + " " + intent,
+                        k -> new AtomicInteger()).incrementAndGet();
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+    * Checks what was stored once every thread has finished and the database
+    * core is closed
+    *
+    * @param url The JDBC url of the database
+    * @throws SQLException if the database could not be read
+    */
+    private void checkStored(String url) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url);
+                Statement s1 = conn.createStatement()) {
+            ResultSet rs = s1.executeQuery(
+                    "SELECT COUNT(*) FROM FTSECompanySnapshots");
+            int snapshots = rs.getInt(1);
+            if (snapshots != scrapes.get() * COMPANIES_PER_WRITER) {
+                violation(snapshots + " snapshots stored for " + scrapes
+                        + " scrapes");
+            }
+            rs.close();
+
+            // Each writer's companies share the first two characters of
+            // their codes
+            rs = s1.executeQuery("SELECT substr(CompanyCode, 1, 2), "
+                    + "TimeOfData, COUNT(*) FROM FTSECompanySnapshots "
+                    + "GROUP BY 1, 2 HAVING COUNT(*) != "
+                    + COMPANIES_PER_WRITER);
+            while (rs.next()) {
+                violation("scrape of " + rs.getString(1) + " at "
+                        + rs.getString(2) + " stored " + rs.getInt(3)
+                        + " snapshots");
+            }
+            rs.close();
+
+            rs = s1.executeQuery("SELECT CompanyCode, ClosingPrice "
+                    + "FROM FTSECompanyDailyPrices");
+            while (rs.next()) {
+                int writer = rs.getString(1).charAt(1) - '0';
+                if (rs.getFloat(2) != lastStored[writer]) {
+                    violation(rs.getString(1) + " closed at "
+                            + rs.getFloat(2) + ", last stored "
+                            + lastStored[writer]);
+                }
+            }
+            rs.close();
+
+            HashMap<String, Integer> counted = new HashMap<>();
+            rs = s1.executeQuery("SELECT CompanyCode, Intent, Count "
+                    + "FROM CompanyIntentCounts");
+            while (rs.next()) {
+                counted.put(rs.getString(1) + " " + rs.getString(2),
+                        rs.getInt(3));
+            }
+            rs.close();
+            for (Map.Entry<String, AtomicInteger> e
+                    : queryCounts.entrySet()) {
+                Integer count = counted.get(e.getKey());
+                if (count == null || count != e.getValue().get()) {
+                    violation(e.getKey() + " counted " + count + " times, "
+                            + "stored " + e.getValue() + " times");
+                }
+            }
+        }
+    }
+
+    /**
+    * Returns the code of one of a writer's companies
+    *
+    * @param writer The number of the writer
+    * @param company The number of the company
+    * @return The company's code
+    */
+    private static String companyCode(int writer, int company) {
+        return "s" + writer + "c" + company;
+    }
+
+    /**
+    * Records an inconsistency, printing the first few
+    *
+    * @param what The inconsistency
+    */
+    private synchronized void violation(String what) {
+        if (violations.size() < 10) {
+            System.out.println("INCONSISTENT " + what);
+        }
+        violations.add(what);
+    }
+
+    @Override
+    public synchronized String toString() {
+        int queries = 0;
+        for (AtomicInteger count : queryCounts.values()) {
+            queries += count.get();
+        }
+        return "Database stress: " + scrapes + " scrapes, " + queries
+                + " queries, " + reads + " reads, " + violations.size()
+                + " inconsistencies";
+    }
+}
@@ -0,0 +1,82 @@
+package footsiebot.database;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Counts the tasks run by an executor and how long they waited in its queue
+ * before starting.
+ */
+public class ExecutorStats {
+    private ThreadPoolExecutor executor;
+    private long tasks;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    /**
+    * Constructor for the stats
+    *
+    * @param executor The executor the stats are for
+    */
+    public ExecutorStats(ThreadPoolExecutor executor) {
+        this.executor = executor;
+        tasks = 0;
+        totalWaitNanos = 0;
+        maxWaitNanos = 0;
+    }
+
+    /**
+    * Records that a task has started
+    *
+    * @param waitNanos How long the task waited in the queue, in nanoseconds
+    */
+    public synchronized void record(long waitNanos) {
+        tasks++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+    }
+
+    /**
+    * Returns the number of tasks waiting in the executor's queue
+    *
+    * @return The queue depth
+    */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+    * Returns the number of tasks that have started
+    *
+    * @return The number of tasks
+    */
+    public synchronized long getTasks() {
+        return tasks;
+    }
+
+    /**
+    * Returns the average time tasks waited in the queue
+    *
+    * @return The average wait in milliseconds
+    */
+    public synchronized double getAverageWaitMillis() {
+        return tasks == 0 ? 0 : totalWaitNanos / 1000000.0 / tasks;
+    }
+
+    /**
+    * Returns the longest time a task waited in the queue
+    *
+    * @return The longest wait in milliseconds
+    */
+    public synchronized double getMaxWaitMillis() {
+        return maxWaitNanos / 1000000.0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "tasks: " + tasks + ", queued: " + getQueueDepth()
+                + ", average wait: "
+                + String.format("%.2f", getAverageWaitMillis())
+                + "ms, max wait: " + String.format("%.2f", getMaxWaitMillis())
+                + "ms";
+    }
+}
@@ -0,0 +1,156 @@
+package footsiebot.database;
+
+import footsiebot.nlp.Intent;
+import java.util.LinkedHashMap;
+
+/**
+ * The FTSE data asked for by a query, as numbers. Which fields are set depends
+ * on the intent of the query:
+ * the value is the data asked for, or the percentage change for trends and
+ * group summaries; the date is set for opening and closing prices, and spot
+ * prices as of a time of day; the start and end prices are set for trends;
+ * the highest, lowest, most rising and most falling companies are set for
+ * group summaries.
+ * Trading volumes are Integers, all other values are Floats.
+ * Formatting the data for output is left to the caller.
+ */
+public class FTSEResult {
+    private Intent intent;
+    private Number value;
+    private String date;
+    private Float startPrice;
+    private Float endPrice;
+    private CompanyValue highestPrice;
+    private CompanyValue lowestPrice;
+    private CompanyValue mostRising;
+    private CompanyValue mostFalling;
+    private LinkedHashMap<Intent, Number> relatedData;
+
+    /**
+    * A value belonging to one company of a group
+    */
+    public static class CompanyValue {
+        private String code;
+        private Float value;
+
+        public CompanyValue(String code, Float value) {
+            this.code = code;
+            this.value = value;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public Float getValue() {
+            return value;
+        }
+    }
+
+    /**
+    * Constructor for a result
+    *
+    * @param intent The intent of the query answered
+    * @param value The data asked for, or the percentage change for trends
+    *              and group summaries
+    */
+    public FTSEResult(Intent intent, Number value) {
+        this.intent = intent;
+        this.value = value;
+        relatedData = new LinkedHashMap<>();
+    }
+
+    /**
+    * Sets the trading date an opening or closing price, or a spot price as
+    * of a time of day, is from
+    *
+    * @param date The date in the format yyyy-MM-dd
+    */
+    public void setDate(String date) {
+        this.date = date;
+    }
+
+    /**
+    * Sets the prices a trend is measured between
+    *
+    * @param startPrice The opening price
+    * @param endPrice The spot price or closing price
+    */
+    public void setPrices(Float startPrice, Float endPrice) {
+        this.startPrice = startPrice;
+        this.endPrice = endPrice;
+    }
+
+    /**
+    * Sets the companies of a group with the highest and lowest prices and
+    * percentage changes
+    *
+    * @param highestPrice The company with the highest price
+    * @param lowestPrice The company with the lowest price
+    * @param mostRising The company with the greatest percentage change
+    * @param mostFalling The company with the lowest percentage change
+    */
+    public void setGroupExtremes(CompanyValue highestPrice,
+            CompanyValue lowestPrice, CompanyValue mostRising,
+            CompanyValue mostFalling) {
+        this.highestPrice = highestPrice;
+        this.lowestPrice = lowestPrice;
+        this.mostRising = mostRising;
+        this.mostFalling = mostFalling;
+    }
+
+    /**
+    * Adds other data about the company, not asked for by the query
+    *
+    * @param intent The intent that would ask for the data
+    * @param data The data
+    */
+    public void addRelatedData(Intent intent, Number data) {
+        relatedData.put(intent, data);
+    }
+
+    public Intent getIntent() {
+        return intent;
+    }
+
+    public Number getValue() {
+        return value;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public Float getStartPrice() {
+        return startPrice;
+    }
+
+    public Float getEndPrice() {
+        return endPrice;
+    }
+
+    public CompanyValue getHighestPrice() {
+        return highestPrice;
+    }
+
+    public CompanyValue getLowestPrice() {
+        return lowestPrice;
+    }
+
+    public CompanyValue getMostRising() {
+        return mostRising;
+    }
+
+    public CompanyValue getMostFalling() {
+        return mostFalling;
+    }
+
+    /**
+    * Returns the other data about the company, in the order it was added
+    *
+    * @return The related data, keyed by the intent that would ask for it
+    */
+    public LinkedHashMap<Intent, Number> getRelatedData() {
+        return relatedData;
+    }
+}
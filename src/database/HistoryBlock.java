@@ -0,0 +1,289 @@
+package footsiebot.database;
+
+import java.util.Arrays;
+
+/**
+ * Compresses a run of one company's snapshots into a block of bits, in the
+ * manner of Facebook's Gorilla. Each sample is written as its time, spot
+ * price and trading volume in turn:
+ * the time as the change in the gap since the last sample, which is zero for
+ * scrapes at a steady rate and takes a single bit;
+ * the price as the XOR of its bits with the last price, written as only the
+ * bits that differ, which takes a single bit when it has not changed;
+ * the volume as the change since the last volume, in as few bits as fit.
+ * The first sample of a block is written in full, so every block can be
+ * decoded on its own.
+ */
+public class HistoryBlock {
+
+    private HistoryBlock() {
+    }
+
+    /**
+    * Compresses samples into a block
+    *
+    * @param times The times of the samples in seconds since the epoch, oldest
+    *              first
+    * @param prices The spot prices
+    * @param volumes The trading volumes
+    * @param samples The number of samples to compress
+    * @return The block
+    */
+    public static byte[] encode(long[] times, float[] prices, long[] volumes,
+            int samples) {
+        BitWriter out = new BitWriter();
+        long lastTime = 0;
+        long lastGap = 0;
+        int lastPrice = 0;
+        int lastLeading = -1;
+        int lastTrailing = 0;
+        long lastVolume = 0;
+
+        for (int i = 0; i < samples; i++) {
+            int price = Float.floatToRawIntBits(prices[i]);
+            if (i == 0) {
+                out.write(times[i], 64);
+                out.write(price, 32);
+                out.write(volumes[i], 64);
+            } else {
+                long gap = times[i] - lastTime;
+                writeGapChange(out, gap - lastGap);
+                lastGap = gap;
+
+                int xor = price ^ lastPrice;
+                if (xor == 0) {
+                    out.write(0, 1);
+                } else {
+                    int leading = Integer.numberOfLeadingZeros(xor);
+                    int trailing = Integer.numberOfTrailingZeros(xor);
+                    if (lastLeading >= 0 && leading >= lastLeading
+                            && trailing >= lastTrailing) {
+                        // The bits that differ fit in the last window
+                        out.write(0b10, 2);
+                        out.write(xor >>> lastTrailing,
+                                32 - lastLeading - lastTrailing);
+                    } else {
+                        int length = 32 - leading - trailing;
+                        out.write(0b11, 2);
+                        out.write(leading, 5);
+                        out.write(length - 1, 5);
+                        out.write(xor >>> trailing, length);
+                        lastLeading = leading;
+                        lastTrailing = trailing;
+                    }
+                }
+
+                writeVolumeChange(out, volumes[i] - lastVolume);
+            }
+            lastTime = times[i];
+            lastPrice = price;
+            lastVolume = volumes[i];
+        }
+        return out.toByteArray();
+    }
+
+    /**
+    * Decodes the samples of a block that fall in a range of time, giving them
+    * to a consumer
+    *
+    * @param block The block
+    * @param samples The number of samples in the block
+    * @param from The earliest time to give, in seconds since the epoch
+    * @param to The latest time to give, in seconds since the epoch
+    * @param consumer Takes the samples, oldest first
+    */
+    public static void decode(byte[] block, int samples, long from, long to,
+            SampleConsumer consumer) {
+        BitReader in = new BitReader(block);
+        long time = 0;
+        long gap = 0;
+        int price = 0;
+        int lastLeading = 0;
+        int lastTrailing = 0;
+        long volume = 0;
+
+        for (int i = 0; i < samples; i++) {
+            if (i == 0) {
+                time = in.read(64);
+                price = (int) in.read(32);
+                volume = in.read(64);
+            } else {
+                gap += readGapChange(in);
+                time += gap;
+
+                if (in.read(1) == 1) {
+                    if (in.read(1) == 1) {
+                        lastLeading = (int) in.read(5);
+                        int length = (int) in.read(5) + 1;
+                        lastTrailing = 32 - lastLeading - length;
+                    }
+                    int length = 32 - lastLeading - lastTrailing;
+                    price ^= (int) in.read(length) << lastTrailing;
+                }
+
+                volume += readVolumeChange(in);
+            }
+
+            if (time > to) {
+                break;
+            }
+            if (time >= from) {
+                consumer.accept(time, Float.intBitsToFloat(price), volume);
+            }
+        }
+    }
+
+    /**
+    * Writes the change in the gap between samples, using fewer bits for the
+    * small changes of a steady scrape rate
+    *
+    * @param out The bits to write to
+    * @param change The change in seconds
+    */
+    private static void writeGapChange(BitWriter out, long change) {
+        if (change == 0) {
+            out.write(0, 1);
+        } else if (change >= -63 && change <= 64) {
+            out.write(0b10, 2);
+            out.write(change + 63, 7);
+        } else if (change >= -255 && change <= 256) {
+            out.write(0b110, 3);
+            out.write(change + 255, 9);
+        } else if (change >= -2047 && change <= 2048) {
+            out.write(0b1110, 4);
+            out.write(change + 2047, 12);
+        } else {
+            out.write(0b1111, 4);
+            out.write(change, 64);
+        }
+    }
+
+    /**
+    * Reads a change written by writeGapChange
+    *
+    * @param in The bits to read from
+    * @return The change in seconds
+    */
+    private static long readGapChange(BitReader in) {
+        if (in.read(1) == 0) {
+            return 0;
+        }
+        if (in.read(1) == 0) {
+            return in.read(7) - 63;
+        }
+        if (in.read(1) == 0) {
+            return in.read(9) - 255;
+        }
+        if (in.read(1) == 0) {
+            return in.read(12) - 2047;
+        }
+        return in.read(64);
+    }
+
+    /**
+    * Writes the change in volume in the fewest whole bytes that fit it, with
+    * its sign in the lowest bit
+    *
+    * @param out The bits to write to
+    * @param change The change in volume
+    */
+    private static void writeVolumeChange(BitWriter out, long change) {
+        long zigzag = (change << 1) ^ (change >> 63);
+        if (zigzag == 0) {
+            out.write(0, 1);
+        } else if (zigzag >>> 8 == 0) {
+            out.write(0b10, 2);
+            out.write(zigzag, 8);
+        } else if (zigzag >>> 16 == 0) {
+            out.write(0b110, 3);
+            out.write(zigzag, 16);
+        } else if (zigzag >>> 32 == 0) {
+            out.write(0b1110, 4);
+            out.write(zigzag, 32);
+        } else {
+            out.write(0b1111, 4);
+            out.write(zigzag, 64);
+        }
+    }
+
+    /**
+    * Reads a change written by writeVolumeChange
+    *
+    * @param in The bits to read from
+    * @return The change in volume
+    */
+    private static long readVolumeChange(BitReader in) {
+        long zigzag;
+        if (in.read(1) == 0) {
+            zigzag = 0;
+        } else if (in.read(1) == 0) {
+            zigzag = in.read(8);
+        } else if (in.read(1) == 0) {
+            zigzag = in.read(16);
+        } else if (in.read(1) == 0) {
+            zigzag = in.read(32);
+        } else {
+            zigzag = in.read(64);
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+    * Writes bits into a growing array of bytes, most significant bit first
+    */
+    private static class BitWriter {
+        private byte[] bytes = new byte[64];
+        private long bits = 0;
+
+        /**
+        * Writes the lowest bits of a value
+        *
+        * @param value The value
+        * @param count The number of bits to write, up to 64
+        */
+        private void write(long value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                int index = (int) (bits >>> 3);
+                if (index == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                if (((value >>> i) & 1) != 0) {
+                    bytes[index] |= 0x80 >>> (bits & 7);
+                }
+                bits++;
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (int) ((bits + 7) >>> 3));
+        }
+    }
+
+    /**
+    * Reads bits written by a BitWriter
+    */
+    private static class BitReader {
+        private byte[] bytes;
+        private long bits = 0;
+
+        private BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+        * Reads a value
+        *
+        * @param count The number of bits to read, up to 64
+        * @return The value, in the lowest bits
+        */
+        private long read(int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                int bit = (bytes[(int) (bits >>> 3)] >>> (7 - (bits & 7))) & 1;
+                value = (value << 1) | bit;
+                bits++;
+            }
+            return value;
+        }
+    }
+}
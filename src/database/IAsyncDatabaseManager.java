@@ -0,0 +1,47 @@
+package footsiebot.database;
+
+import footsiebot.nlp.ParseResult;
+import footsiebot.datagathering.ScrapeResult;
+import footsiebot.datagathering.Article;
+import footsiebot.ai.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+/**
+ * Asynchronous database inteface. Each method runs the matching
+ * IDatabaseManager method off the caller's thread and completes the returned
+ * future with its result.
+ */
+public interface IAsyncDatabaseManager {
+
+  public CompletableFuture<Boolean> storeScraperResults(ScrapeResult sr);
+
+  public CompletableFuture<Boolean> storeQuery(ParseResult pr, LocalDateTime date);
+
+  public CompletableFuture<FTSEResult> getFTSE(ParseResult pr);
+
+  public CompletableFuture<ArrayList<Company>> getAICompanies();
+
+  public CompletableFuture<ArrayList<Group>> getAIGroups();
+
+  public CompletableFuture<String[]> getCompaniesInGroup(String groupName);
+
+  public CompletableFuture<Void> onSuggestionIrrelevant(Company company, AIIntent intent, boolean isNews);
+
+  public CompletableFuture<ArrayList<String>> detectedImportantChange(Float threshold);
+
+  public CompletableFuture<PriceHistory> getPriceHistory(String companyCode, LocalDateTime from, LocalDateTime to);
+
+  public CompletableFuture<Integer> scan(String companyCode, long from, long to, SampleConsumer consumer);
+
+  public CompletableFuture<PriceBars> getBars(String companyCode, int intervalMinutes, LocalDateTime from, LocalDateTime to);
+
+  public CompletableFuture<Boolean> storeNews(String companyCode, Article[] articles);
+
+  public CompletableFuture<Article[]> getNews(String companyCode, Duration maxAge);
+
+  public CompletableFuture<Article[]> searchNews(String keywords, String[] companyCodes);
+
+  public void close();
+}
@@ -2,7 +2,9 @@ package footsiebot.database;
 
 import footsiebot.nlp.ParseResult;
 import footsiebot.datagathering.ScrapeResult;
+import footsiebot.datagathering.Article;
 import footsiebot.ai.*;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 /**
@@ -14,7 +16,7 @@ public interface IDatabaseManager {
 
   public boolean storeQuery(ParseResult pr, LocalDateTime date);
 
-  public String[] getFTSE(ParseResult pr);
+  public FTSEResult getFTSE(ParseResult pr);
 
   public ArrayList<Company> getAICompanies();
 
@@ -25,4 +27,18 @@ public interface IDatabaseManager {
   public void onSuggestionIrrelevant(Company company, AIIntent intent, boolean isNews);
 
   public ArrayList<String> detectedImportantChange(Float threshold);
+
+  public PriceHistory getPriceHistory(String companyCode, LocalDateTime from, LocalDateTime to);
+
+  public int scan(String companyCode, long from, long to, SampleConsumer consumer);
+
+  public PriceBars getBars(String companyCode, int intervalMinutes, LocalDateTime from, LocalDateTime to);
+
+  public boolean storeNews(String companyCode, Article[] articles);
+
+  public Article[] getNews(String companyCode, Duration maxAge);
+
+  public Article[] searchNews(String keywords, String[] companyCodes);
+
+  public void close();
 }
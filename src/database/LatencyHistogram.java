@@ -0,0 +1,149 @@
+package footsiebot.database;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in buckets whose width grows with the latency, in the
+ * manner of an HDR histogram. Each power of two is split into 16 equal
+ * buckets, so a latency is known to within about 6% however large it is, in
+ * a fixed 960 counters. Latencies can be recorded from any thread without
+ * locking.
+ */
+public class LatencyHistogram {
+    // Each power of two is split into 2^SUB_BITS buckets
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private AtomicLongArray counts;
+    private LongAdder count;
+    private LongAdder total;
+    private LongAccumulator max;
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        count = new LongAdder();
+        total = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+    * Records a latency
+    *
+    * @param nanos The latency in nanoseconds
+    */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+    * Returns the sum of every latency recorded
+    *
+    * @return The total in nanoseconds
+    */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+    * Returns the mean latency
+    *
+    * @return The mean in nanoseconds, or 0 if none have been recorded
+    */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+    * Returns the latency that the given percentage of latencies are at or
+    * below, to the precision of the buckets
+    *
+    * @param percentile The percentage, from 0 to 100
+    * @return The highest latency in the bucket holding the percentile, in
+    *         nanoseconds, or 0 if none have been recorded
+    */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(lowestIn(i + 1) - 1, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+    * Returns the bucket a latency is counted in
+    *
+    * @param nanos The latency, at least 0
+    * @return The index of the bucket
+    */
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int power = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (power - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (power - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+    * Returns the lowest latency counted in a bucket
+    *
+    * @param bucket The index of the bucket
+    * @return The latency in nanoseconds
+    */
+    private static long lowestIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        if (bucket >= BUCKETS) {
+            return Long.MAX_VALUE;
+        }
+        int power = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (power - SUB_BITS);
+    }
+
+    @Override
+    public String toString() {
+        return "count: " + getCount() + ", mean: " + millis((long) getMean())
+                + ", p50: " + millis(getValueAtPercentile(50))
+                + ", p90: " + millis(getValueAtPercentile(90))
+                + ", p99: " + millis(getValueAtPercentile(99))
+                + ", max: " + millis(getMax());
+    }
+
+    /**
+    * Formats a latency in milliseconds
+    *
+    * @param nanos The latency in nanoseconds
+    * @return The latency to the microsecond, with its unit
+    */
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / 1e6);
+    }
+}
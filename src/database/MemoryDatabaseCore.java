@@ -0,0 +1,1028 @@
+package footsiebot.database;
+
+import footsiebot.nlp.TimeSpecifier;
+import footsiebot.nlp.Intent;
+import footsiebot.nlp.ParseResult;
+import footsiebot.datagathering.ScrapeResult;
+import footsiebot.datagathering.Article;
+import footsiebot.ai.*;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Database manager that keeps all of its data in memory, without SQLite. Each
+ * company is given an index when it is first seen, and everything stored
+ * about it is kept in arrays at that index: its snapshots and daily prices in
+ * columns of primitives, its group as an index into the group names and its
+ * query counts and adjustments as a row of a dense matrix with one column per
+ * intent. Answers are the same as those of DatabaseCore given the same
+ * scrapes, queries and feedback. Nothing is kept when the program closes.
+ */
+public class MemoryDatabaseCore implements IDatabaseManager {
+    // The number of companies and groups space is first made for
+    private static final int INITIAL_COMPANIES = 128;
+    private static final int INTENT_COUNT = Intent.values().length;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60L;
+
+    // Scrapes take the write lock, everything else the read lock, apart from
+    // the counts and adjustments which are guarded by the lock on this object
+    private ReentrantReadWriteLock lock;
+
+    private BarResampler bars;
+
+    private HashMap<String, Integer> companyIndex;
+    private String[] codes;
+    private String[] names;
+    private boolean[] listed;
+    private int[] companyGroup;
+    private CompanySeries[] series;
+    private int[] lastScrape;
+    private int companyCount;
+    private int scrapeCount;
+
+    private HashMap<String, Integer> groupIndex;
+    private String[] groupNames;
+    private int groupCount;
+
+    private int[][] counts;
+    private double[][] adjustments;
+
+    // The news stored, by guid, and the guids and time fetched of each
+    // company's. All three are guarded by the lock on articles.
+    private LinkedHashMap<String, Article> articles;
+    private HashMap<String, LinkedHashSet<String>> companyArticles;
+    private HashMap<String, Long> newsFetched;
+
+    /**
+    * The snapshots and daily prices of one company, in the order they were
+    * stored, with one array for each column
+    */
+    private static class CompanySeries {
+        private float[] spotPrices = new float[16];
+        private float[] percentageChanges = new float[16];
+        private float[] absoluteChanges = new float[16];
+        private long[] tradingVolumes = new long[16];
+        private long[] timesOfData = new long[16];
+        private int snapshots = 0;
+
+        private long[] tradingDays = new long[4];
+        private float[] openingPrices = new float[4];
+        private float[] highPrices = new float[4];
+        private float[] lowPrices = new float[4];
+        private float[] closingPrices = new float[4];
+        private long[] dailyVolumes = new long[4];
+        private int days = 0;
+
+        /**
+        * Adds a snapshot, and updates the daily prices of its trading day. As
+        * in DatabaseCore, snapshots that change nothing during a day are kept
+        * as only the first and the last of them.
+        *
+        * @param spot The spot price
+        * @param perc The percentage change
+        * @param abs The absolute change
+        * @param volume The trading volume
+        * @param time The time of the snapshot in seconds since the epoch, UTC
+        * @param day The trading day of the snapshot as an epoch day
+        */
+        private void add(float spot, float perc, float abs, long volume,
+                long time, long day) {
+            if (snapshots >= 2
+                    && timesOfData[snapshots - 2] / SECONDS_PER_DAY == day
+                    && isSame(snapshots - 2, spot, perc, abs, volume)
+                    && isSame(snapshots - 1, spot, perc, abs, volume)) {
+                timesOfData[snapshots - 1] = time;
+            } else {
+                append(spot, perc, abs, volume, time);
+            }
+
+            // The first snapshot of the day sets the opening price, every
+            // snapshot moves the high, low and close
+            if (days == 0 || tradingDays[days - 1] != day) {
+                if (days == tradingDays.length) {
+                    int size = days * 2;
+                    tradingDays = Arrays.copyOf(tradingDays, size);
+                    openingPrices = Arrays.copyOf(openingPrices, size);
+                    highPrices = Arrays.copyOf(highPrices, size);
+                    lowPrices = Arrays.copyOf(lowPrices, size);
+                    closingPrices = Arrays.copyOf(closingPrices, size);
+                    dailyVolumes = Arrays.copyOf(dailyVolumes, size);
+                }
+                tradingDays[days] = day;
+                openingPrices[days] = spot - abs;
+                highPrices[days] = spot;
+                lowPrices[days] = spot;
+                days++;
+            }
+            int d = days - 1;
+            highPrices[d] = Math.max(highPrices[d], spot);
+            lowPrices[d] = Math.min(lowPrices[d], spot);
+            closingPrices[d] = spot;
+            dailyVolumes[d] = volume;
+        }
+
+        /**
+        * Finds the daily prices of a trading day
+        *
+        * @param day The trading day as an epoch day
+        * @return The index of the day, or -1 if nothing was stored that day
+        */
+        private int findDay(long day) {
+            int i = Arrays.binarySearch(tradingDays, 0, days, day);
+            return i < 0 ? -1 : i;
+        }
+
+        /**
+        * Adds a snapshot after every snapshot already added
+        *
+        * @param spot The spot price
+        * @param perc The percentage change
+        * @param abs The absolute change
+        * @param volume The trading volume
+        * @param time The time of the snapshot in seconds since the epoch, UTC
+        */
+        private void append(float spot, float perc, float abs, long volume,
+                long time) {
+            if (snapshots == spotPrices.length) {
+                int size = snapshots * 2;
+                spotPrices = Arrays.copyOf(spotPrices, size);
+                percentageChanges = Arrays.copyOf(percentageChanges, size);
+                absoluteChanges = Arrays.copyOf(absoluteChanges, size);
+                tradingVolumes = Arrays.copyOf(tradingVolumes, size);
+                timesOfData = Arrays.copyOf(timesOfData, size);
+            }
+            spotPrices[snapshots] = spot;
+            percentageChanges[snapshots] = perc;
+            absoluteChanges[snapshots] = abs;
+            tradingVolumes[snapshots] = volume;
+            timesOfData[snapshots] = time;
+            snapshots++;
+        }
+
+        /**
+        * Checks whether a snapshot has the given prices and volume
+        *
+        * @param i The index of the snapshot
+        * @param spot The spot price
+        * @param perc The percentage change
+        * @param abs The absolute change
+        * @param volume The trading volume
+        * @return true if they are the same, false otherwise
+        */
+        private boolean isSame(int i, float spot, float perc, float abs,
+                long volume) {
+            return spotPrices[i] == spot && percentageChanges[i] == perc
+                    && absoluteChanges[i] == abs && tradingVolumes[i] == volume;
+        }
+    }
+
+    public MemoryDatabaseCore() {
+        lock = new ReentrantReadWriteLock();
+        companyIndex = new HashMap<>();
+        codes = new String[INITIAL_COMPANIES];
+        names = new String[INITIAL_COMPANIES];
+        listed = new boolean[INITIAL_COMPANIES];
+        companyGroup = new int[INITIAL_COMPANIES];
+        series = new CompanySeries[INITIAL_COMPANIES];
+        lastScrape = new int[INITIAL_COMPANIES];
+        counts = new int[INITIAL_COMPANIES][INTENT_COUNT];
+        adjustments = new double[INITIAL_COMPANIES][INTENT_COUNT];
+        companyCount = 0;
+        scrapeCount = 0;
+
+        groupIndex = new HashMap<>();
+        groupNames = new String[INITIAL_COMPANIES];
+        groupCount = 0;
+        articles = new LinkedHashMap<>();
+        companyArticles = new HashMap<>();
+        newsFetched = new HashMap<>();
+        bars = new BarResampler(this);
+    }
+
+    /**
+    * Stores FTSE data. As in DatabaseCore, nothing in the scrape is stored if
+    * any company appears twice in it, or already has a snapshot from the same
+    * second.
+    *
+    * @param sr The scrape result given by the web scraper
+    * @return true if the FTSE data is successfully store, false otherwise
+    */
+    public boolean storeScraperResults(ScrapeResult sr) {
+        long startTime = System.nanoTime();
+        int numCompanies = sr.getSize();
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        long timeOfData = now.toEpochSecond(ZoneOffset.UTC);
+        long tradingDay = now.toLocalDate().toEpochDay();
+
+        String[] scrapeCodes = new String[numCompanies];
+        HashSet<String> seen = new HashSet<>();
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < numCompanies; i++) {
+                String code = sr.getCode(i).toLowerCase();
+
+                // Remove punctuation if present
+                if (code.endsWith(".")) {
+                    code = code.substring(0, code.length() - 1);
+                }
+                scrapeCodes[i] = code;
+
+                Integer c = companyIndex.get(code);
+                if (!seen.add(code) || (c != null && series[c].snapshots > 0
+                        && series[c].timesOfData[series[c].snapshots - 1]
+                        == timeOfData)) {
+                    System.out.println("Couldn't store scrape, " + code
+                            + " already has a snapshot at this time");
+                    return false;
+                }
+            }
+
+            scrapeCount++;
+            for (int i = 0; i < numCompanies; i++) {
+                int c = indexOf(scrapeCodes[i], true);
+                if (!listed[c]) {
+                    listed[c] = true;
+                    names[c] = sr.getName(i).toLowerCase();
+                    companyGroup[c] = groupIndexOf(
+                            sr.getGroup(i).toLowerCase());
+                }
+
+                Integer volume = sr.getVolume(i);
+                series[c].add(sr.getPrice(i), sr.getPercChange(i),
+                        sr.getAbsChange(i), volume == null ? 0 : volume,
+                        timeOfData, tradingDay);
+                lastScrape[c] = scrapeCount;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        System.out.println("Stored " + numCompanies + " snapshots in "
+                + ((System.nanoTime() - startTime) / 1000000) + "ms");
+        return true;
+    }
+
+    /**
+    * Stores the user's queries, by incrementing the count of the query's
+    * intent for the company
+    *
+    * @param pr The parse result from the user's input
+    * @param date The date and time the query was made
+    * @return true if the query was successfully stored, false otherwise
+    */
+    public boolean storeQuery(ParseResult pr, LocalDateTime date) {
+        if (pr.isOperandGroup()) {
+            return true;
+        }
+        if (pr.getIntent() == Intent.GROUP_FULL_SUMMARY
+                || pr.getIntent() == Intent.NEWS_SEARCH) {
+            return false;
+        }
+
+        lock.writeLock().lock();
+        try {
+            int c = indexOf(pr.getOperand(), true);
+            synchronized (this) {
+                counts[c][pr.getIntent().ordinal()]++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+    * Returns the FTSE data asked for as well as other information about the
+    * company
+    *
+    * @param pr The parse result of the user's input
+    * @return The FTSE data requested and other infomation about the company
+    * to be output, or null if there is no data for it
+    */
+    @SuppressWarnings("fallthrough")
+    public FTSEResult getFTSE(ParseResult pr) {
+        lock.readLock().lock();
+        try {
+            Intent intent = pr.getIntent();
+            FTSEResult result = null;
+            Integer c = companyIndex.get(pr.getOperand());
+            CompanySeries s = c == null ? null : series[c];
+
+            switch (intent) {
+                case SPOT_PRICE:
+                    if (pr.getTimeOfDay() != null) {
+                        result = getSpotPriceAt(s, pr);
+                        break;
+                    }
+                    // fall through
+                case TRADING_VOLUME:
+                    // fall through
+                case PERCENT_CHANGE:
+                    // fall through
+                case ABSOLUTE_CHANGE:
+                    if (s == null || s.snapshots == 0) {
+                        return null;
+                    }
+                    result = new FTSEResult(intent,
+                            latestValue(s, s.snapshots - 1, intent));
+                    break;
+                case OPENING_PRICE:
+                    // fall through
+                case CLOSING_PRICE:
+                    String date = DatabaseCore.timeSpecifierToDate(
+                            pr.getTimeSpecifier());
+                    int d = s == null ? -1 : s.findDay(toDay(date));
+                    if (d < 0) {
+                        return null;
+                    }
+                    result = new FTSEResult(intent, intent == Intent.OPENING_PRICE
+                            ? s.openingPrices[d] : s.closingPrices[d]);
+                    result.setDate(date);
+                    break;
+                case TREND:
+                    // fall through
+                case TREND_SINCE:
+                    return getTrendData(s, pr);
+                case GROUP_FULL_SUMMARY:
+                    return getGroupData(pr);
+                default:
+                    break;
+            }
+
+            if (result != null) {
+                addAllCompanyInfo(result, s);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+    * Gets the spot price of a company as of the time of day asked for, on the
+    * day the time specifier resolves to. Must be called holding the read
+    * lock.
+    *
+    * @param s The company's snapshots, or null if it has none
+    * @param pr The parse result from the user's input, with a time of day
+    * @return The spot price, or null if the time has not yet come or no
+    *         snapshot was stored that day by then
+    */
+    private FTSEResult getSpotPriceAt(CompanySeries s, ParseResult pr) {
+        String date = DatabaseCore.timeSpecifierToDate(pr.getTimeSpecifier());
+        long from = DatabaseCore.toEpochSecond(date, LocalTime.MIDNIGHT);
+        long time = DatabaseCore.toEpochSecond(date, pr.getTimeOfDay());
+        if (s == null || time > Instant.now().getEpochSecond()) {
+            return null;
+        }
+        int i = Arrays.binarySearch(s.timesOfData, 0, s.snapshots, time);
+        i = i < 0 ? -i - 2 : i;
+        if (i < 0 || s.timesOfData[i] < from) {
+            return null;
+        }
+        FTSEResult result = new FTSEResult(Intent.SPOT_PRICE,
+                s.spotPrices[i]);
+        result.setDate(date);
+        return result;
+    }
+
+    /**
+    * Gets the percentage change of a company over the time period specified.
+    * Must be called holding the read lock.
+    *
+    * @param s The company's snapshots, or null if it has none
+    * @param pr The parse result from the user's input
+    * @return The percentage change, the start price and the end price, or
+    * null if there is no data for the time period
+    */
+    private FTSEResult getTrendData(CompanySeries s, ParseResult pr) {
+        TimeSpecifier timeSpec = pr.getTimeSpecifier();
+        int d = s == null ? -1
+                : s.findDay(toDay(DatabaseCore.timeSpecifierToDate(timeSpec)));
+        float spotPrice = s == null || s.snapshots == 0 ? 0.0f
+                : s.spotPrices[s.snapshots - 1];
+        float startPrice = d < 0 ? 0.0f : s.openingPrices[d];
+        float endPrice;
+
+        if (pr.getIntent() == Intent.TREND_SINCE) {
+            // Since the opening price on the day, until the spot price
+            endPrice = spotPrice;
+        } else if (timeSpec == TimeSpecifier.TODAY) {
+            endPrice = spotPrice;
+        } else {
+            endPrice = d < 0 ? 0.0f : s.closingPrices[d];
+        }
+
+        if (startPrice == 0.0f || endPrice == 0.0f) {
+            if (pr.getIntent() == Intent.TREND_SINCE) {
+                System.out.println("Null start or spot price");
+            }
+            return null;
+        }
+
+        FTSEResult result = new FTSEResult(pr.getIntent(),
+                ((endPrice - startPrice) / startPrice) * 100);
+        result.setPrices(startPrice, endPrice);
+        return result;
+    }
+
+    /**
+    * Gets data about a group of companies over the time period specified.
+    * Must be called holding the read lock.
+    *
+    * @param pr The parse result from the user's input
+    * @return The average percentage change for a group over time period
+    * specified, the company with maximum spot price, the company with the
+    * minimum spot price, the company with the maxium percentage change and the
+    * company with the minimum percentage change, or null if there is no data
+    * for the time period
+    */
+    private FTSEResult getGroupData(ParseResult pr) {
+        TimeSpecifier timeSpec = pr.getTimeSpecifier();
+        long day = toDay(DatabaseCore.timeSpecifierToDate(timeSpec));
+
+        int numCompanies = 0;
+        float percChangeTotal = 0.0f;
+        int maxSpotPriceCompany = -1;
+        int minSpotPriceCompany = -1;
+        int maxPercChangeCompany = -1;
+        int minPercChangeCompany = -1;
+        float maxSpotPrice = 0.0f;
+        float minSpotPrice = 0.0f;
+        float maxPercChange = 0.0f;
+        float minPercChange = 0.0f;
+
+        for (int c : companiesInGroup(pr.getOperand())) {
+            CompanySeries s = series[c];
+            int d = s.findDay(day);
+            float startPrice = d < 0 ? 0.0f : s.openingPrices[d];
+            float endPrice = d < 0 ? 0.0f : s.closingPrices[d];
+
+            // Uses the spot price if the time specifier is today
+            if (timeSpec == TimeSpecifier.TODAY) {
+                endPrice = s.snapshots == 0 ? 0.0f
+                        : s.spotPrices[s.snapshots - 1];
+            }
+
+            // Returns an empty result if any company has no data
+            if (startPrice == 0.0f || endPrice == 0.0f) {
+                return null;
+            }
+
+            float percChange = ((endPrice - startPrice) / startPrice) * 100;
+            percChangeTotal += percChange;
+
+            if (numCompanies == 0 || endPrice > maxSpotPrice) {
+                maxSpotPrice = endPrice;
+                maxSpotPriceCompany = c;
+            }
+            if (numCompanies == 0 || endPrice < minSpotPrice) {
+                minSpotPrice = endPrice;
+                minSpotPriceCompany = c;
+            }
+            if (numCompanies == 0 || percChange > maxPercChange) {
+                maxPercChange = percChange;
+                maxPercChangeCompany = c;
+            }
+            if (numCompanies == 0 || percChange < minPercChange) {
+                minPercChange = percChange;
+                minPercChangeCompany = c;
+            }
+            numCompanies++;
+        }
+
+        if (numCompanies == 0) {
+            return null;
+        }
+
+        FTSEResult result = new FTSEResult(Intent.GROUP_FULL_SUMMARY,
+                percChangeTotal / numCompanies);
+        result.setGroupExtremes(
+                new FTSEResult.CompanyValue(codes[maxSpotPriceCompany],
+                        maxSpotPrice),
+                new FTSEResult.CompanyValue(codes[minSpotPriceCompany],
+                        minSpotPrice),
+                new FTSEResult.CompanyValue(codes[maxPercChangeCompany],
+                        maxPercChange),
+                new FTSEResult.CompanyValue(codes[minPercChangeCompany],
+                        minPercChange));
+        return result;
+    }
+
+    /**
+    * Adds the current values of a company, except the one asked for by the
+    * user, to a result. Must be called holding the read lock.
+    *
+    * @param result The result to add the information to
+    * @param s The company's snapshots
+    */
+    private void addAllCompanyInfo(FTSEResult result, CompanySeries s) {
+        Intent[] related;
+        switch (result.getIntent()) {
+            case SPOT_PRICE:
+                related = new Intent[]{Intent.PERCENT_CHANGE,
+                        Intent.TRADING_VOLUME, Intent.ABSOLUTE_CHANGE};
+                break;
+            case TRADING_VOLUME:
+                related = new Intent[]{Intent.SPOT_PRICE,
+                        Intent.PERCENT_CHANGE, Intent.ABSOLUTE_CHANGE};
+                break;
+            case PERCENT_CHANGE:
+                related = new Intent[]{Intent.SPOT_PRICE,
+                        Intent.TRADING_VOLUME, Intent.ABSOLUTE_CHANGE};
+                break;
+            case ABSOLUTE_CHANGE:
+                related = new Intent[]{Intent.SPOT_PRICE,
+                        Intent.TRADING_VOLUME, Intent.PERCENT_CHANGE};
+                break;
+            default:
+                related = new Intent[]{Intent.SPOT_PRICE,
+                        Intent.TRADING_VOLUME, Intent.PERCENT_CHANGE,
+                        Intent.ABSOLUTE_CHANGE};
+                break;
+        }
+
+        if (s.snapshots == 0) {
+            return;
+        }
+        for (Intent i : related) {
+            result.addRelatedData(i, latestValue(s, s.snapshots - 1, i));
+        }
+    }
+
+    /**
+    * Gets the value a current-value intent asks for from a snapshot
+    *
+    * @param s The company's snapshots
+    * @param i The index of the snapshot
+    * @param intent The intent
+    * @return The trading volume as an Integer, or the spot price, percentage
+    * change or absolute change as a Float
+    */
+    private Number latestValue(CompanySeries s, int i, Intent intent) {
+        switch (intent) {
+            case TRADING_VOLUME:
+                return (int) s.tradingVolumes[i];
+            case PERCENT_CHANGE:
+                return s.percentageChanges[i];
+            case ABSOLUTE_CHANGE:
+                return s.absoluteChanges[i];
+            case SPOT_PRICE:
+            default:
+                return s.spotPrices[i];
+        }
+    }
+
+    /**
+     * Returns the full list of companies to pass to IntelligenceCore
+     * @return the list of all the companies
+     */
+    public ArrayList<Company> getAICompanies() {
+      ArrayList<Company> companies = new ArrayList<>();
+      int news = Intent.NEWS.ordinal();
+
+      lock.readLock().lock();
+      try {
+        synchronized (this) {
+          for (int c = 0; c < companyCount; c++) {
+            if (!listed[c]) {
+              continue;
+            }
+            HashMap<AIIntent, Float[]> mapping = new HashMap<>();
+            for (AIIntent i : AIIntent.values()) {
+              int intent = Intent.valueOf(i.name()).ordinal();
+              mapping.put(i, new Float[]{(float) counts[c][intent], (float) adjustments[c][intent]});
+            }
+            companies.add(new Company(codes[c], mapping, 1.0f, 1.0f, (float) counts[c][news], (float) adjustments[c][news]));
+          }
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      if(companies.size() != 0) {
+        return companies;
+      } else {
+        System.out.println("No companies found, getAICompanies returning null");
+        return null;
+      }
+    }
+
+    /**
+     * Returns the full list of company groups to IntelligenceCore. As with
+     * DatabaseCore the groups are not filled in yet, so the list is empty.
+     * @return list of groups, or null if there are no companies
+     */
+    public ArrayList<Group> getAIGroups() {
+      lock.readLock().lock();
+      try {
+        // getAICompanies gives null if no company is listed
+        for (int c = 0; c < companyCount; c++) {
+          if (listed[c]) {
+            return new ArrayList<>();
+          }
+        }
+        return null;
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    /**
+     * Detects all the companies in the latest scrape with a significant percentage change
+     * @param  Float treshhold     threshold for the change
+     * @return       list of company names that had a significant change
+     */
+    public ArrayList<String> detectedImportantChange(Float treshhold) {
+      ArrayList<String> result = new ArrayList<>();
+
+      lock.readLock().lock();
+      try {
+        for (int c = 0; c < companyCount; c++) {
+          CompanySeries s = series[c];
+          if(lastScrape[c] == scrapeCount && s.snapshots > 0
+              && Math.abs(s.percentageChanges[s.snapshots - 1]) > Math.abs(treshhold)) {
+            result.add(codes[c]);
+          }
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      if(result.size() == 0){
+        System.out.println("No companies have percentage change exceeding the threshold");
+        return null;
+      }
+      return result;
+    }
+
+    /**
+     * Decrements the priority of the intent (or news) by incrementing its adjustment field
+     * as a result of the user marking a suggestion as irrelevant
+     * @param Company  company the company for which the suggestion was irrelevant
+     * @param AIIntent intent  the intent to decrement
+     * @param boolean  isNews whether the suggestion was for news
+     */
+    public void onSuggestionIrrelevant(Company company, AIIntent intent, boolean isNews) {
+      if(intent == null && !isNews) {
+        System.out.println("Intent was null, and not news");
+        return;
+      }
+      int i = isNews ? Intent.NEWS.ordinal() : Intent.valueOf(intent.name()).ordinal();
+
+      lock.readLock().lock();
+      try {
+        Integer c = companyIndex.get(company.getCode());
+        if (c == null) {
+          return;
+        }
+        synchronized (this) {
+          // exponential decrement
+          adjustments[c][i] = adjustments[c][i] * 1.5 + 1;
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    /**
+    * Finds all the companies in a given group
+    *
+    * @param groupName
+    * @return a list of company names that belong to the given group
+    */
+    public String[] getCompaniesInGroup(String groupName){
+        ArrayList<String> companies = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int c : companiesInGroup(groupName)) {
+                companies.add(codes[c]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return companies.toArray(new String[1]);
+    }
+
+    /**
+    * Returns the spot prices and trading volumes of a company over a range of
+    * time, all of which is kept in memory
+    *
+    * @param companyCode The company's code
+    * @param from The start of the range, UTC
+    * @param to The end of the range, UTC
+    * @return The history of the company over the range
+    */
+    public PriceHistory getPriceHistory(String companyCode,
+            LocalDateTime from, LocalDateTime to) {
+        PriceHistory history = new PriceHistory(companyCode);
+        scan(companyCode, from.toEpochSecond(ZoneOffset.UTC),
+                to.toEpochSecond(ZoneOffset.UTC), history);
+        return history;
+    }
+
+    /**
+    * Gives the spot prices and trading volumes of a company over a range of
+    * time to a consumer, straight from the columns kept. The read lock is
+    * held throughout, so the consumer must not use the database.
+    *
+    * @param companyCode The company's code
+    * @param from The start of the range, in seconds since the epoch, UTC
+    * @param to The end of the range, in seconds since the epoch, UTC
+    * @param consumer Takes each sample in the range, oldest first
+    * @return The number of samples given to the consumer
+    */
+    public int scan(String companyCode, long from, long to,
+            SampleConsumer consumer) {
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            Integer c = companyIndex.get(companyCode);
+            if (c == null) {
+                return 0;
+            }
+            CompanySeries s = series[c];
+            int i = Arrays.binarySearch(s.timesOfData, 0, s.snapshots, from);
+            for (i = i < 0 ? -i - 1 : i; i < s.snapshots
+                    && s.timesOfData[i] <= to; i++) {
+                consumer.accept(s.timesOfData[i], s.spotPrices[i],
+                        s.tradingVolumes[i]);
+                count++;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return count;
+    }
+
+    /**
+    * Returns the open, high, low and close prices and volume traded of a
+    * company in each interval of a range of time
+    *
+    * @param companyCode The company's code
+    * @param intervalMinutes The length of each bar in minutes
+    * @param from The start of the range, UTC
+    * @param to The end of the range, UTC
+    * @return The bars overlapping the range, oldest first, or null if the
+    * interval is not between 1 and 1440 minutes
+    */
+    public PriceBars getBars(String companyCode, int intervalMinutes,
+            LocalDateTime from, LocalDateTime to) {
+        return bars.getBars(companyCode, intervalMinutes, from, to);
+    }
+
+    /**
+    * Stores the news fetched for a company and records when it was fetched
+    *
+    * @param companyCode The company's code
+    * @param fetched The articles fetched
+    * @return true
+    */
+    public boolean storeNews(String companyCode, Article[] fetched) {
+        synchronized (articles) {
+            LinkedHashSet<String> guids = companyArticles.computeIfAbsent(
+                    companyCode, c -> new LinkedHashSet<>());
+            for (Article a : fetched) {
+                articles.putIfAbsent(a.getGuid(), a);
+                guids.add(a.getGuid());
+            }
+            newsFetched.put(companyCode,
+                    Instant.now().getEpochSecond());
+        }
+        return true;
+    }
+
+    /**
+    * Returns the news stored for a company, if it was fetched recently enough
+    *
+    * @param companyCode The company's code
+    * @param maxAge How long ago the news may have been fetched, or null for
+    * any time
+    * @return The newest articles, or null if the news was not fetched within
+    * maxAge or none is stored
+    */
+    public Article[] getNews(String companyCode, Duration maxAge) {
+        ArrayList<Article> found = new ArrayList<>();
+        synchronized (articles) {
+            Long fetchedAt = newsFetched.get(companyCode);
+            if (fetchedAt == null || (maxAge != null && fetchedAt
+                    < Instant.now().minus(maxAge).getEpochSecond())) {
+                return null;
+            }
+            for (String guid : companyArticles.get(companyCode)) {
+                found.add(articles.get(guid));
+            }
+        }
+        if (found.isEmpty()) {
+            return null;
+        }
+        found.sort(MemoryDatabaseCore::compareNewestFirst);
+        return found.subList(0, Math.min(found.size(),
+                NewsStore.MAX_ARTICLES)).toArray(new Article[0]);
+    }
+
+    /**
+    * Searches the headlines and digests of every article stored for any of
+    * the keywords. Ranked more simply than DatabaseCore: each keyword found
+    * in the headline scores 2 and in the digest 1, a keyword less any plural
+    * s matches any word it is contained in, and the score halves after a
+    * week as there.
+    *
+    * @param keywords The words to search for
+    * @param companyCodes The companies whose news is searched, or null for
+    * every company
+    * @return The articles found, best first, or null if there are no
+    * keywords
+    */
+    public Article[] searchNews(String keywords, String[] companyCodes) {
+        String match = NewsStore.toMatchQuery(keywords);
+        if (match == null) {
+            return null;
+        }
+        String[] words = match.replace("\"", "").split(" OR ");
+        for (int i = 0; i < words.length; i++) {
+            if (words[i].length() > 3 && words[i].endsWith("s")) {
+                words[i] = words[i].substring(0, words[i].length() - 1);
+            }
+        }
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        HashMap<Article, Double> ranks = new HashMap<>();
+
+        synchronized (articles) {
+            Iterable<String> guids = articles.keySet();
+            if (companyCodes != null) {
+                LinkedHashSet<String> ofCompanies = new LinkedHashSet<>();
+                for (String code : companyCodes) {
+                    if (companyArticles.containsKey(code)) {
+                        ofCompanies.addAll(companyArticles.get(code));
+                    }
+                }
+                guids = ofCompanies;
+            }
+            for (String guid : guids) {
+                Article a = articles.get(guid);
+                String headline = a.getHeadline() == null ? ""
+                        : a.getHeadline().toLowerCase();
+                String digest = a.getDigest() == null ? ""
+                        : a.getDigest().toLowerCase();
+                int score = 0;
+                for (String word : words) {
+                    score += (headline.contains(word) ? 2 : 0)
+                            + (digest.contains(word) ? 1 : 0);
+                }
+                if (score > 0) {
+                    double days = a.getPubDate() == null ? 0 : Math.max(0,
+                            Duration.between(a.getPubDate(), now).getSeconds()
+                            / (double) SECONDS_PER_DAY);
+                    ranks.put(a, score / (1 + days / 7.0));
+                }
+            }
+        }
+
+        ArrayList<Article> found = new ArrayList<>(ranks.keySet());
+        found.sort((a, b) -> Double.compare(ranks.get(b), ranks.get(a)));
+        return found.subList(0, Math.min(found.size(),
+                NewsStore.MAX_ARTICLES)).toArray(new Article[0]);
+    }
+
+    /**
+    * Orders articles newest first, as DatabaseCore does, with those with no
+    * date last
+    *
+    * @param a The first article
+    * @param b The second article
+    * @return The order of a to b
+    */
+    private static int compareNewestFirst(Article a, Article b) {
+        if (a.getPubDate() == null || b.getPubDate() == null) {
+            return a.getPubDate() == b.getPubDate() ? 0
+                    : (a.getPubDate() == null ? 1 : -1);
+        }
+        return b.getPubDate().compareTo(a.getPubDate());
+    }
+
+    /**
+    * Nothing is kept when the program closes
+    */
+    public void close() {
+        lock.readLock().lock();
+        try {
+            long snapshots = 0;
+            for (int c = 0; c < companyCount; c++) {
+                snapshots += series[c].snapshots;
+            }
+            System.out.println("Closing in-memory database. Companies: "
+                    + companyCount + ", snapshots: " + snapshots);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+    * Finds the companies in a group, in order of their codes as DatabaseCore
+    * gives them. Must be called holding the read lock.
+    *
+    * @param groupName The name of the group
+    * @return The indexes of the companies
+    */
+    private int[] companiesInGroup(String groupName) {
+        Integer g = groupIndex.get(groupName);
+        if (g == null) {
+            return new int[0];
+        }
+        ArrayList<Integer> members = new ArrayList<>();
+        for (int c = 0; c < companyCount; c++) {
+            if (listed[c] && companyGroup[c] == g) {
+                members.add(c);
+            }
+        }
+        members.sort((a, b) -> codes[a].compareTo(codes[b]));
+        int[] result = new int[members.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = members.get(i);
+        }
+        return result;
+    }
+
+    /**
+    * Finds the index of a company, giving it one if it has none. Must be
+    * called holding the write lock to create an index.
+    *
+    * @param code The company's code
+    * @param create Whether to give the company an index if it has none
+    * @return The company's index, or -1 if it has none and create is false
+    */
+    private int indexOf(String code, boolean create) {
+        Integer c = companyIndex.get(code);
+        if (c != null) {
+            return c;
+        }
+        if (!create) {
+            return -1;
+        }
+
+        if (companyCount == codes.length) {
+            int size = companyCount * 2;
+            codes = Arrays.copyOf(codes, size);
+            names = Arrays.copyOf(names, size);
+            listed = Arrays.copyOf(listed, size);
+            companyGroup = Arrays.copyOf(companyGroup, size);
+            series = Arrays.copyOf(series, size);
+            lastScrape = Arrays.copyOf(lastScrape, size);
+            synchronized (this) {
+                counts = Arrays.copyOf(counts, size);
+                adjustments = Arrays.copyOf(adjustments, size);
+                for (int i = companyCount; i < size; i++) {
+                    counts[i] = new int[INTENT_COUNT];
+                    adjustments[i] = new double[INTENT_COUNT];
+                }
+            }
+        }
+        codes[companyCount] = code;
+        series[companyCount] = new CompanySeries();
+        companyIndex.put(code, companyCount);
+        return companyCount++;
+    }
+
+    /**
+    * Finds the index of a group, giving it one if it has none. Must be called
+    * holding the write lock.
+    *
+    * @param groupName The name of the group
+    * @return The group's index
+    */
+    private int groupIndexOf(String groupName) {
+        Integer g = groupIndex.get(groupName);
+        if (g != null) {
+            return g;
+        }
+        if (groupCount == groupNames.length) {
+            groupNames = Arrays.copyOf(groupNames, groupCount * 2);
+        }
+        groupNames[groupCount] = groupName;
+        groupIndex.put(groupName, groupCount);
+        return groupCount++;
+    }
+
+    /**
+    * Converts a date to an epoch day
+    *
+    * @param date The date in the format yyyy-MM-dd
+    * @return The number of days since the epoch
+    */
+    private static long toDay(String date) {
+        return LocalDate.parse(date).toEpochDay();
+    }
+}
@@ -0,0 +1,307 @@
+package footsiebot.database;
+
+import footsiebot.datagathering.Article;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+
+/**
+ * Keeps every news article fetched, so that news asked for again soon is
+ * given from the database instead of being fetched again, and so that
+ * everything ever fetched can be searched by keyword. Each article is stored
+ * once, by its guid, under every company it was fetched for. Headlines and
+ * digests are indexed by the NewsSearch FTS5 table, which reads them from
+ * NewsArticles and is written here as each new article is stored. Uses its
+ * own connection, one call at a time.
+ */
+public class NewsStore {
+    // The most articles given for a company or a search
+    public static final int MAX_ARTICLES = 20;
+    // A match this many days old ranks half as high as one published now
+    private static final double RECENCY_DAYS = 7.0;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private Connection conn;
+    private StatementCache statements;
+    private QueryMetrics metrics;
+
+    /**
+    * Constructor for the news store. Opens its own connection to the
+    * database.
+    *
+    * @param url The JDBC url of the database
+    * @param metrics The metrics the statements are measured by, or null for
+    *                none
+    */
+    public NewsStore(String url, QueryMetrics metrics) {
+        try {
+            conn = DriverManager.getConnection(url);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        this.metrics = metrics;
+        statements = new StatementCache(conn, metrics);
+    }
+
+    /**
+    * Stores the news fetched for a company, in a single transaction. Articles
+    * already stored are only added to the company, so only unseen articles
+    * are indexed.
+    *
+    * @param companyCode The company's code
+    * @param articles The articles fetched
+    * @return The number of articles not stored before, or -1 if the news
+    *         could not be stored
+    */
+    public synchronized int storeNews(String companyCode, Article[] articles) {
+        int added = 0;
+        long start = System.nanoTime();
+
+        try {
+            conn.setAutoCommit(false);
+            PreparedStatement addArticle = statements.get("INSERT OR IGNORE "
+                    + "INTO NewsArticles VALUES(?,?,?,?,?)");
+            // The index reads the article's text from NewsArticles by rowid
+            PreparedStatement index = statements.get("INSERT INTO "
+                    + "NewsSearch(rowid, Headline, Digest) "
+                    + "SELECT rowid, Headline, Digest FROM NewsArticles "
+                    + "WHERE Guid = ?");
+            PreparedStatement addCompany = statements.get("INSERT OR IGNORE "
+                    + "INTO NewsArticleCompanies VALUES(?,?)");
+
+            for (Article a : articles) {
+                addArticle.setString(1, a.getGuid());
+                addArticle.setString(2, a.getHeadline());
+                addArticle.setString(3, a.getUrl());
+                addArticle.setString(4, a.getDigest());
+                addArticle.setString(5, a.getPubDate() == null ? null
+                        : a.getPubDate().format(TIMESTAMP_FORMAT));
+                if (addArticle.executeUpdate() == 1) {
+                    index.setString(1, a.getGuid());
+                    index.executeUpdate();
+                    added++;
+                }
+                addCompany.setString(1, companyCode);
+                addCompany.setString(2, a.getGuid());
+                addCompany.executeUpdate();
+            }
+
+            PreparedStatement fetched = statements.get("INSERT OR REPLACE "
+                    + "INTO NewsFetches VALUES(?,?)");
+            fetched.setString(1, companyCode);
+            fetched.setString(2, LocalDateTime.now(ZoneOffset.UTC)
+                    .format(TIMESTAMP_FORMAT));
+            fetched.executeUpdate();
+            conn.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            added = -1;
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                // Do nothing
+            }
+        }
+        if (metrics != null) {
+            metrics.recordTransaction("storeNews", System.nanoTime() - start);
+        }
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return added;
+    }
+
+    /**
+    * Returns the news stored for a company, if it was fetched recently enough
+    *
+    * @param companyCode The company's code
+    * @param maxAge How long ago the news may have been fetched, or null for
+    *               any time
+    * @return Up to MAX_ARTICLES articles, newest first, or null if the news
+    *         was not fetched within maxAge or none is stored
+    */
+    public synchronized Article[] getNews(String companyCode,
+            Duration maxAge) {
+        ResultSet rs = null;
+        try {
+            if (maxAge != null) {
+                PreparedStatement s1 = statements.get("SELECT FetchedAt "
+                        + "FROM NewsFetches WHERE CompanyCode = ?");
+                s1.setString(1, companyCode);
+                rs = s1.executeQuery();
+                String oldest = LocalDateTime.now(ZoneOffset.UTC).minus(maxAge)
+                        .format(TIMESTAMP_FORMAT);
+                boolean recent = rs.next() && rs.getString(1).compareTo(oldest)
+                        >= 0;
+                rs.close();
+                if (!recent) {
+                    return null;
+                }
+            }
+
+            PreparedStatement s2 = statements.get("SELECT a.Guid, "
+                    + "a.Headline, a.Url, a.Digest, a.PubDate "
+                    + "FROM NewsArticleCompanies c JOIN NewsArticles a "
+                    + "ON a.Guid = c.Guid WHERE c.CompanyCode = ? "
+                    + "ORDER BY a.PubDate DESC LIMIT ?");
+            s2.setString(1, companyCode);
+            s2.setInt(2, MAX_ARTICLES);
+            rs = s2.executeQuery();
+            Article[] articles = readArticles(rs);
+            return articles.length == 0 ? null : articles;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            tryClose(rs);
+        }
+    }
+
+    /**
+    * Searches the headlines and digests of every article stored for any of
+    * the keywords. Matches are ranked by bm25, with headlines counting twice
+    * as much as digests, scaled down the older the article is.
+    *
+    * @param keywords The words to search for, separated by anything but
+    *                 letters and digits
+    * @param companyCodes The companies whose news is searched, or null for
+    *                     every company
+    * @return Up to MAX_ARTICLES articles, best match first, or null if there
+    *         are no keywords or the search failed
+    */
+    public synchronized Article[] searchNews(String keywords,
+            String[] companyCodes) {
+        String match = toMatchQuery(keywords);
+        if (match == null) {
+            return null;
+        }
+        if (companyCodes != null && companyCodes.length == 0) {
+            return new Article[0];
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT a.Guid, a.Headline, "
+                + "a.Url, a.Digest, a.PubDate FROM NewsSearch "
+                + "JOIN NewsArticles a ON a.rowid = NewsSearch.rowid "
+                + "WHERE NewsSearch MATCH ?");
+        if (companyCodes != null) {
+            sql.append(" AND a.Guid IN (SELECT Guid FROM NewsArticleCompanies"
+                    + " WHERE CompanyCode IN (?");
+            for (int i = 1; i < companyCodes.length; i++) {
+                sql.append(",?");
+            }
+            sql.append("))");
+        }
+        // bm25 is negative, better matches lower. Articles with no date are
+        // ranked as if published now.
+        sql.append(" ORDER BY bm25(NewsSearch, 2.0, 1.0) / (1 + MAX(0, "
+                + "julianday('now') - julianday(COALESCE(a.PubDate, 'now')))"
+                + " / " + RECENCY_DAYS + ") LIMIT ?");
+
+        ResultSet rs = null;
+        try {
+            PreparedStatement s1 = statements.get(sql.toString());
+            int p = 1;
+            s1.setString(p++, match);
+            if (companyCodes != null) {
+                for (String code : companyCodes) {
+                    s1.setString(p++, code);
+                }
+            }
+            s1.setInt(p, MAX_ARTICLES);
+            rs = s1.executeQuery();
+            return readArticles(rs);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            tryClose(rs);
+        }
+    }
+
+    /**
+    * Turns keywords into an FTS5 query matching any of them. Each is quoted,
+    * so that words FTS5 would read as operators are searched for too.
+    *
+    * @param keywords The words to search for
+    * @return The query, or null if there are no words
+    */
+    static String toMatchQuery(String keywords) {
+        if (keywords == null) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder();
+        for (String word : keywords.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(" OR ");
+            }
+            query.append('"').append(word).append('"');
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+
+    /**
+    * Reads the articles of a result set of Guid, Headline, Url, Digest and
+    * PubDate
+    *
+    * @param rs The result set
+    * @return The articles, in the order read
+    * @throws SQLException if the result set could not be read
+    */
+    private static Article[] readArticles(ResultSet rs) throws SQLException {
+        ArrayList<Article> articles = new ArrayList<>();
+        while (rs.next()) {
+            String pubDate = rs.getString(5);
+            articles.add(new Article(rs.getString(1), rs.getString(2),
+                    rs.getString(3), rs.getString(4), pubDate == null ? null
+                    : LocalDateTime.parse(pubDate, TIMESTAMP_FORMAT)));
+        }
+        return articles.toArray(new Article[articles.size()]);
+    }
+
+    /**
+    * Closes the store's statements and connection
+    */
+    public synchronized void close() {
+        statements.close();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "News store. " + statements;
+    }
+
+    /**
+    * Closes a result set
+    *
+    * @param rs The result set
+    */
+    private void tryClose(ResultSet rs) {
+        if (rs == null) {
+            return;
+        }
+        try {
+            rs.close();
+        } catch (SQLException e) {
+            // Do nothing
+        }
+    }
+}
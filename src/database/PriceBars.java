@@ -0,0 +1,134 @@
+package footsiebot.database;
+
+import java.util.Arrays;
+
+/**
+ * The open, high, low and close prices and the volume traded of one company
+ * in each interval of a range of time, oldest first, with one array for each
+ * column. Bars are aligned to the start of the interval since midnight UTC,
+ * and no bar spans two days. Intervals with no snapshots have no bar.
+ */
+public class PriceBars {
+    private String companyCode;
+    private int intervalMinutes;
+    private long[] starts;
+    private float[] opens;
+    private float[] highs;
+    private float[] lows;
+    private float[] closes;
+    private long[] volumes;
+    private int size;
+
+    /**
+    * Constructor for an empty set of bars
+    *
+    * @param companyCode The company's code
+    * @param intervalMinutes The length of each bar in minutes
+    */
+    public PriceBars(String companyCode, int intervalMinutes) {
+        this.companyCode = companyCode;
+        this.intervalMinutes = intervalMinutes;
+        starts = new long[16];
+        opens = new float[16];
+        highs = new float[16];
+        lows = new float[16];
+        closes = new float[16];
+        volumes = new long[16];
+        size = 0;
+    }
+
+    /**
+    * Adds a bar after every bar already added
+    *
+    * @param start The start of the bar in seconds since the epoch, UTC
+    * @param open The first spot price in the bar
+    * @param high The highest spot price
+    * @param low The lowest spot price
+    * @param close The last spot price
+    * @param volume The volume traded during the bar
+    */
+    public void add(long start, float open, float high, float low,
+            float close, long volume) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            opens = Arrays.copyOf(opens, size * 2);
+            highs = Arrays.copyOf(highs, size * 2);
+            lows = Arrays.copyOf(lows, size * 2);
+            closes = Arrays.copyOf(closes, size * 2);
+            volumes = Arrays.copyOf(volumes, size * 2);
+        }
+        starts[size] = start;
+        opens[size] = open;
+        highs[size] = high;
+        lows[size] = low;
+        closes[size] = close;
+        volumes[size] = volume;
+        size++;
+    }
+
+    /**
+    * Adds the bars of another set that overlap a range of time
+    *
+    * @param bars The bars, with the same interval, all after those already
+    *             added
+    * @param from The start of the range, in seconds since the epoch, UTC
+    * @param to The end of the range, in seconds since the epoch, UTC
+    */
+    void addOverlapping(PriceBars bars, long from, long to) {
+        long length = intervalMinutes * 60L;
+        for (int i = 0; i < bars.size; i++) {
+            if (bars.starts[i] <= to && bars.starts[i] + length > from) {
+                add(bars.starts[i], bars.opens[i], bars.highs[i],
+                        bars.lows[i], bars.closes[i], bars.volumes[i]);
+            }
+        }
+    }
+
+    public String getCompanyCode() {
+        return companyCode;
+    }
+
+    public int getIntervalMinutes() {
+        return intervalMinutes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+    * Returns the start of a bar
+    *
+    * @param i The index of the bar
+    * @return The time in seconds since the epoch, UTC
+    */
+    public long getStart(int i) {
+        return starts[i];
+    }
+
+    public float getOpen(int i) {
+        return opens[i];
+    }
+
+    public float getHigh(int i) {
+        return highs[i];
+    }
+
+    public float getLow(int i) {
+        return lows[i];
+    }
+
+    public float getClose(int i) {
+        return closes[i];
+    }
+
+    public long getVolume(int i) {
+        return volumes[i];
+    }
+
+    @Override
+    public String toString() {
+        return companyCode + ": " + size + " bars of " + intervalMinutes
+                + " minutes";
+    }
+}
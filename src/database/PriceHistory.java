@@ -0,0 +1,136 @@
+package footsiebot.database;
+
+import java.util.Arrays;
+
+/**
+ * The spot prices and trading volumes of one company over a range of time,
+ * oldest first, with one array for each column. Also records how much of the
+ * compressed history had to be decoded to find them.
+ */
+public class PriceHistory implements SampleConsumer {
+    private String companyCode;
+    private long[] times;
+    private float[] prices;
+    private long[] volumes;
+    private int size;
+    private int blocksDecoded;
+    private long bytesDecoded;
+    private int samplesDecoded;
+
+    /**
+    * Constructor for an empty history
+    *
+    * @param companyCode The company's code
+    */
+    public PriceHistory(String companyCode) {
+        this.companyCode = companyCode;
+        times = new long[64];
+        prices = new float[64];
+        volumes = new long[64];
+        size = 0;
+    }
+
+    /**
+    * Adds a sample after every sample already added
+    *
+    * @param time The time of the sample in seconds since the epoch, UTC
+    * @param price The spot price
+    * @param volume The trading volume
+    */
+    public void add(long time, float price, long volume) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            prices = Arrays.copyOf(prices, size * 2);
+            volumes = Arrays.copyOf(volumes, size * 2);
+        }
+        times[size] = time;
+        prices[size] = price;
+        volumes[size] = volume;
+        size++;
+    }
+
+    /**
+    * Adds a sample given by a scan of the database
+    *
+    * @param time The time of the sample in seconds since the epoch, UTC
+    * @param price The spot price
+    * @param volume The trading volume
+    */
+    public void accept(long time, float price, long volume) {
+        add(time, price, volume);
+    }
+
+    /**
+    * Records that a compressed block was decoded to find the samples
+    *
+    * @param bytes The size of the block
+    * @param samples The number of samples in the block
+    */
+    void addDecodedBlock(int bytes, int samples) {
+        blocksDecoded++;
+        bytesDecoded += bytes;
+        samplesDecoded += samples;
+    }
+
+    public String getCompanyCode() {
+        return companyCode;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+    * Returns the time of a sample
+    *
+    * @param i The index of the sample
+    * @return The time in seconds since the epoch, UTC
+    */
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    public float getPrice(int i) {
+        return prices[i];
+    }
+
+    public long getVolume(int i) {
+        return volumes[i];
+    }
+
+    /**
+    * Returns the time of the last sample
+    *
+    * @return The time in seconds since the epoch, UTC, or Long.MIN_VALUE if
+    *         there are no samples
+    */
+    public long getLastTime() {
+        return size == 0 ? Long.MIN_VALUE : times[size - 1];
+    }
+
+    /**
+    * Returns the number of compressed blocks decoded to find the samples
+    *
+    * @return The number of blocks
+    */
+    public int getBlocksDecoded() {
+        return blocksDecoded;
+    }
+
+    /**
+    * Returns the average size of a sample in the blocks decoded
+    *
+    * @return The number of bytes per sample, or 0 if no blocks were decoded
+    */
+    public double getBytesPerSample() {
+        return samplesDecoded == 0 ? 0 : (double) bytesDecoded / samplesDecoded;
+    }
+
+    @Override
+    public String toString() {
+        return companyCode + ": " + size + " samples, " + blocksDecoded
+                + " blocks decoded, "
+                + String.format("%.2f", getBytesPerSample())
+                + " bytes per sample";
+    }
+}
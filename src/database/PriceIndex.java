@@ -0,0 +1,191 @@
+package footsiebot.database;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The spot prices of every company kept in memory, as a column of times,
+ * oldest first, and a column of prices for each company, so that the price of
+ * a company as of any time is found by a binary search without reading the
+ * database. Each price holds from its time until the company's next one. Only
+ * the days whose snapshots the database still keeps are indexed, prices
+ * older than the first one indexed for a company must be read from its
+ * history instead.
+ */
+public class PriceIndex {
+    // Lookups take the read lock, adding and evicting prices the write lock
+    private ReentrantReadWriteLock lock;
+    private HashMap<String, Series> series;
+    private int size;
+
+    /**
+    * The prices of one company, oldest first
+    */
+    private static class Series {
+        private long[] times = new long[16];
+        private float[] prices = new float[16];
+        private int size = 0;
+
+        /**
+        * Finds the latest price at or before a time
+        *
+        * @param time The time in seconds since the epoch, UTC
+        * @return The index of the price, or -1 if every price is later
+        */
+        private int find(long time) {
+            int i = Arrays.binarySearch(times, 0, size, time);
+            return i < 0 ? -i - 2 : i;
+        }
+
+        /**
+        * Adds a price, replacing any price at the same time
+        *
+        * @param time The time in seconds since the epoch, UTC
+        * @param price The spot price
+        * @return true if a price was added, false if one was replaced
+        */
+        private boolean add(long time, float price) {
+            int i = find(time);
+            if (i >= 0 && times[i] == time) {
+                prices[i] = price;
+                return false;
+            }
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                prices = Arrays.copyOf(prices, size * 2);
+            }
+            // Prices are almost always added after every other
+            i++;
+            System.arraycopy(times, i, times, i + 1, size - i);
+            System.arraycopy(prices, i, prices, i + 1, size - i);
+            times[i] = time;
+            prices[i] = price;
+            size++;
+            return true;
+        }
+
+        /**
+        * Removes every price before a time
+        *
+        * @param time The time in seconds since the epoch, UTC
+        * @return The number of prices removed
+        */
+        private int evictBefore(long time) {
+            int kept = find(time - 1) + 1;
+            System.arraycopy(times, kept, times, 0, size - kept);
+            System.arraycopy(prices, kept, prices, 0, size - kept);
+            size -= kept;
+            return kept;
+        }
+    }
+
+    public PriceIndex() {
+        lock = new ReentrantReadWriteLock();
+        series = new HashMap<>();
+        size = 0;
+    }
+
+    /**
+    * Adds the price of a company from a time until its next price
+    *
+    * @param companyCode The company's code
+    * @param time The time in seconds since the epoch, UTC
+    * @param price The spot price
+    */
+    public void add(String companyCode, long time, float price) {
+        lock.writeLock().lock();
+        try {
+            if (series.computeIfAbsent(companyCode, c -> new Series())
+                    .add(time, price)) {
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+    * Checks whether the price of a company as of a time is indexed, which it
+    * is from the company's first price indexed onwards
+    *
+    * @param companyCode The company's code
+    * @param time The time in seconds since the epoch, UTC
+    * @return true if the index can give the price, false if it must be read
+    *         from the company's history
+    */
+    public boolean covers(String companyCode, long time) {
+        lock.readLock().lock();
+        try {
+            Series s = series.get(companyCode);
+            return s != null && s.size > 0 && s.times[0] <= time;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+    * Returns the price of a company as of a time, if it was set no earlier
+    * than a given time
+    *
+    * @param companyCode The company's code
+    * @param from The earliest time the price may have been set, in seconds
+    *             since the epoch, UTC
+    * @param time The time in seconds since the epoch, UTC
+    * @return The spot price, or null if none is indexed between the times
+    */
+    public Float getPriceAt(String companyCode, long from, long time) {
+        lock.readLock().lock();
+        try {
+            Series s = series.get(companyCode);
+            int i = s == null ? -1 : s.find(time);
+            if (i < 0 || s.times[i] < from) {
+                return null;
+            }
+            return s.prices[i];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+    * Removes every price before a time, for every company
+    *
+    * @param time The time in seconds since the epoch, UTC
+    */
+    public void evictBefore(long time) {
+        lock.writeLock().lock();
+        try {
+            for (Series s : series.values()) {
+                size -= s.evictBefore(time);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+    * Returns the number of prices indexed, for all companies
+    *
+    * @return The number of prices
+    */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            return "Price index: " + series.size() + " companies, " + size
+                    + " prices";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package footsiebot.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Write-behind queue for the user's queries and feedback on suggestions.
+ * Queries to log and changes to the intent counts are held in memory and
+ * written by a background thread, each flush being a single transaction on
+ * the writer's own connection. Repeated changes to the same company and
+ * intent are merged into one update before they are written.
+ */
+public class QueryLogWriter {
+    // How long changes are held before being written
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private Connection conn;
+    private StatementCache statements;
+    private QueryMetrics metrics;
+    private Thread writerThread;
+    private volatile boolean closing = false;
+
+    // Changes waiting to be written, and changes being written by a flush
+    // that has not committed yet. Both are guarded by this object's lock.
+    private ArrayList<String[]> pendingQueries;
+    private HashMap<String, PendingCount> pendingCounts;
+    private HashMap<String, PendingCount> flushingCounts;
+    // Held by a flush for as long as it has the connection's transaction
+    private final Object flushLock = new Object();
+    // Written by a flush while it commits and retires the changes it wrote,
+    // read for as long as counts are read and the changes applied to them,
+    // so that no change is counted both in the database and in memory
+    private final ReentrantReadWriteLock commitLock =
+            new ReentrantReadWriteLock();
+
+    /**
+    * A change to one company's count and adjustment for one intent. The count
+    * is increased by count, and the adjustment becomes
+    * adjustment * scale + offset, so that any number of increments and
+    * adjustments can be merged into one.
+    */
+    private static class PendingCount {
+        private String companyCode;
+        private String intent;
+        private int count = 0;
+        private double scale = 1.0;
+        private double offset = 0.0;
+
+        private PendingCount(String companyCode, String intent) {
+            this.companyCode = companyCode;
+            this.intent = intent;
+        }
+
+        /**
+        * Applies another change after this one
+        *
+        * @param next The change to apply after this one
+        */
+        private void then(PendingCount next) {
+            count += next.count;
+            scale = next.scale * scale;
+            offset = next.scale * offset + next.offset;
+        }
+    }
+
+    /**
+    * Constructor for the writer. Opens its own connection to the database and
+    * starts the background thread.
+    *
+    * @param url The JDBC url of the database
+    * @param metrics The metrics the writes are measured by, or null for none
+    */
+    public QueryLogWriter(String url, QueryMetrics metrics) {
+        try {
+            conn = DriverManager.getConnection(url);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        this.metrics = metrics;
+        statements = new StatementCache(conn, metrics);
+        pendingQueries = new ArrayList<>();
+        pendingCounts = new HashMap<>();
+        flushingCounts = new HashMap<>();
+
+        writerThread = new Thread(() -> {
+            while (!closing) {
+                synchronized (this) {
+                    try {
+                        wait(FLUSH_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                flush();
+            }
+        }, "querylog");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+    * Queues a query to be logged and the count of its intent to be
+    * incremented for the company
+    *
+    * @param companyCode The company's code
+    * @param intent The name of the intent of the query
+    * @param timeSpecifier The name of the time specifier of the query
+    * @param timeOfQuery The time the query was made, as stored in the
+    *                    database
+    */
+    public synchronized void addQuery(String companyCode, String intent,
+            String timeSpecifier, String timeOfQuery) {
+        pendingQueries.add(new String[]{companyCode, intent, timeSpecifier,
+                timeOfQuery});
+        getPendingCount(companyCode, intent).count++;
+    }
+
+    /**
+    * Queues the adjustment of a company's intent to be increased, as a result
+    * of a suggestion for it being marked irrelevant
+    *
+    * @param companyCode The company's code
+    * @param intent The name of the intent
+    */
+    public synchronized void addIrrelevantSuggestion(String companyCode,
+            String intent) {
+        PendingCount adjustment = new PendingCount(companyCode, intent);
+        // exponential decrement
+        adjustment.scale = 1.5;
+        adjustment.offset = 1.0;
+        getPendingCount(companyCode, intent).then(adjustment);
+    }
+
+    /**
+    * Applies the changes not yet written for a company's intent to the count
+    * and adjustment read from the database
+    *
+    * @param companyCode The company's code
+    * @param intent The name of the intent
+    * @param countAndAdj The count and adjustment read from the database
+    * @return The count and adjustment including the changes not yet written
+    */
+    public synchronized Float[] withPending(String companyCode, String intent,
+            Float[] countAndAdj) {
+        String key = companyCode + "|" + intent;
+        float count = countAndAdj[0];
+        double adj = countAndAdj[1];
+        for (PendingCount p : new PendingCount[]{flushingCounts.get(key),
+                pendingCounts.get(key)}) {
+            if (p != null) {
+                count += p.count;
+                adj = adj * p.scale + p.offset;
+            }
+        }
+        return new Float[]{count, (float) adj};
+    }
+
+    /**
+    * Runs a read of the counts and adjustments that applies the changes not
+    * yet written with withPending. No flush commits while it runs, so the
+    * read sees each change either in the database or in memory, never both.
+    *
+    * @param read The read
+    * @return What the read returns
+    */
+    public <T> T readCounts(Supplier<T> read) {
+        commitLock.readLock().lock();
+        try {
+            return read.get();
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+
+    /**
+    * Writes every queued change to the database in a single transaction. If
+    * the transaction fails the changes are queued again. A flush called
+    * while another is writing waits for it to finish.
+    */
+    public void flush() {
+        synchronized (flushLock) {
+            writeQueued();
+        }
+    }
+
+    /**
+    * Writes every queued change to the database. Must be called holding the
+    * flush lock.
+    */
+    private void writeQueued() {
+        ArrayList<String[]> queries;
+        synchronized (this) {
+            if (pendingQueries.isEmpty() && pendingCounts.isEmpty()) {
+                return;
+            }
+            queries = pendingQueries;
+            flushingCounts = pendingCounts;
+            pendingQueries = new ArrayList<>();
+            pendingCounts = new HashMap<>();
+        }
+
+        PreparedStatement addQuery = null;
+        PreparedStatement addCount = null;
+        PreparedStatement updateCount = null;
+        boolean committed = false;
+        long start = System.nanoTime();
+
+        try {
+            conn.setAutoCommit(false);
+
+            addQuery = statements.get("INSERT INTO Queries "
+                    + "(CompanyCode, Intent, TimeSpecifier, TimeOfQuery) "
+                    + "VALUES(?,?,?,?)");
+            for (String[] q : queries) {
+                for (int i = 0; i < q.length; i++) {
+                    addQuery.setString(i + 1, q[i]);
+                }
+                addQuery.addBatch();
+            }
+
+            addCount = statements.get("INSERT OR IGNORE INTO "
+                    + "CompanyIntentCounts VALUES (?,?,0,0)");
+            updateCount = statements.get("UPDATE CompanyIntentCounts "
+                    + "SET Count = Count + ?, "
+                    + "Adjustment = Adjustment * ? + ? "
+                    + "WHERE CompanyCode = ? AND Intent = ?");
+            for (PendingCount p : flushingCounts.values()) {
+                // An adjustment to an intent that has never been queried
+                // creates its row too, as withPending already includes it
+                addCount.setString(1, p.companyCode);
+                addCount.setString(2, p.intent);
+                addCount.addBatch();
+                updateCount.setInt(1, p.count);
+                updateCount.setDouble(2, p.scale);
+                updateCount.setDouble(3, p.offset);
+                updateCount.setString(4, p.companyCode);
+                updateCount.setString(5, p.intent);
+                updateCount.addBatch();
+            }
+
+            addQuery.executeBatch();
+            addCount.executeBatch();
+            updateCount.executeBatch();
+            commitLock.writeLock().lock();
+            try {
+                conn.commit();
+                committed = true;
+                // The changes are in the database from here on
+                synchronized (this) {
+                    flushingCounts = new HashMap<>();
+                }
+            } finally {
+                commitLock.writeLock().unlock();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            tryClearBatch(addQuery);
+            tryClearBatch(addCount);
+            tryClearBatch(updateCount);
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                // Do nothing
+            }
+        }
+        if (metrics != null) {
+            // The transaction writing the queries given to storeQuery
+            metrics.recordTransaction("storeQuery", System.nanoTime() - start);
+        }
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        if (committed) {
+            return;
+        }
+        synchronized (this) {
+            // Queue the changes again, ahead of any made since
+            queries.addAll(pendingQueries);
+            pendingQueries = queries;
+            for (PendingCount p : pendingCounts.values()) {
+                String key = p.companyCode + "|" + p.intent;
+                PendingCount failed = flushingCounts.get(key);
+                if (failed == null) {
+                    flushingCounts.put(key, p);
+                } else {
+                    failed.then(p);
+                }
+            }
+            pendingCounts = flushingCounts;
+            flushingCounts = new HashMap<>();
+        }
+    }
+
+    /**
+    * Stops the background thread, writes any changes still queued and closes
+    * the writer's connection
+    */
+    public void close() {
+        closing = true;
+        writerThread.interrupt();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        flush();
+        statements.close();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+    * Gets the queued change for a company's intent, creating it if there is
+    * none. Must be called holding this object's lock.
+    *
+    * @param companyCode The company's code
+    * @param intent The name of the intent
+    * @return The queued change
+    */
+    private PendingCount getPendingCount(String companyCode, String intent) {
+        String key = companyCode + "|" + intent;
+        PendingCount p = pendingCounts.get(key);
+        if (p == null) {
+            p = new PendingCount(companyCode, intent);
+            pendingCounts.put(key, p);
+        }
+        return p;
+    }
+
+    /**
+    * Clears the batch of a statement
+    *
+    * @param s The statement
+    */
+    private void tryClearBatch(PreparedStatement s) {
+        if (s == null) {
+            return;
+        }
+        try {
+            s.clearBatch();
+        } catch (SQLException e) {
+            // Do nothing
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package footsiebot.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the statements run on the database. Each prepared statement handed
+ * out by a StatementCache given these metrics is wrapped so that every
+ * execution is timed, and counted against the SQL it was prepared from. The
+ * SQL of every statement in DatabaseCore is fixed, with ? for its values, so
+ * each one is a single query shape. A query is timed from its execution until
+ * its result set is read to the end or closed, and the rows read are counted.
+ * Transactions are timed from when they are opened to when they commit or
+ * roll back, which is as long as they hold the write lock.
+ * Without metrics the statements are not wrapped, and cost nothing more.
+ */
+public class QueryMetrics {
+    // The most characters of a statement's SQL shown in the report
+    private static final int SHAPE_LENGTH = 72;
+
+    private ConcurrentHashMap<String, Shape> shapes;
+    private ConcurrentHashMap<String, LatencyHistogram> transactions;
+
+    /**
+    * The latencies and rows of one query shape
+    */
+    private static class Shape {
+        private String sql;
+        private LatencyHistogram latency = new LatencyHistogram();
+        private LongAdder rows = new LongAdder();
+
+        private Shape(String sql) {
+            this.sql = sql;
+        }
+
+        private void record(long nanos, long rowCount) {
+            latency.record(nanos);
+            rows.add(rowCount);
+        }
+    }
+
+    public QueryMetrics() {
+        shapes = new ConcurrentHashMap<>();
+        transactions = new ConcurrentHashMap<>();
+    }
+
+    /**
+    * Wraps a prepared statement so that its executions are measured
+    *
+    * @param sql The SQL the statement was prepared from
+    * @param ps The statement
+    * @return The measured statement
+    */
+    public PreparedStatement instrument(String sql, PreparedStatement ps) {
+        Shape shape = shapes.computeIfAbsent(sql, Shape::new);
+        return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                new TimedStatement(shape, ps));
+    }
+
+    /**
+    * Records how long a transaction was open
+    *
+    * @param name The name of the transaction
+    * @param nanos The time from opening it to it committing or rolling back,
+    *              in nanoseconds
+    */
+    public void recordTransaction(String name, long nanos) {
+        transactions.computeIfAbsent(name, n -> new LatencyHistogram())
+                .record(nanos);
+    }
+
+    /**
+    * Returns the latency of a query shape
+    *
+    * @param sql The SQL of the statement
+    * @return The histogram of its latencies, or null if it has not been
+    *         prepared
+    */
+    public LatencyHistogram getQueryLatency(String sql) {
+        Shape shape = shapes.get(sql);
+        return shape == null ? null : shape.latency;
+    }
+
+    /**
+    * Returns the number of rows read or changed by a query shape
+    *
+    * @param sql The SQL of the statement
+    * @return The number of rows, or 0 if it has not been prepared
+    */
+    public long getQueryRows(String sql) {
+        Shape shape = shapes.get(sql);
+        return shape == null ? 0 : shape.rows.sum();
+    }
+
+    /**
+    * Returns the hold times of a transaction
+    *
+    * @param name The name of the transaction
+    * @return The histogram of its hold times, or null if it has not run
+    */
+    public LatencyHistogram getTransactionLatency(String name) {
+        return transactions.get(name);
+    }
+
+    /**
+    * Returns a report of every transaction and query shape run, with the
+    * query shapes that took the most time in total first
+    *
+    * @return The report, one line for each
+    */
+    public String report() {
+        StringBuilder sb = new StringBuilder("Database metrics:");
+        for (Map.Entry<String, LatencyHistogram> t
+                : transactions.entrySet()) {
+            sb.append("\n  transaction ").append(t.getKey()).append(": ")
+                    .append(t.getValue());
+        }
+
+        ArrayList<Shape> byTotal = new ArrayList<>(shapes.values());
+        byTotal.sort(Comparator.comparingLong(
+                (Shape s) -> s.latency.getTotal()).reversed());
+        for (Shape s : byTotal) {
+            if (s.latency.getCount() == 0) {
+                continue;
+            }
+            sb.append("\n  ").append(abbreviate(s.sql)).append("\n    ")
+                    .append(s.latency).append(", rows: ").append(s.rows.sum());
+        }
+        return sb.toString();
+    }
+
+    /**
+    * Puts SQL on one line and cuts it to SHAPE_LENGTH characters
+    *
+    * @param sql The SQL
+    * @return The SQL to show
+    */
+    private static String abbreviate(String sql) {
+        String line = sql.replaceAll("\\s+", " ").trim();
+        if (line.length() <= SHAPE_LENGTH) {
+            return line;
+        }
+        return line.substring(0, SHAPE_LENGTH - 3) + "...";
+    }
+
+    /**
+    * Calls a method on the object wrapped, passing on what it throws
+    *
+    * @param target The object wrapped
+    * @param method The method
+    * @param args The arguments
+    * @return The result of the method
+    * @throws Throwable what the method threw
+    */
+    private static Object call(Object target, Method method, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+    * Times the executions of a prepared statement
+    */
+    private static class TimedStatement implements InvocationHandler {
+        private Shape shape;
+        private PreparedStatement ps;
+
+        private TimedStatement(Shape shape, PreparedStatement ps) {
+            this.shape = shape;
+            this.ps = ps;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                return call(ps, method, args);
+            }
+
+            long start = System.nanoTime();
+            Object result = call(ps, method, args);
+            switch (name) {
+                case "executeQuery":
+                    // Timed until the rows have been read
+                    return Proxy.newProxyInstance(
+                            ResultSet.class.getClassLoader(),
+                            new Class<?>[]{ResultSet.class},
+                            new TimedResultSet(shape, (ResultSet) result,
+                                    start));
+                case "executeUpdate":
+                    shape.record(System.nanoTime() - start, (Integer) result);
+                    break;
+                case "executeBatch":
+                    long rows = 0;
+                    for (int count : (int[]) result) {
+                        rows += Math.max(count, 0);
+                    }
+                    shape.record(System.nanoTime() - start, rows);
+                    break;
+                default:
+                    shape.record(System.nanoTime() - start, 0);
+                    break;
+            }
+            return result;
+        }
+    }
+
+    /**
+    * Counts the rows read from a result set, and records the query once they
+    * have all been read or the result set is closed
+    */
+    private static class TimedResultSet implements InvocationHandler {
+        private Shape shape;
+        private ResultSet rs;
+        private long start;
+        private long rows;
+        private boolean recorded;
+
+        private TimedResultSet(Shape shape, ResultSet rs, long start) {
+            this.shape = shape;
+            this.rs = rs;
+            this.start = start;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            Object result = call(rs, method, args);
+            if (name.equals("next")) {
+                if ((Boolean) result) {
+                    rows++;
+                } else {
+                    finish();
+                }
+            } else if (name.equals("close")) {
+                finish();
+            }
+            return result;
+        }
+
+        private void finish() {
+            if (!recorded) {
+                recorded = true;
+                shape.record(System.nanoTime() - start, rows);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package footsiebot.database;
+
+/**
+ * The most recent snapshot stored for a single FTSE company.
+ */
+public class Quote {
+    private String code;
+    private float spotPrice;
+    private float percentageChange;
+    private float absoluteChange;
+    private int tradingVolume;
+    private String timeOfData;
+
+    /**
+    * Constructor for a quote
+    *
+    * @param code The company's code
+    * @param spotPrice The spot price of the company
+    * @param percentageChange The percentage change since the market opened
+    * @param absoluteChange The absolute change since the market opened
+    * @param tradingVolume The trading volume of the company
+    * @param timeOfData The time the snapshot was taken, as stored in the
+    *                   database
+    */
+    public Quote(String code, float spotPrice, float percentageChange,
+            float absoluteChange, int tradingVolume, String timeOfData) {
+        this.code = code;
+        this.spotPrice = spotPrice;
+        this.percentageChange = percentageChange;
+        this.absoluteChange = absoluteChange;
+        this.tradingVolume = tradingVolume;
+        this.timeOfData = timeOfData;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public float getSpotPrice() {
+        return spotPrice;
+    }
+
+    public float getPercentageChange() {
+        return percentageChange;
+    }
+
+    public float getAbsoluteChange() {
+        return absoluteChange;
+    }
+
+    public int getTradingVolume() {
+        return tradingVolume;
+    }
+
+    public String getTimeOfData() {
+        return timeOfData;
+    }
+}
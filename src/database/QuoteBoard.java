@@ -0,0 +1,96 @@
+package footsiebot.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the latest quote of every company, keyed by company code, so that
+ * current values can be answered without going to the database. It is filled
+ * from the database on start up and updated every time a scrape is stored.
+ * The board also remembers which companies were in the latest scrape, which
+ * are the current FTSE constituents.
+ */
+public class QuoteBoard {
+    private ConcurrentHashMap<String, Quote> quotes;
+    private volatile Set<String> constituents;
+
+    public QuoteBoard() {
+        quotes = new ConcurrentHashMap<>();
+        constituents = Collections.emptySet();
+    }
+
+    /**
+    * Replaces the quote for the quote's company
+    *
+    * @param quote The new latest quote
+    */
+    public void put(Quote quote) {
+        quotes.put(quote.getCode(), quote);
+    }
+
+    /**
+    * Replaces the quotes of every company in a scrape, and makes them the
+    * current constituents
+    *
+    * @param scrape The quotes of every company in the scrape
+    */
+    public void putScrape(Collection<Quote> scrape) {
+        HashSet<String> codes = new HashSet<>();
+        for (Quote quote : scrape) {
+            put(quote);
+            codes.add(quote.getCode());
+        }
+        constituents = Collections.unmodifiableSet(codes);
+    }
+
+    /**
+    * Returns the latest quote for a company
+    *
+    * @param code The company's code
+    * @return The latest quote, or null if no data is stored for the company
+    */
+    public Quote get(String code) {
+        if (code == null) {
+            return null;
+        }
+        return quotes.get(code);
+    }
+
+    /**
+    * Returns the latest quotes of all companies
+    *
+    * @return The quotes
+    */
+    public Collection<Quote> getAll() {
+        return quotes.values();
+    }
+
+    /**
+    * Returns the latest quotes of the companies in the latest scrape
+    *
+    * @return The quotes of the current constituents
+    */
+    public ArrayList<Quote> getConstituents() {
+        ArrayList<Quote> current = new ArrayList<>();
+        for (String code : constituents) {
+            Quote quote = quotes.get(code);
+            if (quote != null) {
+                current.add(quote);
+            }
+        }
+        return current;
+    }
+
+    /**
+    * Returns the number of companies on the board
+    *
+    * @return The number of quotes
+    */
+    public int size() {
+        return quotes.size();
+    }
+}
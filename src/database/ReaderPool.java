@@ -0,0 +1,106 @@
+package footsiebot.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A small pool of read-only connections to the database, each with its own
+ * cache of prepared statements. With the database in WAL mode, reads made on
+ * these connections see the last committed data and never wait for, or take
+ * part in, a transaction on the writer's connection.
+ */
+public class ReaderPool {
+    // SQLite's open flag for a read-only connection
+    private static final String OPEN_READ_ONLY = "1";
+
+    private ArrayBlockingQueue<StatementCache> idle;
+    private ArrayList<StatementCache> readers;
+
+    /**
+    * Constructor for the pool. Opens every connection up front.
+    *
+    * @param url The JDBC url of the database
+    * @param size The number of read-only connections
+    * @param metrics The metrics the reads are measured by, or null for none
+    */
+    public ReaderPool(String url, int size, QueryMetrics metrics) {
+        idle = new ArrayBlockingQueue<>(size);
+        readers = new ArrayList<>();
+
+        Properties props = new Properties();
+        props.setProperty("open_mode", OPEN_READ_ONLY);
+        for (int i = 0; i < size; i++) {
+            try {
+                Connection conn = DriverManager.getConnection(url, props);
+                StatementCache reader = new StatementCache(conn, metrics);
+                readers.add(reader);
+                idle.add(reader);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+    * Takes a reader from the pool, waiting for one to be released if they are
+    * all in use. The reader must be given back with release.
+    *
+    * @return The statement cache of a read-only connection
+    */
+    public StatementCache acquire() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                StatementCache reader = idle.take();
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return reader;
+            } catch (InterruptedException e) {
+                // Keep waiting, a reader is always released
+                interrupted = true;
+            }
+        }
+    }
+
+    /**
+    * Gives a reader back to the pool
+    *
+    * @param reader The reader taken with acquire
+    */
+    public void release(StatementCache reader) {
+        idle.offer(reader);
+    }
+
+    /**
+    * Closes every connection in the pool
+    */
+    public void close() {
+        for (StatementCache reader : readers) {
+            reader.close();
+            try {
+                reader.getConnection().close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        long hits = 0;
+        long misses = 0;
+        int size = 0;
+        for (StatementCache reader : readers) {
+            hits += reader.getHits();
+            misses += reader.getMisses();
+            size += reader.size();
+        }
+        return "Readers: " + readers.size() + ", statements: " + size
+                + ", hits: " + hits + ", misses: " + misses;
+    }
+}
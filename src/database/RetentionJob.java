@@ -0,0 +1,499 @@
+package footsiebot.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+
+/**
+ * Background job that deletes old FTSE snapshots once per trading day. Rows
+ * are deleted in small chunks found through the TradingDate index, each chunk
+ * being its own transaction, so the database is never locked for long. Daily
+ * prices are kept, so historical intents can still be answered for the days
+ * purged, and the snapshots themselves are first archived as compressed
+ * history blocks, one per company per day.
+ * Logged queries older than QUERY_RETENTION_DAYS are folded into counts per
+ * hour in the same way, so neither table grows without bound.
+ */
+public class RetentionJob {
+    // Snapshots are kept for this many days before the most recent trading day
+    static final int RETENTION_DAYS = 7;
+    // Logged queries are kept for this many days before being counted by hour
+    private static final int QUERY_RETENTION_DAYS = 30;
+    // The most rows deleted by one transaction
+    private static final int CHUNK_SIZE = 1000;
+    // How often the job checks whether a new trading day has started
+    private static final long CHECK_INTERVAL_MS = 60 * 60 * 1000;
+
+    private Connection conn;
+    private StatementCache statements;
+    private Thread jobThread;
+    private String lastPurgeDay = null;
+
+    // Totals of the blocks archived by the last purge
+    private int archivedSamples;
+    private int archivedBlocks;
+    private long archivedBytes;
+
+    /**
+    * Constructor for the job. Opens its own connection to the database and
+    * starts the background thread, which purges straight away and then once
+    * each new trading day.
+    *
+    * @param url The JDBC url of the database
+    * @param metrics The metrics the job's statements are measured by, or null
+    *                for none
+    */
+    public RetentionJob(String url, QueryMetrics metrics) {
+        try {
+            conn = DriverManager.getConnection(url);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        statements = new StatementCache(conn, metrics);
+
+        jobThread = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    String tradingDay = DatabaseCore.getMostRecentTradingDay(
+                            LocalDateTime.now());
+                    if (!tradingDay.equals(lastPurgeDay)) {
+                        purge(tradingDay);
+                        compactQueries(tradingDay);
+                        lastPurgeDay = tradingDay;
+                    }
+                    Thread.sleep(CHECK_INTERVAL_MS);
+                }
+            } catch (InterruptedException e) {
+                // Stopped by close
+            }
+        }, "retention");
+        jobThread.setDaemon(true);
+        jobThread.start();
+    }
+
+    /**
+    * Archives, then deletes every snapshot from over RETENTION_DAYS days
+    * before the given trading day, one chunk at a time
+    *
+    * @param tradingDay The most recent trading day, as yyyy-MM-dd
+    * @return The number of snapshots deleted
+    */
+    public int purge(String tradingDay) {
+        long startTime = System.nanoTime();
+        String oldestDate = LocalDate.parse(tradingDay)
+                .minusDays(RETENTION_DAYS).toString();
+        int purged = 0;
+        int chunks = 0;
+
+        // Snapshots are only deleted once they are all archived, otherwise
+        // they are kept until the next purge
+        if (!archive(oldestDate)) {
+            return 0;
+        }
+
+        try {
+            PreparedStatement deleteChunk = statements.get(
+                    "DELETE FROM FTSECompanySnapshots WHERE rowid IN "
+                    + "(SELECT rowid FROM FTSECompanySnapshots "
+                    + "WHERE TradingDate < ? LIMIT ?)");
+            deleteChunk.setString(1, oldestDate);
+            deleteChunk.setInt(2, CHUNK_SIZE);
+
+            int deleted;
+            do {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                deleted = deleteChunk.executeUpdate();
+                purged += deleted;
+                chunks++;
+            } while (deleted == CHUNK_SIZE);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Purged " + purged + " snapshots from before "
+                + oldestDate + " in " + chunks + " chunks, "
+                + ((System.nanoTime() - startTime) / 1000000) + "ms");
+        return purged;
+    }
+
+    /**
+    * Folds every logged query from over QUERY_RETENTION_DAYS days before the
+    * given trading day into the count of queries for its company, intent,
+    * time specifier and hour, then deletes it. Each chunk of queries is
+    * counted and deleted in one transaction, so no query is counted twice.
+    *
+    * @param tradingDay The most recent trading day, as yyyy-MM-dd
+    * @return The number of queries folded into hourly counts
+    */
+    public int compactQueries(String tradingDay) {
+        long startTime = System.nanoTime();
+        // Compares as earlier than every time on that day
+        String oldestDate = LocalDate.parse(tradingDay)
+                .minusDays(QUERY_RETENTION_DAYS).toString();
+        int compacted = 0;
+        int hours = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            ArrayList<Long> rowids = new ArrayList<>();
+            LinkedHashMap<String, HourlyCount> counts = new LinkedHashMap<>();
+            ResultSet rs = null;
+
+            // Old queries are never changed, so they are read before the
+            // transaction is opened
+            try {
+                PreparedStatement findQueries = statements.get(
+                        "SELECT rowid, CompanyCode, Intent, TimeSpecifier, "
+                        + "strftime('%Y-%m-%d %H:00:00', TimeOfQuery) "
+                        + "FROM Queries WHERE TimeOfQuery < ? LIMIT ?");
+                findQueries.setString(1, oldestDate);
+                findQueries.setInt(2, CHUNK_SIZE);
+                rs = findQueries.executeQuery();
+                while (rs.next()) {
+                    rowids.add(rs.getLong(1));
+                    HourlyCount hour = new HourlyCount(rs.getString(2),
+                            rs.getString(3), rs.getString(4),
+                            rs.getString(5));
+                    String key = hour.companyCode + "|" + hour.intent + "|"
+                            + hour.timeSpecifier + "|" + hour.hour;
+                    HourlyCount counted = counts.get(key);
+                    if (counted == null) {
+                        counts.put(key, hour);
+                        counted = hour;
+                    }
+                    counted.count++;
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                tryClose(rs);
+                break;
+            }
+            tryClose(rs);
+
+            if (rowids.isEmpty() || !foldQueries(rowids, counts.values())) {
+                break;
+            }
+            compacted += rowids.size();
+            hours += counts.size();
+        }
+
+        if (compacted > 0) {
+            System.out.println("Compacted " + compacted + " queries from "
+                    + "before " + oldestDate + " into " + hours
+                    + " hourly counts, "
+                    + ((System.nanoTime() - startTime) / 1000000) + "ms");
+        }
+        return compacted;
+    }
+
+    /**
+    * Adds a chunk of queries to the hourly counts and deletes them, in one
+    * transaction
+    *
+    * @param rowids The rowids of the queries
+    * @param counts The number of the queries in each hour
+    * @return true if the transaction committed, false otherwise
+    */
+    private boolean foldQueries(ArrayList<Long> rowids,
+            Collection<HourlyCount> counts) {
+        PreparedStatement addHour = null;
+        PreparedStatement updateHour = null;
+        PreparedStatement deleteQuery = null;
+        boolean committed = false;
+
+        try {
+            addHour = statements.get("INSERT OR IGNORE INTO "
+                    + "QueryHourlyCounts VALUES(?,?,?,?,0)");
+            // IS matches the nulls of queries logged without an intent
+            updateHour = statements.get("UPDATE QueryHourlyCounts "
+                    + "SET Count = Count + ? "
+                    + "WHERE CompanyCode IS ? AND Intent IS ? "
+                    + "AND TimeSpecifier IS ? AND Hour IS ?");
+            deleteQuery = statements.get(
+                    "DELETE FROM Queries WHERE rowid = ?");
+            for (HourlyCount hour : counts) {
+                addHour.setString(1, hour.companyCode);
+                addHour.setString(2, hour.intent);
+                addHour.setString(3, hour.timeSpecifier);
+                addHour.setString(4, hour.hour);
+                addHour.addBatch();
+                updateHour.setInt(1, hour.count);
+                updateHour.setString(2, hour.companyCode);
+                updateHour.setString(3, hour.intent);
+                updateHour.setString(4, hour.timeSpecifier);
+                updateHour.setString(5, hour.hour);
+                updateHour.addBatch();
+            }
+            for (long rowid : rowids) {
+                deleteQuery.setLong(1, rowid);
+                deleteQuery.addBatch();
+            }
+
+            conn.setAutoCommit(false);
+            addHour.executeBatch();
+            updateHour.executeBatch();
+            deleteQuery.executeBatch();
+            conn.commit();
+            committed = true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            for (PreparedStatement ps : new PreparedStatement[]{addHour,
+                    updateHour, deleteQuery}) {
+                if (ps != null) {
+                    try {
+                        ps.clearBatch();
+                    } catch (SQLException ex) {
+                        // Do nothing
+                    }
+                }
+            }
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                // Do nothing
+            }
+        }
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return committed;
+    }
+
+    /**
+    * The number of queries for a company, intent and time specifier in one
+    * hour
+    */
+    private static class HourlyCount {
+        private String companyCode;
+        private String intent;
+        private String timeSpecifier;
+        private String hour;
+        private int count = 0;
+
+        private HourlyCount(String companyCode, String intent,
+                String timeSpecifier, String hour) {
+            this.companyCode = companyCode;
+            this.intent = intent;
+            this.timeSpecifier = timeSpecifier;
+            this.hour = hour;
+        }
+    }
+
+    /**
+    * Archives the snapshots of every trading day before the given date as
+    * compressed history blocks. Each day is archived in its own transaction.
+    * A block already archived for a company is kept, so a day can be
+    * archived again if the job stopped before deleting its snapshots.
+    *
+    * @param oldestDate The oldest trading date to keep, as yyyy-MM-dd
+    * @return true if every day was archived, false otherwise
+    */
+    private boolean archive(String oldestDate) {
+        archivedSamples = 0;
+        archivedBlocks = 0;
+        archivedBytes = 0;
+        ArrayList<String> days = new ArrayList<>();
+        ResultSet rs = null;
+        try {
+            PreparedStatement findDays = statements.get(
+                    "SELECT DISTINCT TradingDate FROM FTSECompanySnapshots "
+                    + "WHERE TradingDate < ?");
+            findDays.setString(1, oldestDate);
+            rs = findDays.executeQuery();
+            while (rs.next()) {
+                days.add(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            tryClose(rs);
+            return false;
+        }
+        tryClose(rs);
+
+        for (String day : days) {
+            if (Thread.currentThread().isInterrupted() || !archiveDay(day)) {
+                return false;
+            }
+        }
+
+        if (archivedBlocks > 0) {
+            System.out.println("Archived " + archivedSamples + " snapshots in "
+                    + archivedBlocks + " blocks, "
+                    + String.format("%.2f", (double) archivedBytes
+                    / archivedSamples) + " bytes per snapshot");
+        }
+        return true;
+    }
+
+    /**
+    * Archives the snapshots of one trading day, one block per company. The
+    * snapshots are read before the transaction is opened, as a transaction
+    * that reads first cannot write if another connection writes meanwhile.
+    *
+    * @param day The trading date, as yyyy-MM-dd
+    * @return true if the day was archived, false otherwise
+    */
+    private boolean archiveDay(String day) {
+        ResultSet rs = null;
+        PreparedStatement addBlock = null;
+        long[] times = new long[256];
+        float[] prices = new float[256];
+        long[] volumes = new long[256];
+        int samples = 0;
+        String company = null;
+        boolean committed = false;
+
+        try {
+            addBlock = statements.get("INSERT OR IGNORE INTO "
+                    + "FTSECompanyHistoryBlocks VALUES(?,?,?,?,?)");
+            PreparedStatement snapshots = statements.get(
+                    "SELECT CompanyCode, TimeOfData, SpotPrice, TradingVolume, "
+                    + "ValidTo FROM FTSECompanySnapshots WHERE TradingDate = ? "
+                    + "ORDER BY CompanyCode, TimeOfData");
+            snapshots.setString(1, day);
+            rs = snapshots.executeQuery();
+
+            while (rs.next()) {
+                String code = rs.getString(1);
+                if (!code.equals(company)) {
+                    addBlock(addBlock, company, times, prices, volumes,
+                            samples);
+                    company = code;
+                    samples = 0;
+                }
+
+                // A row kept over several scrapes is archived as a sample
+                // at the first and last of them
+                long start;
+                long end;
+                try {
+                    start = LocalDateTime.parse(rs.getString(2),
+                            DatabaseCore.TIMESTAMP_FORMAT)
+                            .toEpochSecond(ZoneOffset.UTC);
+                    end = LocalDateTime.parse(rs.getString(5),
+                            DatabaseCore.TIMESTAMP_FORMAT)
+                            .toEpochSecond(ZoneOffset.UTC);
+                } catch (DateTimeParseException e) {
+                    continue;
+                }
+                if (samples + 2 > times.length) {
+                    times = Arrays.copyOf(times, samples * 2);
+                    prices = Arrays.copyOf(prices, samples * 2);
+                    volumes = Arrays.copyOf(volumes, samples * 2);
+                }
+                times[samples] = start;
+                prices[samples] = rs.getFloat(3);
+                volumes[samples] = rs.getLong(4);
+                samples++;
+                if (end > start) {
+                    times[samples] = end;
+                    prices[samples] = prices[samples - 1];
+                    volumes[samples] = volumes[samples - 1];
+                    samples++;
+                }
+            }
+            addBlock(addBlock, company, times, prices, volumes, samples);
+            tryClose(rs);
+
+            conn.setAutoCommit(false);
+            addBlock.executeBatch();
+            conn.commit();
+            committed = true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            tryClose(rs);
+            if (addBlock != null) {
+                try {
+                    addBlock.clearBatch();
+                } catch (SQLException ex) {
+                    // Do nothing
+                }
+            }
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                // Do nothing
+            }
+        }
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return committed;
+    }
+
+    /**
+    * Compresses a company's snapshots into a block and adds it to the batch
+    *
+    * @param addBlock The statement adding a block
+    * @param company The company's code, or null if there are no snapshots
+    * @param times The times of the snapshots, in seconds since the epoch
+    * @param prices The spot prices
+    * @param volumes The trading volumes
+    * @param samples The number of snapshots
+    * @throws SQLException if the block could not be added to the batch
+    */
+    private void addBlock(PreparedStatement addBlock, String company,
+            long[] times, float[] prices, long[] volumes, int samples)
+            throws SQLException {
+        if (company == null || samples == 0) {
+            return;
+        }
+        byte[] block = HistoryBlock.encode(times, prices, volumes, samples);
+        addBlock.setString(1, company);
+        addBlock.setLong(2, times[0]);
+        addBlock.setLong(3, times[samples - 1]);
+        addBlock.setInt(4, samples);
+        addBlock.setBytes(5, block);
+        addBlock.addBatch();
+
+        archivedSamples += samples;
+        archivedBlocks++;
+        archivedBytes += block.length;
+    }
+
+    /**
+    * Closes result set
+    *
+    * @param rs The result set
+    */
+    private void tryClose(ResultSet rs) {
+        try {
+            rs.close();
+        } catch (Exception e) {
+            // Do nothing
+        }
+    }
+
+    /**
+    * Stops the background thread and closes the job's connection
+    */
+    public void close() {
+        jobThread.interrupt();
+        try {
+            jobThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        statements.close();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package footsiebot.database;
+
+/**
+ * Takes the samples of a company's history one at a time, as they are read
+ * from the database, without boxing them
+ */
+@FunctionalInterface
+public interface SampleConsumer {
+
+  /**
+   * Takes a sample
+   *
+   * @param time The time of the sample in seconds since the epoch, UTC
+   * @param price The spot price
+   * @param volume The trading volume
+   */
+  public void accept(long time, float price, long volume);
+}
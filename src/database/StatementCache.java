@@ -0,0 +1,127 @@
+package footsiebot.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+/**
+ * Registry of prepared statements for a single database connection. Each
+ * distinct SQL string is prepared (parsed and planned by SQLite) the first
+ * time it is asked for, and the same statement is handed back on every later
+ * request so that only the parameters need to be rebound. Given metrics,
+ * each statement is prepared wrapped so that its executions are measured.
+ */
+public class StatementCache {
+    private Connection conn;
+    private HashMap<String, PreparedStatement> statements;
+    private QueryMetrics metrics;
+    private long hits;
+    private long misses;
+
+    /**
+    * Constructor for the statement cache
+    *
+    * @param conn The connection the statements are prepared on
+    */
+    public StatementCache(Connection conn) {
+        this(conn, null);
+    }
+
+    /**
+    * Constructor for a statement cache whose statements are measured
+    *
+    * @param conn The connection the statements are prepared on
+    * @param metrics The metrics the statements are measured by, or null for
+    *                none
+    */
+    public StatementCache(Connection conn, QueryMetrics metrics) {
+        this.conn = conn;
+        this.metrics = metrics;
+        statements = new HashMap<>();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+    * Returns the prepared statement for the given SQL, preparing it if this is
+    * the first time it has been asked for. The statement belongs to the cache
+    * and must not be closed by the caller, only its result sets.
+    *
+    * @param sql The SQL of the statement, with ? for each parameter
+    * @return The prepared statement for the SQL
+    * @throws SQLException if the statement could not be prepared
+    */
+    public PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps != null) {
+            hits++;
+            return ps;
+        }
+
+        misses++;
+        ps = conn.prepareStatement(sql);
+        if (metrics != null) {
+            ps = metrics.instrument(sql, ps);
+        }
+        statements.put(sql, ps);
+        return ps;
+    }
+
+    /**
+    * Returns the connection the statements are prepared on
+    *
+    * @return The connection
+    */
+    public Connection getConnection() {
+        return conn;
+    }
+
+    /**
+    * Returns the number of requests answered with an already prepared
+    * statement
+    *
+    * @return The number of cache hits
+    */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+    * Returns the number of requests that had to prepare a new statement
+    *
+    * @return The number of cache misses
+    */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+    * Returns the number of distinct statements currently prepared
+    *
+    * @return The number of cached statements
+    */
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+    * Closes every cached statement and empties the cache
+    */
+    public void close() {
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                // Do nothing
+            }
+        }
+        statements.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "Statements: " + statements.size() + ", hits: " + hits
+                + ", misses: " + misses;
+    }
+}
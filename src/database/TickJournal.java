@@ -0,0 +1,256 @@
+package footsiebot.database;
+
+import footsiebot.datagathering.ScrapeResult;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.BiConsumer;
+
+/**
+ * Append-only journal of the rows of scrape results, kept in a memory-mapped
+ * file of fixed size records. Each scrape is appended before it is written to
+ * the database, and the journal is cleared once the database has committed
+ * it, so after a crash the journal holds exactly the scrapes that were not
+ * stored. A scrape is only counted as appended once all of its rows are,
+ * by updating the number of records in the header last. The rows are
+ * forced to disk before the header, and the header before the append
+ * returns, so a scrape survives the machine losing power as well as the
+ * program stopping. Appending copies the rows into the mapped file without
+ * allocating, so even with the two writes to disk it costs a fraction of a
+ * database transaction.
+ */
+public class TickJournal {
+    private static final int MAGIC = 0x46545345;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 160;
+    // Enough records for several FTSE 100 scrapes before the file must grow
+    private static final int INITIAL_RECORDS = 512;
+
+    // Header fields
+    private static final int MAGIC_AT = 0;
+    private static final int RECORD_SIZE_AT = 4;
+    private static final int RECORDS_AT = 8;
+
+    // Record fields. Strings are stored as a length byte followed by one
+    // byte per character, cut to the space given.
+    private static final int TIME_AT = 0;
+    private static final int PRICE_AT = 8;
+    private static final int ABS_CHANGE_AT = 12;
+    private static final int PERC_CHANGE_AT = 16;
+    private static final int VOLUME_AT = 20;
+    private static final int CODE_AT = 24;
+    private static final int CODE_SIZE = 24;
+    private static final int NAME_AT = 48;
+    private static final int NAME_SIZE = 56;
+    private static final int GROUP_AT = 104;
+    private static final int GROUP_SIZE = 56;
+
+    // Stored as the volume when the scrape has none
+    private static final int NO_VOLUME = Integer.MIN_VALUE;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int records;
+
+    /**
+    * Constructor for the journal. Opens the file, creating it if needed, and
+    * maps it into memory. A file not written by a journal is cleared.
+    *
+    * @param path The path of the journal file
+    */
+    public TickJournal(String path) {
+        try {
+            file = new RandomAccessFile(path, "rw");
+            channel = file.getChannel();
+            long space = (file.length() - HEADER_SIZE) / RECORD_SIZE;
+            map((int) Math.max(INITIAL_RECORDS, space));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        if (buffer.getInt(MAGIC_AT) != MAGIC
+                || buffer.getInt(RECORD_SIZE_AT) != RECORD_SIZE) {
+            buffer.putInt(MAGIC_AT, MAGIC);
+            buffer.putInt(RECORD_SIZE_AT, RECORD_SIZE);
+            buffer.putInt(RECORDS_AT, 0);
+        }
+        records = Math.min(buffer.getInt(RECORDS_AT), capacity);
+    }
+
+    /**
+    * Appends every row of a scrape result
+    *
+    * @param sr The scrape result
+    * @param timeOfData The time of the scrape in seconds since the epoch, UTC
+    */
+    public void append(ScrapeResult sr, long timeOfData) {
+        if (buffer == null) {
+            return;
+        }
+        int rows = sr.getSize();
+        if (records + rows > capacity) {
+            try {
+                map(Math.max(capacity * 2, records + rows));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        for (int i = 0; i < rows; i++) {
+            int at = HEADER_SIZE + (records + i) * RECORD_SIZE;
+            Integer volume = sr.getVolume(i);
+            buffer.putLong(at + TIME_AT, timeOfData);
+            buffer.putFloat(at + PRICE_AT, sr.getPrice(i));
+            buffer.putFloat(at + ABS_CHANGE_AT, sr.getAbsChange(i));
+            buffer.putFloat(at + PERC_CHANGE_AT, sr.getPercChange(i));
+            buffer.putInt(at + VOLUME_AT, volume == null ? NO_VOLUME : volume);
+            putString(at + CODE_AT, CODE_SIZE, sr.getCode(i));
+            putString(at + NAME_AT, NAME_SIZE, sr.getName(i));
+            putString(at + GROUP_AT, GROUP_SIZE, sr.getGroup(i));
+        }
+
+        // The rows only count once they have all reached the disk
+        buffer.force();
+        records += rows;
+        buffer.putInt(RECORDS_AT, records);
+        buffer.force();
+    }
+
+    /**
+    * Gives every scrape in the journal, in the order they were appended, to
+    * the given store
+    *
+    * @param store Takes the time of each scrape, in seconds since the epoch,
+    *              and its rows
+    */
+    public void replay(BiConsumer<Long, ScrapeResult> store) {
+        int start = 0;
+        while (start < records) {
+            long time = buffer.getLong(recordAt(start) + TIME_AT);
+            int end = start;
+            while (end < records
+                    && buffer.getLong(recordAt(end) + TIME_AT) == time) {
+                end++;
+            }
+
+            int rows = end - start;
+            String[] codes = new String[rows];
+            String[] names = new String[rows];
+            String[] groups = new String[rows];
+            Float[] prices = new Float[rows];
+            Float[] absChanges = new Float[rows];
+            Float[] percChanges = new Float[rows];
+            Integer[] volumes = new Integer[rows];
+            for (int i = 0; i < rows; i++) {
+                int at = recordAt(start + i);
+                codes[i] = getString(at + CODE_AT);
+                names[i] = getString(at + NAME_AT);
+                groups[i] = getString(at + GROUP_AT);
+                prices[i] = buffer.getFloat(at + PRICE_AT);
+                absChanges[i] = buffer.getFloat(at + ABS_CHANGE_AT);
+                percChanges[i] = buffer.getFloat(at + PERC_CHANGE_AT);
+                int volume = buffer.getInt(at + VOLUME_AT);
+                volumes[i] = volume == NO_VOLUME ? null : volume;
+            }
+            store.accept(time, new ScrapeResult(codes, names, groups, prices,
+                    absChanges, percChanges, volumes));
+            start = end;
+        }
+    }
+
+    /**
+    * Clears the journal, once every scrape in it has been stored. The cleared
+    * header is not forced to disk, as a scrape replayed after it was stored
+    * is skipped.
+    */
+    public void checkpoint() {
+        if (buffer == null) {
+            return;
+        }
+        records = 0;
+        buffer.putInt(RECORDS_AT, 0);
+    }
+
+    /**
+    * Returns the number of rows in the journal
+    *
+    * @return The number of rows
+    */
+    public int size() {
+        return records;
+    }
+
+    /**
+    * Writes the journal to disk and closes its file
+    */
+    public void close() {
+        if (buffer == null) {
+            return;
+        }
+        buffer.force();
+        try {
+            channel.close();
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+    * Maps the file into memory with space for the given number of records,
+    * growing the file if needed
+    *
+    * @param capacity The number of records
+    * @throws IOException if the file could not be mapped
+    */
+    private void map(int capacity) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        this.capacity = capacity;
+    }
+
+    /**
+    * Returns the position of a record in the file
+    *
+    * @param record The index of the record
+    * @return The position of its first byte
+    */
+    private int recordAt(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    /**
+    * Writes a string as a length byte and one byte per character
+    *
+    * @param at The position to write at
+    * @param size The space given to the string, including its length byte
+    * @param s The string
+    */
+    private void putString(int at, int size, String s) {
+        int length = Math.min(s.length(), size - 1);
+        buffer.put(at, (byte) length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(at + 1 + i, (byte) s.charAt(i));
+        }
+    }
+
+    /**
+    * Reads a string written by putString
+    *
+    * @param at The position of the string
+    * @return The string
+    */
+    private String getString(int at) {
+        int length = buffer.get(at) & 0xFF;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(at + 1 + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+}
@@ -1,16 +1,16 @@
 DROP TABLE FTSECompanies;
 DROP TABLE FTSECompanySnapshots;
+DROP TABLE FTSECompanyDailyPrices;
 DROP TABLE FTSEGroupMappings;
 DROP TABLE Queries;
-DROP TABLE CompanyNewsCount;
-DROP TABLE CompanySpotPriceCount;
-DROP TABLE CompanyOpeningPriceCount;
-DROP TABLE CompanyAbsoluteChangeCount;
-DROP TABLE CompanyClosingPriceCount;
-DROP TABLE CompanyPercentageChangeCount;
-DROP TABLE CompanyTrendCount;
-DROP TABLE CompanyTradingVolumeCount;
-DROP TABLE CompanyTrendSinceCount;
+DROP TABLE CompanyIntentCounts;
+DROP TABLE FTSECompanyHistoryBlocks;
+DROP VIEW QueryCountsByHour;
+DROP TABLE QueryHourlyCounts;
+DROP TABLE NewsSearch;
+DROP TABLE NewsArticleCompanies;
+DROP TABLE NewsFetches;
+DROP TABLE NewsArticles;
 
 CREATE TABLE FTSECompanies (
 	CompanyCode varchar(10),
@@ -25,10 +25,30 @@ CREATE TABLE FTSECompanySnapshots (
 	AbsoluteChange decimal(4,2),
 	TradingVolume integer,
 	TimeOfData TimeStamp DEFAULT CURRENT_TIMESTAMP NOT NULL,
+	TradingDate varchar(10),
+	ValidTo TimeStamp,
 	primary key(CompanyCode, TimeOfData),
 	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
 );
 
+CREATE INDEX FTSECompanySnapshotsByDate
+	ON FTSECompanySnapshots(CompanyCode, TradingDate, TimeOfData);
+
+CREATE INDEX FTSECompanySnapshotsByTradingDate
+	ON FTSECompanySnapshots(TradingDate);
+
+CREATE TABLE FTSECompanyDailyPrices (
+	CompanyCode varchar(10),
+	TradingDate varchar(10),
+	OpeningPrice decimal(5,2),
+	HighPrice decimal(5,2),
+	LowPrice decimal(5,2),
+	ClosingPrice decimal(5,2),
+	TradingVolume integer,
+	primary key(CompanyCode, TradingDate),
+	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
+);
+
 CREATE TABLE FTSEGroupMappings (
 	GroupName varchar(40),
 	CompanyCode varchar(10),
@@ -46,75 +66,73 @@ CREATE TABLE Queries (
 	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
 );
 
-CREATE TABLE CompanyNewsCount (
-	CompanyCode varchar(10),
-	NewsCount integer,
-	newsAdjustment decimal(2,2),
-	primary key(CompanyCode),
-	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
-);
+CREATE INDEX QueriesByTime
+	ON Queries(TimeOfQuery);
 
-CREATE TABLE CompanySpotPriceCount (
+CREATE TABLE QueryHourlyCounts (
 	CompanyCode varchar(10),
-	SpotPriceCount integer,
-	SpotPriceAdjustment decimal(2,2),
-	primary key(CompanyCode),
+	Intent varchar(30),
+	TimeSpecifier varchar(30),
+	Hour TimeStamp,
+	Count integer,
+	primary key(CompanyCode, Intent, TimeSpecifier, Hour),
 	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
 );
 
-CREATE TABLE CompanyOpeningPriceCount (
-	CompanyCode varchar(10),
-	OpeningPriceCount integer,
-	OpeningPriceAdjustment decimal(2,2),
-	primary key(CompanyCode),
-	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
-);
+CREATE VIEW QueryCountsByHour AS
+	SELECT CompanyCode, Intent, TimeSpecifier, Hour, SUM(Count) AS Count
+	FROM (SELECT CompanyCode, Intent, TimeSpecifier, Hour, Count
+		FROM QueryHourlyCounts
+		UNION ALL
+		SELECT CompanyCode, Intent, TimeSpecifier,
+			strftime('%Y-%m-%d %H:00:00', TimeOfQuery), 1
+		FROM Queries)
+	GROUP BY CompanyCode, Intent, TimeSpecifier, Hour;
 
-CREATE TABLE CompanyAbsoluteChangeCount (
+CREATE TABLE CompanyIntentCounts (
 	CompanyCode varchar(10),
-	AbsoluteChangeCount integer,
-	AbsoluteChangeAdjustment decimal(2,2),
-	primary key(CompanyCode),
+	Intent varchar(30),
+	Count integer,
+	Adjustment decimal(2,2),
+	primary key(CompanyCode, Intent),
 	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
 );
 
-CREATE TABLE CompanyClosingPriceCount (
+CREATE TABLE FTSECompanyHistoryBlocks (
 	CompanyCode varchar(10),
-	ClosingPriceCount integer,
-	ClosingPriceAdjustment decimal(2,2),
-	primary key(CompanyCode),
+	StartTime integer,
+	EndTime integer,
+	Samples integer,
+	Data blob,
+	primary key(CompanyCode, StartTime),
 	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
 );
 
-CREATE TABLE CompanyPercentageChangeCount (
-	CompanyCode varchar(10),
-	PercentageChangeCount integer,
-	PercentageChangeAdjustment decimal(2,2),
-	primary key(CompanyCode),
-	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
+CREATE TABLE NewsArticles (
+	Guid varchar(200),
+	Headline text,
+	Url text,
+	Digest text,
+	PubDate TimeStamp,
+	primary key(Guid)
 );
 
-CREATE TABLE CompanyTrendCount (
+CREATE TABLE NewsArticleCompanies (
 	CompanyCode varchar(10),
-	TrendCount integer,
-	TrendAdjustment decimal(2,2),
-	primary key(CompanyCode),
-	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
+	Guid varchar(200),
+	primary key(CompanyCode, Guid),
+	foreign key (CompanyCode) references FTSECompanies(CompanyCode),
+	foreign key (Guid) references NewsArticles(Guid)
 );
 
-CREATE TABLE CompanyTradingVolumeCount (
+CREATE TABLE NewsFetches (
 	CompanyCode varchar(10),
-	TradingVolumeCount integer,
-	TradingVolumeAdjustment decimal(2,2),
+	FetchedAt TimeStamp,
 	primary key(CompanyCode),
 	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
 );
 
-CREATE TABLE CompanyTrendSinceCount (
-	CompanyCode varchar(10),
-	TrendSinceCount integer,
-	TrendSinceAdjustment decimal(2,2),
-	primary key(CompanyCode),
-	foreign key (CompanyCode) references FTSECompanies(CompanyCode)
-);
+CREATE VIRTUAL TABLE NewsSearch USING fts5(Headline, Digest,
+	content='NewsArticles', tokenize='porter unicode61');
 
+PRAGMA user_version = 9;
@@ -5,18 +5,40 @@ import java.time.format.TextStyle;
 import java.util.Locale;
 
 public class Article implements Comparable<Article> {
+	private String guid;
 	private String headline;
 	private String url;
 	private String digest;
 	private LocalDateTime pubDate;
 
 	public Article(String headline, String url, String digest, LocalDateTime pubDate) {
+		this(url, headline, url, digest, pubDate);
+	}
+
+	/**
+	 * Constructor for an article with its own unique identifier
+	 * @param guid     the unique identifier given to the article by its feed
+	 * @param headline the title of the article
+	 * @param url      the link to the article
+	 * @param digest   a description of the article
+	 * @param pubDate  the date and time the article was posted
+	 */
+	public Article(String guid, String headline, String url, String digest, LocalDateTime pubDate) {
+		this.guid = guid;
 		this.headline = headline;
 		this.url = url;
 		this.digest = digest;
 		this.pubDate = pubDate;
 	}
 
+	/**
+	* Returns the unique identifier of the article, or its link if the feed gave none
+	* @return
+	*/
+	public String getGuid() {
+		return guid;
+	}
+
 	/**
 	* Returns value of headline
 	* @return
@@ -47,6 +47,7 @@ public class NewsScraper {
 
 	private Article[] scrape(String url) {
 
+		String articleGuid;
 		String articleHeadline;
 		String articleURL;
 		String articleDigest;
@@ -112,6 +113,17 @@ public class NewsScraper {
 					articleURL = temp.trim();
 
 
+					//GET GUID, which may have attributes. The link is used if there is none
+					startPos = articleDetails.indexOf("<guid");
+					endPos = articleDetails.indexOf("</guid>");
+					if (startPos >= 0 && endPos > startPos) {
+						startPos = articleDetails.indexOf(">", startPos) + 1;
+						articleGuid = articleDetails.substring(startPos, endPos).trim();
+					} else {
+						articleGuid = articleURL;
+					}
+
+
 					//GET PUBDATE
 					startPos = articleDetails.indexOf("<pubDate>") + 9;
 					endPos = articleDetails.indexOf("</pubDate>");
@@ -127,7 +139,7 @@ public class NewsScraper {
 					articleHeadline = temp.trim();
 
 					//Add new article to the ArrayList
-					articles.add(new Article(articleHeadline, articleURL, articleDigest, articleDateTime));
+					articles.add(new Article(articleGuid, articleHeadline, articleURL, articleDigest, articleDateTime));
 
 				}
 			}
@@ -1,5 +1,7 @@
 package footsiebot.nlp;
 
+import java.time.LocalTime;
+
 public interface IParseResult{
 
   public Intent getIntent();
@@ -12,4 +14,8 @@ public interface IParseResult{
 
   public TimeSpecifier getTimeSpecifier();
 
+  public LocalTime getTimeOfDay();
+
+  public String getKeywords();
+
 }
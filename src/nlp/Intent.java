@@ -10,6 +10,7 @@ public enum Intent {
   TREND,//rising or falling
   TREND_SINCE,
   NEWS,
+  NEWS_SEARCH,//news stored that mentions some keywords
 
   //GROUP_TREND,//Are X rising or falling
   //Posibly don't need these two
@@ -6,6 +6,7 @@ import java.util.*;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.File;
+import java.time.LocalTime;
 
 public class NLPCore implements INaturalLanguageProcessor{
     private HashMap<String,String> operandMap;//Maps raw string to internally used string. Could map to an enum instead.
@@ -20,6 +21,17 @@ public class NLPCore implements INaturalLanguageProcessor{
     private HashMap<String,TimeSpecifier> timeMap;
     private ArrayList<String> timeList;
 
+    //Times of day such as "11:30", "at 3pm" or "3:15 pm", with or without "at"
+    private static final Pattern TIME_OF_DAY = Pattern.compile(
+        "(?:\\bat )?\\b(?:(\\d{1,2}):(\\d{2})(?: ?(am|pm))?|(\\d{1,2}) ?(am|pm)|(noon|midday))\\b");
+
+    //Words left in a news search that are not worth searching for
+    private static final HashSet<String> STOP_WORDS = new HashSet<String>(Arrays.asList(
+        "a","an","the","and","or","of","for","on","in","to","at","by","with","about",
+        "any","some","me","my","is","are","was","were","there","what","whats","what's",
+        "show","find","give","get","tell","latest","recent","news","article","articles",
+        "mentioning","please","can","you","i"));
+
     public NLPCore(){
         initialiseOperands();
         initialiseIntents();
@@ -39,6 +51,7 @@ public class NLPCore implements INaturalLanguageProcessor{
         String operand = null;
         Boolean operandIsGroup = false;
         TimeSpecifier ts = TimeSpecifier.TODAY;
+        LocalTime timeOfDay = null;
 
         s = s.toLowerCase();
     	  //STRIP INTENT OUT OF STRING USING STRING.REPLACE AND STRING.CONTAINS
@@ -78,6 +91,18 @@ public class NLPCore implements INaturalLanguageProcessor{
         }
         //Acceptable for there to be no time specifier. Defaults to TODAY
 
+        //FIND TIME OF DAY FROM REMAINING. None means now.
+        Matcher m = TIME_OF_DAY.matcher(s);
+        if(m.find()){
+            timeOfDay = toTimeOfDay(m);
+            if(timeOfDay != null){
+                s = s.substring(0, m.start()) + s.substring(m.end());
+                if(in == null){//"what was barclays at 11:30" asks for the price then
+                    in = Intent.SPOT_PRICE;
+                }
+            }
+        }
+
     	//TOKENIZE REMAINING STRING
         s = s.replace("   "," ");//removing any triple spaces that may arrise from previous deletions
         s = s.replace("  "," ");//removing any double spaces.
@@ -89,6 +114,14 @@ public class NLPCore implements INaturalLanguageProcessor{
             tokens[i] = stripPunctuation(tokens[i]);
         }
 
+        if(in == Intent.NEWS_SEARCH){//So that words such as "for" in a search aren't autocompleted to an operand
+            for (int i = 0; i<tokens.length ; i++ ) {
+                if(STOP_WORDS.contains(tokens[i])){
+                    tokens[i] = null;
+                }
+            }
+        }
+
     	//FIND OPERAND
 
 
@@ -125,9 +158,87 @@ public class NLPCore implements INaturalLanguageProcessor{
           operand = null;
         }
 
+        //FIND KEYWORDS TO SEARCH THE NEWS FOR FROM WHAT IS LEFT
+        String keywords = null;
+        if(in == Intent.NEWS_SEARCH){
+            keywords = findKeywords(tokens,operand,operandIsGroup ? groupOperandMap : operandMap);
+            if(keywords == null){//"news about barclays" has nothing to search for, so asks for the news
+                in = Intent.NEWS;
+            }
+        }
 
+        return new ParseResult(in,raw,operand,operandIsGroup,ts,timeOfDay,keywords);//Note that fields could be null.
+    }
+
+    /**
+    * Finds the words of a news search, being the tokens left that are neither
+    * stop words nor part of any name of the operand.
+    * @param tokens The tokens left after the intent and times were removed, null if skipped.
+    * @param operand The operand found, or null if there is none.
+    * @param map The mapping the operand was found in.
+    * @return The keywords separated by spaces, or null if there are none.
+    */
+    private String findKeywords(String[] tokens,String operand,HashMap<String,String> map){
+        HashSet<String> operandWords = new HashSet<String>();
+        if(operand != null){
+            for (Map.Entry<String,String> e : map.entrySet()) {
+                if(e.getValue().equals(operand)){
+                    operandWords.addAll(Arrays.asList(e.getKey().split(" ")));
+                }
+            }
+        }
 
-        return new ParseResult(in,raw,operand,operandIsGroup,ts);//Note that fields could be null.
+        StringBuilder keywords = new StringBuilder();
+        for (String token : tokens) {
+            if(token == null || token.isEmpty() || STOP_WORDS.contains(token) || isPartOfName(token,operandWords)){
+                continue;
+            }
+            if(keywords.length() > 0){
+                keywords.append(" ");
+            }
+            keywords.append(token);
+        }
+        return keywords.length() == 0 ? null : keywords.toString();
+    }
+
+    /**
+    * Checks whether a token is a word of a name, or the start of one as
+    * autocompleted by autocompleteHeuristic.
+    * @param token The token.
+    * @param words The words of the names.
+    * @return true if the token is part of a name.
+    */
+    private boolean isPartOfName(String token,HashSet<String> words){
+        for (String word : words) {
+            if(word.equals(token) || (token.length() > 2 && word.startsWith(token))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+    * Converts a time of day matched by TIME_OF_DAY to a LocalTime.
+    * @param m The matcher, having found a time of day.
+    * @return The time of day, or null if it is not a real time such as "25:00".
+    */
+    private LocalTime toTimeOfDay(Matcher m){
+        if(m.group(6) != null){//noon or midday
+            return LocalTime.NOON;
+        }
+        int hour = Integer.parseInt(m.group(1) != null ? m.group(1) : m.group(4));
+        int minute = m.group(2) != null ? Integer.parseInt(m.group(2)) : 0;
+        String half = m.group(1) != null ? m.group(3) : m.group(5);
+        if(half != null){//12 hour clock
+            if(hour < 1 || hour > 12){
+                return null;
+            }
+            hour = hour % 12 + (half.equals("pm") ? 12 : 0);
+        }
+        if(hour > 23 || minute > 59){
+            return null;
+        }
+        return LocalTime.of(hour, minute);
     }
 
     /**
@@ -197,6 +308,11 @@ public class NLPCore implements INaturalLanguageProcessor{
 
     intentMap.put("news",Intent.NEWS);
 
+    intentMap.put("news about",Intent.NEWS_SEARCH);
+    intentMap.put("news mentioning",Intent.NEWS_SEARCH);
+    intentMap.put("search news",Intent.NEWS_SEARCH);
+    intentMap.put("search the news",Intent.NEWS_SEARCH);
+
 
     for (String s :intentMap.keySet()) {
       intentList.add(s);
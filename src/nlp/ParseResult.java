@@ -1,5 +1,7 @@
 package footsiebot.nlp;
 
+import java.time.LocalTime;
+
 public class ParseResult implements IParseResult{
 
   private Intent in;
@@ -12,16 +14,36 @@ public class ParseResult implements IParseResult{
 
   private TimeSpecifier ts;//Used to convey info such as "this morning" or "yesterday"
 
+  private LocalTime timeOfDay;//The time of day asked about, such as "11:30", or null for now
+
+  private String keywords;//The words to search the news for, separated by spaces
+
   public ParseResult(Intent i, String r, String o, Boolean oig, TimeSpecifier t){
+    this(i, r, o, oig, t, null);
+  }
+
+  public ParseResult(Intent i, String r, String o, Boolean oig, TimeSpecifier t, LocalTime tod){
+    this(i, r, o, oig, t, tod, null);
+  }
+
+  public ParseResult(Intent i, String r, String o, Boolean oig, TimeSpecifier t, LocalTime tod, String k){
     in = i;
     raw = r;
     operand = o;
     operandIsGroup = oig;
     ts = t;
+    timeOfDay = tod;
+    keywords = k;
   }
 
   public String toString(){
       String s = "Intent: '"+in+"' Operand: '"+operand+"' isGroup: '"+operandIsGroup+ "' Time: '"+ts+"'";
+      if(timeOfDay != null){
+          s += " At: '"+timeOfDay+"'";
+      }
+      if(keywords != null){
+          s += " Keywords: '"+keywords+"'";
+      }
       return s;
   }
 
@@ -35,6 +57,10 @@ public class ParseResult implements IParseResult{
 
   public TimeSpecifier getTimeSpecifier(){return ts;}
 
+  public LocalTime getTimeOfDay(){return timeOfDay;}
+
+  public String getKeywords(){return keywords;}
+
 
 
 